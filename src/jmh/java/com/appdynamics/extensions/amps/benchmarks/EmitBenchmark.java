@@ -0,0 +1,134 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps.benchmarks;
+
+import com.appdynamics.extensions.amps.AMPSDocumentGenerator;
+import com.appdynamics.extensions.amps.AMPSJsonExtractor;
+import com.appdynamics.extensions.amps.metrics.MetricFilter;
+import com.appdynamics.extensions.amps.metrics.MetricFrame;
+import com.appdynamics.extensions.amps.metrics.MetricIds;
+import com.appdynamics.extensions.amps.metrics.MetricRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the filter/emit stage per cycle: filtering every metric of a document against a configurable
+ * number of disabledMetrics rules, with a cold and a warm decision cache, and emitting through the
+ * registry in the steady state, by name from a map and by id from a frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EmitBenchmark {
+
+    @Param({"small", "huge"})
+    public String size;
+
+    @Param({"1", "100"})
+    public int rules;
+
+    private Map<String, Double> metrics;
+    private List<String> disabledMetrics;
+    private MetricFilter filter;
+    private MetricRegistry registry;
+    private MetricFrame frame;
+    private MetricRegistry frameRegistry;
+
+    @Setup
+    public void setUp() throws IOException {
+        Map<String, Double> extracted = new AMPSJsonExtractor().extract(new StringReader(AMPSDocumentGenerator.named(size).generate()));
+        metrics = new HashMap<String, Double>();
+        for (Map.Entry<String, Double> entry : extracted.entrySet()) {
+            metrics.put("AMPS 1|" + entry.getKey(), entry.getValue());
+        }
+
+        disabledMetrics = new ArrayList<String>();
+        disabledMetrics.add(".*client status cache.*");
+        for (int i = 1; i < rules; i++) {
+            // a mix of literal and real regex rules, none of them matching
+            disabledMetrics.add(i % 2 == 0 ? ".*\\|network\\|eth" + (i + 1000) + "\\|.*" : ".*\\|cache " + (i + 1000) + "\\|(bytes|entries)");
+        }
+        filter = new MetricFilter(null, disabledMetrics);
+        registry = newRegistry(new MetricIds());
+
+        MetricIds metricIds = new MetricIds();
+        frame = new MetricFrame(metricIds);
+        for (Map.Entry<String, Double> entry : metrics.entrySet()) {
+            frame.put(entry.getKey(), entry.getValue());
+        }
+        frameRegistry = newRegistry(metricIds);
+    }
+
+    private MetricRegistry newRegistry(MetricIds metricIds) {
+        return new MetricRegistry(metricIds, "Custom Metrics|AMPS|", filter, new MetricRegistry.WriterFactory() {
+            public MetricRegistry.Writer createWriter(String fullMetricName) {
+                return NULL_WRITER;
+            }
+        });
+    }
+
+    /**
+     * What every cycle used to cost: compiling the rules and matching every name
+     */
+    @Benchmark
+    public void filterColdCache(Blackhole blackhole) {
+        MetricFilter coldFilter = new MetricFilter(null, disabledMetrics);
+        for (String metricName : metrics.keySet()) {
+            blackhole.consume(coldFilter.isEnabled(metricName));
+        }
+    }
+
+    @Benchmark
+    public void filterWarmCache(Blackhole blackhole) {
+        for (String metricName : metrics.keySet()) {
+            blackhole.consume(filter.isEnabled(metricName));
+        }
+    }
+
+    @Benchmark
+    public void emitThroughRegistry() {
+        for (Map.Entry<String, Double> entry : metrics.entrySet()) {
+            registry.print(entry.getKey(), entry.getValue());
+        }
+        registry.endCycle();
+    }
+
+    @Benchmark
+    public void emitFrameThroughRegistry() {
+        for (int i = 0; i < frame.size(); i++) {
+            frameRegistry.print(frame.idAt(i), frame.valueAt(i));
+        }
+        frameRegistry.endCycle();
+    }
+
+    private static final MetricRegistry.Writer NULL_WRITER = new MetricRegistry.Writer() {
+        public void printMetric(String value) {
+        }
+    };
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps.benchmarks;
+
+import com.appdynamics.extensions.amps.AMPSDocumentGenerator;
+import com.appdynamics.extensions.amps.AMPSJsonExtractor;
+import com.appdynamics.extensions.amps.metrics.MetricFrame;
+import com.appdynamics.extensions.amps.metrics.TopNSelector;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of turning an /amps.json body into metrics: the complete document, into a map and into a
+ * reused frame, the keyed network and cache arrays served as sections, the document with the top 10
+ * clients selected, and the Gson tree parse the extension used before as a baseline.
+ * Add <code>-prof gc</code> to the jmh arguments to see the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExtractionBenchmark {
+
+    @Param({"small", "large", "huge"})
+    public String size;
+
+    private byte[] document;
+    private AMPSJsonExtractor documentExtractor;
+    private AMPSJsonExtractor networkExtractor;
+    private AMPSJsonExtractor cachesExtractor;
+    private AMPSJsonExtractor topClientsExtractor;
+    private MetricFrame frame;
+
+    @Setup
+    public void setUp() throws IOException {
+        document = AMPSDocumentGenerator.named(size).generate().getBytes("UTF-8");
+        documentExtractor = new AMPSJsonExtractor();
+        networkExtractor = new AMPSJsonExtractor("host/network");
+        cachesExtractor = new AMPSJsonExtractor("instance/caches");
+        topClientsExtractor = new AMPSJsonExtractor(new TopNSelector(10, Arrays.asList("queue_depth", "bytes_out", "lag")));
+        frame = new MetricFrame(documentExtractor.getMetricIds());
+    }
+
+    @Benchmark
+    public Map<String, Double> extractDocument() throws IOException {
+        return documentExtractor.extract(reader());
+    }
+
+    /**
+     * The steady state of a poll: the ids are learned and the frame is refilled
+     */
+    @Benchmark
+    public MetricFrame extractDocumentIntoFrame() throws IOException {
+        frame.clear();
+        documentExtractor.extract(reader(), frame);
+        return frame;
+    }
+
+    @Benchmark
+    public Map<String, Double> extractNetworkArray() throws IOException {
+        return networkExtractor.extract(reader());
+    }
+
+    @Benchmark
+    public Map<String, Double> extractCachesArray() throws IOException {
+        return cachesExtractor.extract(reader());
+    }
+
+    @Benchmark
+    public Map<String, Double> extractDocumentWithTopClients() throws IOException {
+        return topClientsExtractor.extract(reader());
+    }
+
+    @Benchmark
+    public JsonElement parseTreeBaseline() throws IOException {
+        return new JsonParser().parse(reader());
+    }
+
+    private Reader reader() throws IOException {
+        return new InputStreamReader(new ByteArrayInputStream(document), "UTF-8");
+    }
+}
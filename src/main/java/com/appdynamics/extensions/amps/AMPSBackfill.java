@@ -0,0 +1,303 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps;
+
+import com.appdynamics.extensions.amps.metrics.MetricFrame;
+import com.appdynamics.extensions.amps.metrics.MetricIds;
+import com.appdynamics.extensions.http.Response;
+import com.appdynamics.extensions.http.SimpleHttpClient;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/**
+ * Fills the gaps in the metrics of one server from the statistics history that AMPS keeps. The time of
+ * the last successful poll is tracked; when a poll succeeds after a gap, the missed window (bounded by
+ * a maximum) is fetched with time range queries (<code>?t0=...&amp;t1=...</code>) of the resources the
+ * server is polled with. The window is fetched in pages of a fixed duration, every page is streamed
+ * through the extractor and handed to the listener as one frame per sample time, oldest first, so only
+ * the samples of one page are held in memory. Every call fetches a bounded number of pages, the rest
+ * of the window is fetched by the next calls.
+ * <p>
+ * Not thread safe, used under the lock of the {@link AMPSCollector}.
+ */
+public class AMPSBackfill {
+
+    private static final Logger logger = Logger.getLogger(AMPSBackfill.class);
+
+    // the time format of the admin API, in UTC
+    private static final String TIME_FORMAT = "yyyyMMdd'T'HHmmss";
+    private static final String UTF_8 = "UTF-8";
+    private static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    /**
+     * Receives the backfilled metrics, one frame per sample time
+     */
+    public interface BatchListener {
+        /**
+         * @param timestamp - time of the samples in milliseconds since the epoch
+         * @param metrics   - the samples taken at that time, the frame is reused after the call
+         */
+        void batch(long timestamp, MetricFrame metrics);
+    }
+
+    private final String displayName;
+    private final SimpleHttpClient httpClient;
+    private final List<AMPSJsonExtractor> extractors;
+    private final MetricIds metricIds;
+    private final long gapMillis;
+    private final long maxMillis;
+    private final long pageMillis;
+
+    private long lastSuccess;
+    // the window still to backfill, empty when from >= to
+    private long pendingFrom;
+    private long pendingTo;
+
+    // the samples of the current page by time, the frames are reused for every page
+    private final TreeMap<Long, MetricFrame> page = new TreeMap<Long, MetricFrame>();
+    private final List<MetricFrame> freeFrames = new ArrayList<MetricFrame>();
+    private long pageFrom;
+    private long pageTo;
+    // how long the last page took, a page is only started if it fits before the deadline
+    private long pageNanos;
+
+    private final AMPSJsonExtractor.HistoryListener pageListener = new AMPSJsonExtractor.HistoryListener() {
+        public void sample(int id, long timestamp, double value) {
+            if (timestamp < pageFrom || timestamp >= pageTo) {
+                return;
+            }
+            MetricFrame metrics = page.get(timestamp);
+            if (metrics == null) {
+                metrics = freeFrames.isEmpty() ? new MetricFrame(metricIds) : freeFrames.remove(freeFrames.size() - 1);
+                page.put(timestamp, metrics);
+            }
+            metrics.set(id, value);
+        }
+    };
+
+    /**
+     * @param displayName - the server, for logging
+     * @param httpClient  - the pooled client of the server
+     * @param extractors  - extract the resources the server is polled with, without ranked sections
+     * @param gapMillis   - time between two successful polls that is considered a gap
+     * @param maxMillis   - the longest window that is backfilled, older samples are given up
+     * @param pageMillis  - duration of the window of one range query
+     */
+    public AMPSBackfill(String displayName, SimpleHttpClient httpClient, List<AMPSJsonExtractor> extractors, long gapMillis,
+                        long maxMillis, long pageMillis) {
+        if (extractors.isEmpty()) {
+            throw new IllegalArgumentException("No resources to backfill server " + displayName + " from");
+        }
+        this.displayName = displayName;
+        this.httpClient = httpClient;
+        this.extractors = extractors;
+        this.metricIds = extractors.get(0).getMetricIds();
+        this.gapMillis = gapMillis;
+        this.maxMillis = maxMillis;
+        this.pageMillis = Math.max(1000, pageMillis);
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * @return the time of the last successful poll, 0 if unknown
+     */
+    public long getLastSuccess() {
+        return lastSuccess;
+    }
+
+    /**
+     * Restores the time of the last successful poll of a previous run
+     */
+    public void setLastSuccess(long lastSuccess) {
+        this.lastSuccess = lastSuccess;
+    }
+
+    /**
+     * Records a successful poll, the window since the previous successful poll is backfilled if it was
+     * longer than the gap
+     */
+    public void recordSuccess(long now) {
+        if (lastSuccess > 0 && now - lastSuccess > gapMillis) {
+            // the sample of the last successful poll was reported
+            long from = Math.max(lastSuccess + 1000, now - maxMillis);
+            if (hasPending()) {
+                from = Math.max(Math.min(pendingFrom, from), now - maxMillis);
+            }
+            pendingFrom = from;
+            pendingTo = now;
+            logger.info("Server [" + displayName + "] was not polled since " + new Date(lastSuccess) + ", backfilling from "
+                    + new Date(pendingFrom));
+        }
+        lastSuccess = now;
+    }
+
+    public boolean hasPending() {
+        return pendingFrom < pendingTo;
+    }
+
+    /**
+     * Fetches the pending window page by page and hands the samples to the listener, until the window is
+     * filled, the pages are used up or the next page is not expected to complete before the deadline. A
+     * failing range query gives up the rest of the window, the server may not keep a statistics history.
+     *
+     * @param maxPages      - the most pages to fetch
+     * @param deadlineNanos - {@link System#nanoTime()} by which the fetch should be done
+     * @return the number of pages fetched
+     */
+    public int backfill(BatchListener listener, int maxPages, long deadlineNanos) {
+        int pages = 0;
+        while (hasPending() && pages < maxPages) {
+            long start = System.nanoTime();
+            if (deadlineNanos - start < pageNanos || deadlineNanos - start <= 0) {
+                break;
+            }
+            pages++;
+            pageFrom = pendingFrom;
+            pageTo = Math.min(pendingFrom + pageMillis, pendingTo);
+            try {
+                for (AMPSJsonExtractor extractor : extractors) {
+                    fetch(extractor, pageFrom, pageTo);
+                }
+            } catch (Exception e) {
+                logger.warn("Backfill of server [" + displayName + "] from " + new Date(pageFrom) + " to " + new Date(pendingTo)
+                        + " failed, giving it up: " + e);
+                pendingFrom = pendingTo;
+                releasePage();
+                break;
+            }
+            for (Map.Entry<Long, MetricFrame> entry : page.entrySet()) {
+                listener.batch(entry.getKey(), entry.getValue());
+            }
+            releasePage();
+            pendingFrom = pageTo;
+            pageNanos = System.nanoTime() - start;
+        }
+        return pages;
+    }
+
+    private void releasePage() {
+        for (MetricFrame metrics : page.values()) {
+            metrics.clear();
+            freeFrames.add(metrics);
+        }
+        page.clear();
+    }
+
+    private void fetch(AMPSJsonExtractor extractor, long from, long to) throws IOException {
+        String path = extractor.getResource() + "?t0=" + format(from) + "&t1=" + format(to);
+        Response response = httpClient.target().path(path).header("Accept-Encoding", ACCEPT_ENCODING).get();
+        InputStream in = null;
+        try {
+            if (response.getStatus() >= 300) {
+                throw new IOException("Server returned HTTP " + response.getStatus() + " for " + path);
+            }
+            in = response.inputStream();
+            String contentEncoding = response.getHeader("Content-Encoding");
+            if (contentEncoding != null) {
+                in = AMPSWrapper.decode(in, contentEncoding);
+            }
+            extractor.extractHistory(new InputStreamReader(in, UTF_8), pageListener);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+            try {
+                response.close();
+            } catch (Exception e) {
+                // Ignore
+            }
+        }
+    }
+
+    static String format(long timestamp) {
+        SimpleDateFormat format = new SimpleDateFormat(TIME_FORMAT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(timestamp));
+    }
+
+    /**
+     * Parses the timestamp of a sample, either in the ISO 8601 basic format of the admin API
+     * (<code>20180213T120000</code>, optionally with fractional seconds and a trailing Z, in UTC) or as
+     * seconds since the epoch
+     *
+     * @return milliseconds since the epoch, -1 if the timestamp is not valid
+     */
+    static long parseTimestamp(String timestamp) {
+        if (timestamp.length() >= 15 && timestamp.charAt(8) == 'T') {
+            int year = digits(timestamp, 0, 4);
+            int month = digits(timestamp, 4, 2);
+            int day = digits(timestamp, 6, 2);
+            int hour = digits(timestamp, 9, 2);
+            int minute = digits(timestamp, 11, 2);
+            int second = digits(timestamp, 13, 2);
+            if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23 || minute < 0 || minute > 59
+                    || second < 0 || second > 60) {
+                return -1;
+            }
+            int millis = 0;
+            if (timestamp.length() > 16 && timestamp.charAt(15) == '.') {
+                int length = Math.min(3, timestamp.length() - 16);
+                millis = digits(timestamp, 16, length);
+                if (millis < 0) {
+                    return -1;
+                }
+                for (int i = length; i < 3; i++) {
+                    millis *= 10;
+                }
+            }
+            return (((daysSinceEpoch(year, month, day) * 24 + hour) * 60 + minute) * 60 + second) * 1000L + millis;
+        }
+        try {
+            double seconds = Double.parseDouble(timestamp);
+            return seconds < 0 ? -1 : (long) (seconds * 1000);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static int digits(String s, int start, int length) {
+        int value = 0;
+        for (int i = start; i < start + length; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + c - '0';
+        }
+        return value;
+    }
+
+    /**
+     * Days from 1970-01-01 to the given date of the proleptic Gregorian calendar
+     */
+    private static long daysSinceEpoch(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+}
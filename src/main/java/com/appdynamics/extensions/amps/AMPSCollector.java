@@ -0,0 +1,665 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps;
+
+import com.appdynamics.extensions.amps.config.Configuration;
+import com.appdynamics.extensions.amps.config.Server;
+import com.appdynamics.extensions.amps.config.ServerGroup;
+import com.appdynamics.extensions.amps.metrics.CardinalityGuard;
+import com.appdynamics.extensions.amps.metrics.ClusterAggregator;
+import com.appdynamics.extensions.amps.metrics.MetricFilter;
+import com.appdynamics.extensions.amps.metrics.MetricFrame;
+import com.appdynamics.extensions.amps.metrics.MetricIds;
+import com.appdynamics.extensions.amps.metrics.MonitorStats;
+import com.appdynamics.extensions.amps.metrics.RateConverter;
+import com.appdynamics.extensions.amps.metrics.RollupBuffer;
+import com.appdynamics.extensions.amps.metrics.TopNSelector;
+import com.appdynamics.extensions.http.SimpleHttpClient;
+import com.appdynamics.extensions.yml.YmlReader;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long lived collector that is kept by {@link AMPSMonitor} across executions. It holds the parsed
+ * configuration, one pooled keep-alive http client per server and the worker pool, and only rebuilds
+ * them when the content of the config file changes. The steady state poll therefore does not pay for
+ * reading the config, opening connections or TLS handshakes.
+ * <p>
+ * The connections to the servers are held by {@link AMPSConnections}, the spool and the backfill of
+ * the gaps by {@link AMPSHistory}.
+ */
+public class AMPSCollector {
+
+    private static final Logger logger = Logger.getLogger(AMPSCollector.class);
+
+    // execution-frequency-in-seconds of monitor.xml
+    private static final int REPORT_INTERVAL_SECONDS = 60;
+
+    // bounds for the connect and read timeouts derived from the deadline
+    private static final int MIN_TIMEOUT_MILLIS = 1000;
+    private static final int MAX_TIMEOUT_MILLIS = 30000;
+
+    private static final String AVAILABILITY = "availability";
+
+    private static final String BLOCKING_ENGINE = "blocking";
+    private static final String NIO_ENGINE = "nio";
+
+    // the schema is compacted when it holds more names than this many times the capped paths, which
+    // leaves room for the rates, rollups and aggregates derived from them
+    private static final int COMPACT_FACTOR = 8;
+    private static final int COMPACT_SLACK = 1024;
+
+    private static final List<String> DEFAULT_TOP_CLIENTS_BY = Arrays.asList("queue_depth", "bytes_out", "lag");
+
+    private final File configFile;
+    private final MonitorStats monitorStats = new MonitorStats();
+    private MetricIds metricIds = new MetricIds();
+    private MetricFrame polled = new MetricFrame(metricIds);
+    private MetricFrame rolledUp = new MetricFrame(metricIds);
+    // the size of the schema that triggers a compaction, 0 if the paths are not capped
+    private int metricIdLimit;
+
+    private long configLastModified = -1;
+    private long configLength = -1;
+    private byte[] configDigest;
+
+    private Configuration configuration;
+    private MetricFilter metricFilter;
+    private List<AMPSMonitorTask> tasks = new ArrayList<AMPSMonitorTask>();
+    private AMPSConnections connections;
+    private Map<String, CircuitBreaker> circuitBreakers = new LinkedHashMap<String, CircuitBreaker>();
+    private List<ClusterAggregator> clusters = new ArrayList<ClusterAggregator>();
+    private ExecutorService executorService;
+    private long pollDeadlineMillis;
+    private ScheduledExecutorService sampler;
+    private RollupBuffer rollupBuffer;
+    private AMPSHistory history;
+    private SectionSchedule schedule;
+    private long ticks;
+    // what the sampler polled since the last collect, its timer is not aligned with the executions
+    private boolean sampled;
+    private final Set<String> sampledSections = new HashSet<String>();
+    private ExtractionPlan plan;
+    // with section intervals, one task per server that fetches the due sections of every tick
+    private List<AMPSMonitorTask> tieredTasks = new ArrayList<AMPSMonitorTask>();
+
+    public AMPSCollector(String configFilename) {
+        this.configFile = new File(configFilename);
+    }
+
+    public String getConfigFilename() {
+        return configFile.getPath();
+    }
+
+    public synchronized Configuration getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * @return the filter compiled from the included/disabled metrics of the current configuration
+     */
+    public synchronized MetricFilter getMetricFilter() {
+        return metricFilter;
+    }
+
+    /**
+     * @return the schema of the frames returned by {@link #collect()}, kept across reloads that are
+     * not compactions
+     */
+    public synchronized MetricIds getMetricIds() {
+        return metricIds;
+    }
+
+    /**
+     * @return the self instrumentation of the collector, kept across reloads
+     */
+    public MonitorStats getMonitorStats() {
+        return monitorStats;
+    }
+
+    /**
+     * Re-reads the config file when its content changed since the last call. The modification time and
+     * length are checked first, the file is only hashed when one of them changed. An unchanged
+     * configuration is rebuilt with a fresh schema when the schema needs to be compacted. A file that
+     * cannot be loaded once a configuration is running is logged and the current configuration stays.
+     *
+     * @return true if the configuration was (re)loaded or the schema was replaced
+     */
+    public synchronized boolean reloadIfChanged() throws IOException {
+        long lastModified = configFile.lastModified();
+        long length = configFile.length();
+        if (configuration != null && lastModified == configLastModified && length == configLength) {
+            return compactIfNeeded();
+        }
+
+        byte[] digest = digest(configFile);
+        if (configuration != null && Arrays.equals(digest, configDigest)) {
+            logger.debug("Config file " + configFile + " touched but content unchanged");
+            configLastModified = lastModified;
+            configLength = length;
+            return compactIfNeeded();
+        }
+
+        try {
+            Configuration config = YmlReader.readFromFile(configFile.getPath(), Configuration.class);
+            if (config == null) {
+                throw new IllegalArgumentException("Unable to read config file " + configFile);
+            }
+            logger.info((configuration == null ? "Loading" : "Reloading") + " configuration from " + configFile);
+            rebuild(config);
+        } catch (RuntimeException e) {
+            if (configuration == null) {
+                throw e;
+            }
+            // the broken file is not read again until it changes
+            logger.error("Unable to reload config file " + configFile + ", keeping the current configuration", e);
+            configLastModified = lastModified;
+            configLength = length;
+            configDigest = digest;
+            return compactIfNeeded();
+        }
+        configLastModified = lastModified;
+        configLength = length;
+        configDigest = digest;
+        return true;
+    }
+
+    /**
+     * Replaces the schema when the names of the recycled metric paths piled up in it. Everything keyed
+     * by metric id starts over: the counters of the rates, the samples of the current rollup and the
+     * slots of the guards.
+     *
+     * @return true if the schema was replaced
+     */
+    private boolean compactIfNeeded() {
+        if (metricIdLimit <= 0 || metricIds.size() <= metricIdLimit) {
+            return false;
+        }
+        logger.info("Compacting the metric schema, it holds " + metricIds.size() + " names for at most "
+                + configuration.getMaxMetricPathsPerServer() + " paths per server");
+        metricIds = new MetricIds();
+        polled = new MetricFrame(metricIds);
+        rolledUp = new MetricFrame(metricIds);
+        rebuild(configuration);
+        return true;
+    }
+
+    /**
+     * Builds the clients and tasks of the configuration and only then replaces the current ones, a
+     * configuration that fails to build leaves the current ones polling
+     */
+    private void rebuild(Configuration config) {
+        String httpEngine = config.getHttpEngine() == null ? BLOCKING_ENGINE : config.getHttpEngine().trim();
+        boolean nonBlocking = NIO_ENGINE.equalsIgnoreCase(httpEngine);
+        if (!nonBlocking && !BLOCKING_ENGINE.equalsIgnoreCase(httpEngine)) {
+            throw new IllegalArgumentException("Unknown httpEngine [" + httpEngine + "], valid engines are " + BLOCKING_ENGINE
+                    + " and " + NIO_ENGINE);
+        }
+
+        List<Server> servers = config.getServers();
+        if (servers == null) {
+            servers = new ArrayList<Server>();
+        }
+        // fail the reload early on an invalid section definition or a typo rather than on every poll
+        ExtractionPlan plan = ExtractionPlan.compile(config.getSectionDefinitions());
+        List<String> sections = config.getSections();
+        if (sections != null) {
+            for (String section : sections) {
+                plan.getResource(section);
+            }
+        }
+        SectionSchedule newSchedule = buildSchedule(config, sections);
+        int rateMultiplier = config.getCounterRateMultiplier();
+        if (rateMultiplier < 1) {
+            throw new IllegalArgumentException("counterRateMultiplier must be positive: " + rateMultiplier);
+        }
+
+        // the requests beyond the number of threads queue up, each wave gets its share of the deadline
+        long deadlineMillis = TimeUnit.SECONDS.toMillis(config.getCycleDeadlineSeconds());
+        // a tick of the schedule fetches all due sections of a server with one request
+        int requestsPerServer = sections == null || sections.isEmpty() || newSchedule != null ? 1 : sections.size();
+        int requests = servers.size() * requestsPerServer;
+        int threads = Math.max(1, Math.min(config.getNumberOfThreads(), requests));
+        // the non blocking engine sends its requests at once, only the requests of the servers polled over
+        // SSL take a thread for the whole request
+        int blockingRequests = requests;
+        if (nonBlocking) {
+            blockingRequests = 0;
+            for (Server server : servers) {
+                if (server.isUseSSL()) {
+                    blockingRequests += requestsPerServer;
+                }
+            }
+        }
+        int waves = Math.max(1, (blockingRequests + threads - 1) / threads);
+        long requestMillis = deadlineMillis / waves;
+        int connectTimeout = boundTimeout(requestMillis / 4);
+        int socketTimeout = boundTimeout(requestMillis / 2);
+
+        List<String> counterMetrics = config.getCounterMetrics();
+        MetricFilter counters = counterMetrics == null || counterMetrics.isEmpty() ? null : new MetricFilter(counterMetrics, null);
+
+        List<ClusterAggregator> newClusters = new ArrayList<ClusterAggregator>();
+        Map<String, List<ClusterAggregator>> groupsOf = buildGroups(config, servers, newClusters);
+
+        Map<String, CircuitBreaker> newBreakers = new LinkedHashMap<String, CircuitBreaker>();
+        List<AMPSMonitorTask> newTasks = new ArrayList<AMPSMonitorTask>();
+        List<String> displayNames = new ArrayList<String>();
+        List<AMPSMonitorTask> newTieredTasks = new ArrayList<AMPSMonitorTask>();
+        MetricFilter newMetricFilter = new MetricFilter(config.getIncludedMetrics(), config.getDisabledMetrics());
+        AMPSConnections newConnections = new AMPSConnections(nonBlocking && !servers.isEmpty(), config.getIoThreads(),
+                connectTimeout, socketTimeout);
+        AMPSHistory newHistory = new AMPSHistory(config, configFile.getAbsoluteFile().getParentFile(), metricIds,
+                newMetricFilter, counters);
+        try {
+            for (Server server : servers) {
+                SimpleHttpClient httpClient = newConnections.connect(server);
+                displayNames.add(server.getDisplayName());
+                MonitorStats.ServerStats stats = monitorStats.forServer(server.getDisplayName());
+                CircuitBreaker breaker = new CircuitBreaker(config.getFailuresBeforeBackoff(),
+                        TimeUnit.SECONDS.toMillis(config.getInitialBackoffSeconds()), TimeUnit.SECONDS.toMillis(config.getMaxBackoffSeconds()));
+                newBreakers.put(server.getDisplayName(), breaker);
+                CardinalityGuard guard = newGuard(config, stats);
+                if (newSchedule != null) {
+                    // the rates and the change detection of the server are shared by all its due sections
+                    AMPSJsonExtractor extractor = new AMPSJsonExtractor(plan, sections, newTopClients(config), metricIds,
+                            server.getDisplayName() + AMPSWrapper.METRIC_SEPARATOR);
+                    newTieredTasks.add(new AMPSMonitorTask(server, null, httpClient, new AMPSWrapper(extractor, stats),
+                            new RateConverter(counters, metricIds, rateMultiplier), breaker,
+                            members(groupsOf.get(server.getDisplayName()), server), guard));
+                } else if (sections == null || sections.isEmpty()) {
+                    AMPSWrapper ampsWrapper = newWrapper(plan, server, null, config, stats);
+                    newTasks.add(new AMPSMonitorTask(server, null, httpClient, ampsWrapper,
+                            new RateConverter(counters, metricIds, rateMultiplier), breaker,
+                            members(groupsOf.get(server.getDisplayName()), server), guard));
+                } else {
+                    // the sections of a server share its connection pool, its circuit breaker and its guard
+                    for (String section : sections) {
+                        AMPSWrapper ampsWrapper = newWrapper(plan, server, section, config, stats);
+                        newTasks.add(new AMPSMonitorTask(server, section, httpClient, ampsWrapper,
+                                new RateConverter(counters, metricIds, rateMultiplier), breaker, members(groupsOf.get(server.getDisplayName()), server), guard));
+                    }
+                }
+            }
+            newHistory.buildBackfills(plan, servers, newConnections.getHttpClients(),
+                    config.getSamplingIntervalSeconds() > 0 ? config.getSamplingIntervalSeconds() : REPORT_INTERVAL_SECONDS);
+        } catch (RuntimeException e) {
+            newConnections.close();
+            throw e;
+        }
+
+        close();
+        monitorStats.retainServers(displayNames);
+        this.configuration = config;
+        this.metricFilter = newMetricFilter;
+        this.tasks = newTasks;
+        this.plan = plan;
+        this.schedule = newSchedule;
+        this.tieredTasks = newTieredTasks;
+        this.ticks = 0;
+        this.sampled = false;
+        this.sampledSections.clear();
+        this.circuitBreakers = newBreakers;
+        this.clusters = newClusters;
+        this.connections = newConnections;
+        this.history = newHistory;
+        this.pollDeadlineMillis = deadlineMillis;
+        this.metricIdLimit = config.getMaxMetricPathsPerServer() > 0
+                ? (int) Math.min(Integer.MAX_VALUE, (long) COMPACT_FACTOR * config.getMaxMetricPathsPerServer() * servers.size() + COMPACT_SLACK)
+                : 0;
+        history.open();
+        if (!servers.isEmpty()) {
+            logger.debug("Polling " + requests + " server sections with " + threads + (nonBlocking ? " extraction" : "")
+                    + " threads, deadline " + deadlineMillis
+                    + "ms, connect timeout " + connectTimeout + "ms, read timeout " + socketTimeout + "ms");
+            this.executorService = AMPSWorkerPool.newFixedPool("AMPSMonitor", threads);
+            if (config.getSamplingIntervalSeconds() > 0 || schedule != null) {
+                startSampler(config);
+            }
+        }
+    }
+
+    /**
+     * @return the schedule of the configured section intervals, null if all sections are polled every
+     * sample or execution
+     */
+    private static SectionSchedule buildSchedule(Configuration config, List<String> sections) {
+        Map<String, Integer> intervals = config.getSectionIntervals();
+        if (intervals == null || intervals.isEmpty()) {
+            return null;
+        }
+        if (sections == null || sections.isEmpty()) {
+            throw new IllegalArgumentException("sectionIntervals require the polled sections to be listed under sections");
+        }
+        // every section is sampled at least once per report, the rollup reports its last value
+        int defaultInterval = config.getSamplingIntervalSeconds() > 0 ? config.getSamplingIntervalSeconds() : REPORT_INTERVAL_SECONDS;
+        return new SectionSchedule(sections, intervals, Math.min(defaultInterval, REPORT_INTERVAL_SECONDS), REPORT_INTERVAL_SECONDS);
+    }
+
+    /**
+     * @param due - sections in the order they are configured
+     * @return one task per server that fetches the sections
+     */
+    private List<AMPSMonitorTask> tasksFor(List<String> due) {
+        for (AMPSMonitorTask task : tieredTasks) {
+            task.select(due);
+        }
+        logger.debug("Polling sections " + due + " with " + plan.getResource(due));
+        return tieredTasks;
+    }
+
+    /**
+     * @return the guard of a server, or null if its metric paths are not capped
+     */
+    private static CardinalityGuard newGuard(Configuration config, MonitorStats.ServerStats stats) {
+        if (config.getMaxMetricPathsPerServer() <= 0) {
+            stats.recordMetricPaths(-1);
+            return null;
+        }
+        long expiryMillis = TimeUnit.SECONDS.toMillis((long) Math.max(1, config.getMetricPathExpiryCycles()) * REPORT_INTERVAL_SECONDS);
+        return new CardinalityGuard(config.getMaxMetricPathsPerServer(), expiryMillis, stats);
+    }
+
+    private static int boundTimeout(long millis) {
+        return (int) Math.max(MIN_TIMEOUT_MILLIS, Math.min(MAX_TIMEOUT_MILLIS, millis));
+    }
+
+    /**
+     * Creates the aggregator of every server group
+     *
+     * @return the aggregators of the groups of every server, by display name
+     */
+    private static Map<String, List<ClusterAggregator>> buildGroups(Configuration config, List<Server> servers,
+                                                                     List<ClusterAggregator> aggregators) {
+        Map<String, List<ClusterAggregator>> groupsOf = new HashMap<String, List<ClusterAggregator>>();
+        for (Server server : servers) {
+            groupsOf.put(server.getDisplayName(), new ArrayList<ClusterAggregator>());
+        }
+        List<ServerGroup> groups = config.getServerGroups();
+        if (groups == null || groups.isEmpty()) {
+            return groupsOf;
+        }
+        List<String> clusterMetrics = config.getClusterMetrics();
+        MetricFilter filter = clusterMetrics == null || clusterMetrics.isEmpty() ? null : new MetricFilter(clusterMetrics, null);
+        for (ServerGroup group : groups) {
+            if (group.getName() == null || group.getName().trim().length() == 0) {
+                throw new IllegalArgumentException("Server group without a name, servers " + group.getServers());
+            }
+            ClusterAggregator aggregator = new ClusterAggregator(group.getName(), filter);
+            aggregators.add(aggregator);
+            if (group.getServers() == null) {
+                continue;
+            }
+            for (String member : group.getServers()) {
+                List<ClusterAggregator> memberOf = groupsOf.get(member);
+                if (memberOf == null) {
+                    throw new IllegalArgumentException("Server group [" + group.getName() + "] lists unknown server [" + member
+                            + "], valid servers are " + groupsOf.keySet());
+                }
+                memberOf.add(aggregator);
+            }
+        }
+        return groupsOf;
+    }
+
+    /**
+     * @return the feeds of one task of the server into the aggregators of its groups
+     */
+    private static List<ClusterAggregator.Member> members(List<ClusterAggregator> groups, Server server) {
+        List<ClusterAggregator.Member> members = new ArrayList<ClusterAggregator.Member>();
+        for (ClusterAggregator group : groups) {
+            members.add(group.member(server.getDisplayName()));
+        }
+        return members;
+    }
+
+    /**
+     * @return a wrapper whose metric names are prefixed with the display name of the server
+     */
+    private AMPSWrapper newWrapper(ExtractionPlan plan, Server server, String section, Configuration config,
+                                   MonitorStats.ServerStats stats) {
+        AMPSJsonExtractor extractor = new AMPSJsonExtractor(plan, section, newTopClients(config), metricIds,
+                server.getDisplayName() + AMPSWrapper.METRIC_SEPARATOR);
+        return new AMPSWrapper(extractor, stats);
+    }
+
+    /**
+     * @return a selector of the top clients, or null if clients are not reported
+     */
+    private static TopNSelector newTopClients(Configuration config) {
+        if (config.getTopClients() <= 0) {
+            return null;
+        }
+        List<String> rankBy = config.getTopClientsBy();
+        return new TopNSelector(config.getTopClients(), rankBy == null || rankBy.isEmpty() ? DEFAULT_TOP_CLIENTS_BY : rankBy);
+    }
+
+    private void startSampler(Configuration config) {
+        int interval = schedule != null ? schedule.getTickSeconds() : config.getSamplingIntervalSeconds();
+        List<String> rollupMetrics = config.getRollupMetrics();
+        // room for the samples of two executions, so one late execution does not lose samples
+        int capacity = 2 * ((REPORT_INTERVAL_SECONDS + interval - 1) / interval);
+        // a sample must not run into the next one
+        final long deadlineMillis = Math.min(pollDeadlineMillis, TimeUnit.SECONDS.toMillis(interval));
+        final RollupBuffer buffer = new RollupBuffer(
+                rollupMetrics == null || rollupMetrics.isEmpty() ? null : new MetricFilter(rollupMetrics, null), capacity, metricIds);
+        this.rollupBuffer = buffer;
+        this.sampler = AMPSWorkerPool.newScheduler("AMPSSampler");
+        sampler.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                sample(buffer, deadlineMillis);
+            }
+        }, 0, interval, TimeUnit.SECONDS);
+        if (schedule != null) {
+            logger.info("Polling the due sections of " + tieredTasks.size() + " servers every " + interval + " seconds");
+        } else {
+            logger.info("Sampling " + tasks.size() + " server sections every " + interval + " seconds");
+        }
+    }
+
+    private synchronized void sample(RollupBuffer buffer, long deadlineMillis) {
+        if (buffer != rollupBuffer) {
+            // the configuration was reloaded while this sample was waiting
+            return;
+        }
+        try {
+            if (schedule == null) {
+                buffer.add(poll(tasks, deadlineMillis));
+                sampled = true;
+            } else {
+                List<String> due = schedule.dueAt(ticks++);
+                if (!due.isEmpty()) {
+                    buffer.add(poll(tasksFor(due), deadlineMillis));
+                    sampledSections.addAll(due);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            // an exception would cancel the periodic sampling
+            logger.error("Error sampling metrics", e);
+        }
+    }
+
+    /**
+     * Returns the metrics of all configured servers, prefixed with the display name of the server. With
+     * a sampling interval these are the rollup of the samples since the previous call, otherwise the
+     * servers are polled now.
+     *
+     * @return the metrics by id of {@link #getMetricIds()}, the frame is refilled by the next call
+     */
+    public synchronized MetricFrame collect() throws InterruptedException {
+        long start = System.nanoTime();
+        MetricFrame metrics;
+        if (rollupBuffer != null) {
+            sampleMissing();
+            rollupBuffer.rollup(rolledUp);
+            metrics = rolledUp;
+        } else {
+            metrics = poll(tasks, pollDeadlineMillis);
+        }
+        history.fillGaps(start + TimeUnit.MILLISECONDS.toNanos(pollDeadlineMillis));
+        return metrics;
+    }
+
+    /**
+     * Polls the sections the sampler did not poll since the previous collect, so every report has a
+     * sample of every section however the ticks of the sampler fall between the executions
+     */
+    private void sampleMissing() throws InterruptedException {
+        List<AMPSMonitorTask> missing = Collections.emptyList();
+        if (schedule == null) {
+            if (!sampled) {
+                missing = tasks;
+            }
+        } else {
+            List<String> sections = new ArrayList<String>();
+            for (String section : configuration.getSections()) {
+                if (!sampledSections.contains(section)) {
+                    sections.add(section);
+                }
+            }
+            if (!sections.isEmpty()) {
+                missing = tasksFor(Collections.unmodifiableList(sections));
+            }
+        }
+        if (!missing.isEmpty()) {
+            logger.debug("Polling " + missing.size() + " server sections that were not sampled since the last execution");
+            rollupBuffer.add(poll(missing, pollDeadlineMillis));
+        }
+        sampled = false;
+        sampledSections.clear();
+    }
+
+    /**
+     * Polls the given tasks, one per server and section or one per server and due sections, in parallel. A failing
+     * server or section, or one that does not complete before the deadline, is logged and does not
+     * affect the others.
+     */
+    private MetricFrame poll(List<AMPSMonitorTask> pollTasks, long deadlineMillis) throws InterruptedException {
+        MetricFrame metrics = polled;
+        metrics.clear();
+        if (pollTasks.isEmpty()) {
+            logger.error("No servers configured in " + configFile);
+            return metrics;
+        }
+
+        for (CircuitBreaker breaker : circuitBreakers.values()) {
+            breaker.startPoll();
+        }
+        // fan out one task per server and section, the cycle takes as long as the slowest server or the deadline
+        List<Future<MetricFrame>> futures = connections.invokeAll(pollTasks, executorService, deadlineMillis);
+
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < futures.size(); i++) {
+            AMPSMonitorTask task = pollTasks.get(i);
+            try {
+                MetricFrame taskMetrics = futures.get(i).get();
+                metrics.putAll(taskMetrics);
+                // a backed off server returns no metrics
+                if (taskMetrics.size() > 0) {
+                    history.recordSuccess(task.getServer().getDisplayName(), now);
+                }
+            } catch (CancellationException e) {
+                logger.warn("Server [" + task.getServer().getDisplayName() + "]" + describeSection(task)
+                        + " did not respond within the deadline of " + deadlineMillis + "ms");
+                monitorStats.forServer(task.getServer().getDisplayName()).recordTimeout();
+            } catch (ExecutionException e) {
+                String message = "Error collecting metrics from server [" + task.getServer().getDisplayName() + "]" + describeSection(task);
+                if (circuitBreakers.get(task.getServer().getDisplayName()).isClosed()) {
+                    logger.error(message, e.getCause());
+                } else {
+                    // known to be down, no need for the stack trace every poll
+                    logger.warn(message + ": " + e.getCause());
+                }
+            }
+        }
+        // the members added their metrics as their tasks completed
+        for (ClusterAggregator cluster : clusters) {
+            cluster.report(metrics);
+        }
+        for (Map.Entry<String, CircuitBreaker> breaker : circuitBreakers.entrySet()) {
+            metrics.put(breaker.getKey() + AMPSWrapper.METRIC_SEPARATOR + AVAILABILITY, breaker.getValue().isAvailable() ? 1.0 : 0.0);
+        }
+        history.append(metrics);
+        return metrics;
+    }
+
+    private static String describeSection(AMPSMonitorTask task) {
+        return task.getSection() == null ? "" : " section [" + task.getSection() + "]";
+    }
+
+    /**
+     * Stops the sampler and releases the worker pool, the pooled connections, the http engine and the spool
+     */
+    public synchronized void close() {
+        if (sampler != null) {
+            sampler.shutdownNow();
+            sampler = null;
+            rollupBuffer = null;
+        }
+        if (executorService != null) {
+            executorService.shutdownNow();
+            executorService = null;
+        }
+        if (connections != null) {
+            connections.close();
+            connections = null;
+        }
+        tasks = new ArrayList<AMPSMonitorTask>();
+        tieredTasks = new ArrayList<AMPSMonitorTask>();
+        schedule = null;
+        circuitBreakers = new LinkedHashMap<String, CircuitBreaker>();
+        clusters = new ArrayList<ClusterAggregator>();
+        if (history != null) {
+            history.close();
+            history = null;
+        }
+    }
+
+    private static byte[] digest(File file) throws IOException {
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                messageDigest.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return messageDigest.digest();
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps;
+
+import com.appdynamics.TaskInputArgs;
+import com.appdynamics.extensions.amps.config.Server;
+import com.appdynamics.extensions.amps.metrics.MetricFrame;
+import com.appdynamics.extensions.http.SimpleHttpClient;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The connections to the servers of one configuration: a pooled keep-alive http client per server and,
+ * with <code>httpEngine: nio</code>, the non blocking {@link AsyncHttpEngine} that sends the requests of
+ * all servers at once while the worker pool only runs the extractions. Servers polled over SSL keep
+ * using their blocking client.
+ * <p>
+ * Not thread safe, used under the lock of the {@link AMPSCollector}.
+ */
+public class AMPSConnections {
+
+    private static final Logger logger = Logger.getLogger(AMPSConnections.class);
+
+    private final int connectTimeout;
+    private final int socketTimeout;
+    private final List<SimpleHttpClient> httpClients = new ArrayList<SimpleHttpClient>();
+    private final AsyncHttpEngine engine;
+    // the servers polled through the engine, by display name
+    private final Map<String, AsyncHttpEngine.Endpoint> endpoints = new HashMap<String, AsyncHttpEngine.Endpoint>();
+
+    /**
+     * @param nonBlocking - whether the requests are sent through the non blocking engine
+     * @param ioThreads   - the I/O threads of the engine
+     */
+    public AMPSConnections(boolean nonBlocking, int ioThreads, int connectTimeout, int socketTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.socketTimeout = socketTimeout;
+        if (nonBlocking) {
+            try {
+                engine = new AsyncHttpEngine(ioThreads, connectTimeout, socketTimeout);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to start the non blocking http engine", e);
+            }
+        } else {
+            engine = null;
+        }
+    }
+
+    /**
+     * Creates the client of a server, and its endpoint in the engine
+     *
+     * @return the pooled blocking client of the server
+     */
+    public SimpleHttpClient connect(Server server) {
+        Map<String, String> args = AMPSMonitorTask.buildArgs(server);
+        SimpleHttpClient httpClient = SimpleHttpClient.builder(args)
+                .connectionTimeout(connectTimeout).socketTimeout(socketTimeout).build();
+        httpClients.add(httpClient);
+        if (engine != null) {
+            if (server.isUseSSL()) {
+                logger.info("Server [" + server.getDisplayName() + "] uses SSL, polling it with the blocking client");
+            } else {
+                endpoints.put(server.getDisplayName(), engine.endpoint(server.getHost(), server.getPort(),
+                        args.get(TaskInputArgs.USER), args.get(TaskInputArgs.PASSWORD)));
+            }
+        }
+        return httpClient;
+    }
+
+    /**
+     * @return the clients of the servers, in the order they were connected
+     */
+    public List<SimpleHttpClient> getHttpClients() {
+        return httpClients;
+    }
+
+    /**
+     * Runs the tasks and waits for them until the deadline, the requests still running then are
+     * cancelled
+     *
+     * @param executor - runs the blocking requests and the extractions
+     * @return the futures of the tasks, done or cancelled
+     */
+    public List<Future<MetricFrame>> invokeAll(List<AMPSMonitorTask> tasks, ExecutorService executor, long deadlineMillis)
+            throws InterruptedException {
+        if (engine == null) {
+            return executor.invokeAll(tasks, deadlineMillis, TimeUnit.MILLISECONDS);
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        List<Future<MetricFrame>> futures = new ArrayList<Future<MetricFrame>>(tasks.size());
+        try {
+            for (AMPSMonitorTask task : tasks) {
+                AsyncHttpEngine.Endpoint endpoint = endpoints.get(task.getServer().getDisplayName());
+                futures.add(endpoint == null ? executor.submit(task) : task.submit(engine, endpoint, executor));
+            }
+            for (Future<MetricFrame> future : futures) {
+                if (future.isDone()) {
+                    continue;
+                }
+                try {
+                    future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                } catch (ExecutionException e) {
+                    // reported by the caller
+                } catch (CancellationException e) {
+                    // reported by the caller
+                } catch (TimeoutException e) {
+                    break;
+                }
+            }
+        } finally {
+            // the requests still running are aborted
+            for (Future<MetricFrame> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return futures;
+    }
+
+    /**
+     * Releases the pooled connections and the engine
+     */
+    public void close() {
+        for (SimpleHttpClient httpClient : httpClients) {
+            try {
+                httpClient.close();
+            } catch (Exception e) {
+                // Ignore
+            }
+        }
+        httpClients.clear();
+        if (engine != null) {
+            engine.close();
+        }
+        endpoints.clear();
+    }
+}
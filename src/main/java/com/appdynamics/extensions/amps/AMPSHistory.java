@@ -0,0 +1,311 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps;
+
+import com.appdynamics.extensions.amps.config.Configuration;
+import com.appdynamics.extensions.amps.config.Server;
+import com.appdynamics.extensions.amps.metrics.MetricFilter;
+import com.appdynamics.extensions.amps.metrics.MetricFrame;
+import com.appdynamics.extensions.amps.metrics.MetricIds;
+import com.appdynamics.extensions.amps.metrics.MetricSpool;
+import com.appdynamics.extensions.amps.metrics.RateConverter;
+import com.appdynamics.extensions.http.SimpleHttpClient;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The local history of one configuration: the {@link MetricSpool} every poll is appended to, and the
+ * {@link AMPSBackfill}s that fill the gaps of the servers into it from their statistics history. Both
+ * go through the same stages as the reported metrics: the backfilled counters get their rates, and
+ * only the metrics passing the metric filter are spooled. The time of the last successful poll of
+ * every server is kept in a state file across restarts.
+ * <p>
+ * Not thread safe, used under the lock of the {@link AMPSCollector}.
+ */
+public class AMPSHistory {
+
+    private static final Logger logger = Logger.getLogger(AMPSHistory.class);
+
+    private final Configuration config;
+    private final File configDirectory;
+    private final MetricIds metricIds;
+    private final MetricFilter metricFilter;
+    private final MetricFilter counters;
+    private final Map<String, AMPSBackfill> backfills = new LinkedHashMap<String, AMPSBackfill>();
+    // the rates of the backfilled counters, apart from those of the polls as the samples are older
+    private final Map<String, RateConverter> backfillRates = new LinkedHashMap<String, RateConverter>();
+    private File stateFile;
+    private MetricSpool spool;
+    private final MetricFrame filtered;
+    // per metric id: ENABLED, DISABLED, or UNKNOWN
+    private byte[] enabled = new byte[0];
+
+    private static final byte UNKNOWN = 0;
+    private static final byte ENABLED = 1;
+    private static final byte DISABLED = 2;
+
+    /**
+     * @param configDirectory - relative paths of the configuration are resolved against it
+     * @param metricIds       - the schema of the polled frames
+     * @param metricFilter    - the metrics that are reported, and spooled
+     * @param counters        - matches the metrics that are counters, null if there are none
+     */
+    public AMPSHistory(Configuration config, File configDirectory, MetricIds metricIds, MetricFilter metricFilter,
+                       MetricFilter counters) {
+        this.config = config;
+        this.configDirectory = configDirectory;
+        this.metricIds = metricIds;
+        this.metricFilter = metricFilter;
+        this.counters = counters;
+        this.filtered = new MetricFrame(metricIds);
+    }
+
+    /**
+     * Creates the backfill of every server and restores the times of their last successful polls, if
+     * backfill is enabled
+     *
+     * @param clients         - the pooled client of every server
+     * @param intervalSeconds - the time between two polls of a server
+     */
+    public void buildBackfills(ExtractionPlan plan, List<Server> servers, List<SimpleHttpClient> clients, int intervalSeconds) {
+        if (config.getBackfillMinutes() <= 0 || servers.isEmpty()) {
+            return;
+        }
+        if (config.getSpoolDirectory() == null || config.getSpoolDirectory().trim().length() == 0) {
+            // the controller only takes the current value of a metric, the history can only go to the spool
+            logger.warn("backfillMinutes requires a spoolDirectory, the gaps are not filled");
+            return;
+        }
+        // a poll later than two intervals missed at least one report
+        long gapMillis = TimeUnit.SECONDS.toMillis(2 * intervalSeconds);
+        long maxMillis = TimeUnit.MINUTES.toMillis(config.getBackfillMinutes());
+        long pageMillis = TimeUnit.MINUTES.toMillis(Math.max(1, config.getBackfillPageMinutes()));
+        List<String> sections = config.getSections();
+        for (int i = 0; i < servers.size(); i++) {
+            Server server = servers.get(i);
+            String namePrefix = server.getDisplayName() + AMPSWrapper.METRIC_SEPARATOR;
+            List<AMPSJsonExtractor> extractors = new ArrayList<AMPSJsonExtractor>();
+            if (sections == null || sections.isEmpty()) {
+                extractors.add(new AMPSJsonExtractor(plan, (String) null, null, metricIds, namePrefix));
+            } else {
+                for (String section : sections) {
+                    extractors.add(new AMPSJsonExtractor(plan, section, null, metricIds, namePrefix));
+                }
+            }
+            backfills.put(server.getDisplayName(), new AMPSBackfill(server.getDisplayName(), clients.get(i), extractors,
+                    gapMillis, maxMillis, pageMillis));
+            backfillRates.put(server.getDisplayName(), new RateConverter(counters, metricIds, config.getCounterRateMultiplier()));
+        }
+
+        stateFile = resolve(config.getBackfillStateFile());
+        if (stateFile.exists()) {
+            Properties state = new Properties();
+            try {
+                InputStream in = new FileInputStream(stateFile);
+                try {
+                    state.load(in);
+                } finally {
+                    in.close();
+                }
+                for (AMPSBackfill backfill : backfills.values()) {
+                    String lastSuccess = state.getProperty(backfill.getDisplayName());
+                    if (lastSuccess != null) {
+                        backfill.setLastSuccess(Long.parseLong(lastSuccess.trim()));
+                    }
+                }
+            } catch (Exception e) {
+                logger.warn("Unable to read the backfill state " + stateFile + ", gaps before this run are not filled", e);
+            }
+        }
+    }
+
+    /**
+     * Opens the spool of the configuration, a spool that can not be opened is logged and not used
+     */
+    public void open() {
+        String directory = config.getSpoolDirectory();
+        if (directory == null || directory.trim().length() == 0) {
+            return;
+        }
+        File spoolDirectory = resolve(directory);
+        long capacity = Math.min(MetricSpool.MAX_CAPACITY, Math.max(1L, config.getSpoolSizeMB()) * 1024 * 1024 / MetricSpool.RECORD_SIZE);
+        try {
+            spool = new MetricSpool(spoolDirectory, (int) capacity, metricIds);
+            logger.info("Spooling metrics to " + spoolDirectory + ", " + capacity + " records");
+        } catch (IOException e) {
+            logger.error("Unable to open the spool in " + spoolDirectory + ", metrics are not spooled", e);
+        }
+    }
+
+    /**
+     * Records a poll of the server that returned metrics
+     */
+    public void recordSuccess(String displayName, long now) {
+        AMPSBackfill backfill = backfills.get(displayName);
+        if (backfill != null) {
+            backfill.recordSuccess(now);
+        }
+    }
+
+    /**
+     * Appends the reported metrics of a poll to the spool, if there is one
+     *
+     * @param metrics - the polled metrics with their rates
+     */
+    public void append(MetricFrame metrics) {
+        if (spool != null) {
+            try {
+                spool.append(filter(metrics), System.currentTimeMillis());
+            } catch (IOException e) {
+                logger.error("Error spooling metrics to " + spool.getDirectory(), e);
+            }
+        }
+    }
+
+    /**
+     * Saves the times of the last successful polls and fills the gaps detected by the polls into the
+     * spool, at most backfillPagesPerCycle pages and until the deadline. The rest is filled by the next
+     * calls.
+     *
+     * @param deadlineNanos - {@link System#nanoTime()} by which the backfill should be done
+     */
+    public void fillGaps(long deadlineNanos) {
+        if (stateFile == null) {
+            return;
+        }
+        saveState();
+        if (spool == null) {
+            return;
+        }
+        final int[] batches = new int[1];
+        int pages = config.getBackfillPagesPerCycle();
+        for (AMPSBackfill backfill : backfills.values()) {
+            if (backfill.hasPending() && pages > 0) {
+                final RateConverter rates = backfillRates.get(backfill.getDisplayName());
+                AMPSBackfill.BatchListener listener = new AMPSBackfill.BatchListener() {
+                    public void batch(long timestamp, MetricFrame metrics) {
+                        try {
+                            spool.append(filter(addRates(metrics, rates, timestamp)), timestamp);
+                            batches[0]++;
+                        } catch (IOException e) {
+                            logger.error("Error spooling backfilled metrics to " + spool.getDirectory(), e);
+                        }
+                    }
+                };
+                pages -= backfill.backfill(listener, pages, deadlineNanos);
+            }
+        }
+        if (batches[0] > 0) {
+            logger.info("Backfilled " + batches[0] + " samples of the servers' statistics history into the spool");
+        }
+    }
+
+    /**
+     * Adds a &lt;counter&gt;_per_sec rate for every counter of a backfilled sample, like the poll tasks do
+     *
+     * @return the frame of the sample
+     */
+    private static MetricFrame addRates(MetricFrame metrics, RateConverter rates, long timestamp) {
+        int size = metrics.size();
+        for (int i = 0; i < size; i++) {
+            int rateId = rates.rateIdOf(metrics.idAt(i));
+            if (rateId >= 0) {
+                double rate = rates.rate(metrics.idAt(i), metrics.valueAt(i), timestamp);
+                if (!Double.isNaN(rate)) {
+                    metrics.set(rateId, rate);
+                }
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * @return the metrics of the frame that pass the metric filter, in a frame refilled by the next call
+     */
+    private MetricFrame filter(MetricFrame metrics) {
+        filtered.clear();
+        for (int i = 0; i < metrics.size(); i++) {
+            int id = metrics.idAt(i);
+            if (id >= enabled.length) {
+                int length = Math.max(256, enabled.length);
+                while (length <= id) {
+                    length *= 2;
+                }
+                enabled = Arrays.copyOf(enabled, length);
+            }
+            if (enabled[id] == UNKNOWN) {
+                enabled[id] = metricFilter.isEnabled(metricIds.nameOf(id)) ? ENABLED : DISABLED;
+            }
+            if (enabled[id] == ENABLED) {
+                filtered.set(id, metrics.valueAt(i));
+            }
+        }
+        return filtered;
+    }
+
+    /**
+     * Writes the times of the last successful polls, through a temporary file so a crash does not leave
+     * a truncated state
+     */
+    private void saveState() {
+        Properties state = new Properties();
+        for (AMPSBackfill backfill : backfills.values()) {
+            if (backfill.getLastSuccess() > 0) {
+                state.setProperty(backfill.getDisplayName(), String.valueOf(backfill.getLastSuccess()));
+            }
+        }
+        File temporary = new File(stateFile.getPath() + ".tmp");
+        try {
+            OutputStream out = new FileOutputStream(temporary);
+            try {
+                state.store(out, "Last successful poll of every AMPS server, milliseconds since the epoch");
+            } finally {
+                out.close();
+            }
+            if (!temporary.renameTo(stateFile)) {
+                stateFile.delete();
+                if (!temporary.renameTo(stateFile)) {
+                    throw new IOException("Unable to rename " + temporary + " to " + stateFile);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Unable to write the backfill state " + stateFile, e);
+        }
+    }
+
+    /**
+     * @return the file, relative paths are resolved against the directory of the config file
+     */
+    private File resolve(String path) {
+        File file = new File(path);
+        if (!file.isAbsolute()) {
+            file = new File(configDirectory, path);
+        }
+        return file;
+    }
+
+    public void close() {
+        if (spool != null) {
+            spool.close();
+            spool = null;
+        }
+    }
+}
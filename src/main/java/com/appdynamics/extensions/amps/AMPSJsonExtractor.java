@@ -0,0 +1,611 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps;
+
+import com.appdynamics.extensions.amps.ExtractionPlan.PathNode;
+import com.appdynamics.extensions.amps.ExtractionPlan.Section;
+import com.appdynamics.extensions.amps.ExtractionPlan.SectionType;
+import com.appdynamics.extensions.amps.metrics.MetricFrame;
+import com.appdynamics.extensions.amps.metrics.MetricIds;
+import com.appdynamics.extensions.amps.metrics.TopNSelector;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.apache.commons.lang.math.NumberUtils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.appdynamics.extensions.amps.AMPSWrapper.METRIC_SEPARATOR;
+
+/**
+ * Extracts the AMPS metrics from an <code>/amps.json</code> document, or from one of its sections
+ * served as a sub-resource, in a single pass over the token stream. The sections are defined by an
+ * {@link ExtractionPlan}. Only the sections we report on are descended into, everything else
+ * (subscriptions, ...) is skipped without being materialized, so the memory used is bounded by the
+ * number of metrics and not by the size of the document. Ranked sections, the client list, are only
+ * descended into when a {@link TopNSelector} is given, which keeps the worst K clients instead of all
+ * of them.
+ * <p>
+ * The metrics are written into a {@link MetricFrame} by id. The id of every section, element key and
+ * field is looked up in a cache that is learned from the first documents, so the steady state does not
+ * build metric names.
+ * <p>
+ * The documents of a time range query have the same shape, but every statistic is a series of samples
+ * instead of a single value. {@link #extractHistory(Reader, HistoryListener)} streams the samples of the
+ * series to a listener as they are read.
+ */
+public class AMPSJsonExtractor {
+
+    private static final String DOCUMENT_RESOURCE = "/amps.json";
+    // element key of the sections whose metrics are not keyed
+    private static final String NO_KEY = "";
+
+    /**
+     * Receives the samples of a time range document
+     */
+    public interface HistoryListener {
+        /**
+         * @param id        - id of the metric in the schema of the extractor
+         * @param timestamp - time of the sample in milliseconds since the epoch
+         */
+        void sample(int id, long timestamp, double value);
+    }
+
+    /**
+     * @return the names of the built-in sections that can be listed under <code>sections</code> in config.yml
+     */
+    public static Set<String> getSectionNames() {
+        return ExtractionPlan.DEFAULT.getSectionNames();
+    }
+
+    /**
+     * @return the admin API sub-resource serving the given built-in section
+     */
+    public static String getResource(String sectionName) {
+        return ExtractionPlan.DEFAULT.getResource(sectionName);
+    }
+
+    private final ExtractionPlan plan;
+    private PathNode root;
+    private String resource;
+
+    // set when only a single sub-resource is extracted
+    private Section singleSection;
+
+    // selectors of the ranked sections, empty to skip them
+    private final Map<Section, TopNSelector> rankings = new HashMap<Section, TopNSelector>();
+
+    private final MetricIds metricIds;
+    private final String namePrefix;
+
+    // metric ids by section, element key and field name
+    private final Map<Section, Map<String, Map<String, Integer>>> ids = new HashMap<Section, Map<String, Map<String, Integer>>>();
+
+    // per element buffers, reused for every array element
+    private final List<String> fieldNames = new ArrayList<String>();
+    private double[] fieldValues = new double[16];
+    // value of the key field of every section of the array
+    private String[] keyValues = new String[4];
+
+    // set while a time range document is extracted
+    private HistoryListener history;
+    // per element buffer of the samples of the series fields
+    private final List<String> sampleFields = new ArrayList<String>();
+    private long[] sampleTimes = new long[64];
+    private double[] sampleValues = new double[64];
+
+    /**
+     * Creates an extractor for the complete <code>/amps.json</code> document
+     */
+    public AMPSJsonExtractor() {
+        this((TopNSelector) null);
+    }
+
+    /**
+     * Creates an extractor for the complete <code>/amps.json</code> document
+     *
+     * @param topClients - selects the clients to report, null to skip the clients
+     */
+    public AMPSJsonExtractor(TopNSelector topClients) {
+        this(null, topClients, new MetricIds(), "");
+    }
+
+    /**
+     * Creates an extractor for the sub-resource of a single section. The admin server may return the
+     * sub-resource either wrapped in its full path or as the bare value, so every suffix of the section
+     * path is accepted.
+     *
+     * @param sectionName - one of {@link #getSectionNames()}
+     */
+    public AMPSJsonExtractor(String sectionName) {
+        this(sectionName, null);
+    }
+
+    /**
+     * @param sectionName - one of {@link #getSectionNames()}
+     * @param topClients  - selects the clients to report, null to skip the clients
+     */
+    public AMPSJsonExtractor(String sectionName, TopNSelector topClients) {
+        this(sectionName, topClients, new MetricIds(), "");
+    }
+
+    /**
+     * @param sectionName - one of {@link #getSectionNames()}, or null for the complete document
+     * @param topClients  - selects the clients to report, null to skip the clients
+     * @param metricIds   - the schema the metric ids are taken from
+     * @param namePrefix  - prefix of every metric name, e.g. the display name of the server and a |
+     */
+    public AMPSJsonExtractor(String sectionName, TopNSelector topClients, MetricIds metricIds, String namePrefix) {
+        this(ExtractionPlan.DEFAULT, sectionName, topClients, metricIds, namePrefix);
+    }
+
+    /**
+     * @param plan        - the sections to extract
+     * @param sectionName - one of the sections of the plan, or null for the complete document
+     * @param topClients  - how the elements of ranked sections are selected, every ranked section gets
+     *                    its own copy. Null to skip the ranked sections.
+     * @param metricIds   - the schema the metric ids are taken from
+     * @param namePrefix  - prefix of every metric name, e.g. the display name of the server and a |
+     */
+    public AMPSJsonExtractor(ExtractionPlan plan, String sectionName, TopNSelector topClients, MetricIds metricIds,
+                             String namePrefix) {
+        this.plan = plan;
+        this.metricIds = metricIds;
+        this.namePrefix = namePrefix;
+        if (sectionName == null) {
+            this.singleSection = null;
+            this.root = plan.getRoot();
+            this.resource = DOCUMENT_RESOURCE;
+        } else {
+            this.singleSection = plan.getSection(sectionName);
+            this.root = plan.getRoot(singleSection);
+            this.resource = singleSection.resource;
+        }
+        addRankings(plan, topClients);
+    }
+
+    /**
+     * Creates an extractor for several sections that are fetched with one request of the sub-resource of
+     * their common ancestor
+     *
+     * @param sectionNames - sections of the plan
+     * @see #AMPSJsonExtractor(ExtractionPlan, String, TopNSelector, MetricIds, String)
+     */
+    public AMPSJsonExtractor(ExtractionPlan plan, List<String> sectionNames, TopNSelector topClients, MetricIds metricIds,
+                             String namePrefix) {
+        this.plan = plan;
+        this.metricIds = metricIds;
+        this.namePrefix = namePrefix;
+        select(sectionNames);
+        addRankings(plan, topClients);
+    }
+
+    /**
+     * Switches to the sub-resource of other sections of the plan. The metric ids and the selectors of
+     * the ranked sections are kept, so do the ids of the sections extracted before.
+     *
+     * @param sectionNames - sections of the plan
+     */
+    public void select(List<String> sectionNames) {
+        if (sectionNames.size() == 1) {
+            this.singleSection = plan.getSection(sectionNames.get(0));
+            this.root = plan.getRoot(singleSection);
+        } else {
+            this.singleSection = null;
+            this.root = plan.getRoot(sectionNames);
+        }
+        this.resource = plan.getResource(sectionNames);
+    }
+
+    private void addRankings(ExtractionPlan plan, TopNSelector topClients) {
+        if (topClients != null) {
+            for (Section section : plan.getRankedSections()) {
+                rankings.put(section, topClients.copy());
+            }
+        }
+    }
+
+    /**
+     * @return the admin API path of the document this extractor reads
+     */
+    public String getResource() {
+        return resource;
+    }
+
+    public MetricIds getMetricIds() {
+        return metricIds;
+    }
+
+    /**
+     * Reads the document from the given reader and returns the extracted metrics
+     *
+     * @param in - the response body
+     * @return Map of metric name to value
+     * @throws IOException if the body cannot be read or is not valid JSON
+     */
+    public Map<String, Double> extract(Reader in) throws IOException {
+        MetricFrame metrics = new MetricFrame(metricIds);
+        extract(in, metrics);
+        return metrics.toMap();
+    }
+
+    /**
+     * Reads the document from the given reader and adds the extracted metrics to the frame
+     *
+     * @param in      - the response body
+     * @param metrics - frame of the schema of this extractor
+     * @throws IOException if the body cannot be read or is not valid JSON
+     */
+    public void extract(Reader in, MetricFrame metrics) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        reader.setLenient(true);
+        JsonToken token = reader.peek();
+        if (token == JsonToken.BEGIN_OBJECT) {
+            walkObject(reader, root, metrics);
+        } else if (singleSection != null && singleSection.type != SectionType.OBJECT && token == JsonToken.BEGIN_ARRAY) {
+            // bare array section
+            extractArray(reader, Collections.singletonList(singleSection), metrics);
+        } else {
+            reader.skipValue();
+        }
+    }
+
+    /**
+     * Reads a time range document from the given reader and hands the samples of every series to the
+     * listener as they are read. Ranked sections are not extracted.
+     *
+     * @param in - the response body of a query with t0 and t1
+     * @throws IOException if the body cannot be read or is not valid JSON
+     */
+    public void extractHistory(Reader in, HistoryListener listener) throws IOException {
+        // the samples are handed to the listener, nothing is written to the frame
+        MetricFrame metrics = new MetricFrame(metricIds);
+        history = listener;
+        try {
+            extract(in, metrics);
+        } finally {
+            history = null;
+        }
+    }
+
+    private void walkObject(JsonReader reader, PathNode node, MetricFrame metrics) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            PathNode child = node.children.get(name);
+            if (child != null) {
+                walkChild(reader, child, metrics);
+            } else if (node == root && singleSection != null && singleSection.type == SectionType.OBJECT) {
+                // bare object section, its fields are the metrics
+                putNumber(reader, singleSection, name, metrics);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private void walkChild(JsonReader reader, PathNode child, MetricFrame metrics) throws IOException {
+        JsonToken token = reader.peek();
+        if (child.accepts(token)) {
+            if (token == JsonToken.BEGIN_OBJECT) {
+                extractObject(reader, child, metrics);
+            } else {
+                extractArray(reader, child.sections, metrics);
+            }
+        } else if (token == JsonToken.BEGIN_OBJECT) {
+            walkObject(reader, child, metrics);
+        } else {
+            reader.skipValue();
+        }
+    }
+
+    /**
+     * Reports the numeric fields of an object section, the fields that lead to other sections are walked
+     */
+    private void extractObject(JsonReader reader, PathNode node, MetricFrame metrics) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            PathNode nested = node.children.get(name);
+            if (nested != null) {
+                walkChild(reader, nested, metrics);
+                continue;
+            }
+            JsonToken token = reader.peek();
+            if (token == JsonToken.BEGIN_ARRAY && history != null) {
+                clearSamples();
+                readSeries(reader, name);
+                for (int i = 0; i < node.sections.size(); i++) {
+                    Section section = node.sections.get(i);
+                    reportSamples(fieldIds(section, NO_KEY), section, NO_KEY);
+                }
+                continue;
+            }
+            if (token != JsonToken.NUMBER && token != JsonToken.STRING) {
+                reader.skipValue();
+                continue;
+            }
+            double value = toNumber(reader.nextString());
+            if (!Double.isNaN(value)) {
+                for (int i = 0; i < node.sections.size(); i++) {
+                    Section section = node.sections.get(i);
+                    metrics.set(idOf(fieldIds(section, NO_KEY), section, NO_KEY, name), value);
+                }
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Reads every element of an array once and reports it for each of the array sections of its path
+     */
+    private void extractArray(JsonReader reader, List<Section> sections, MetricFrame metrics) throws IOException {
+        boolean extracted = false;
+        boolean ranked = false;
+        for (int i = 0; i < sections.size(); i++) {
+            Section section = sections.get(i);
+            boolean isRanked = section.type == SectionType.RANKED_ARRAY;
+            extracted |= !isRanked || (rankings.containsKey(section) && history == null);
+            ranked |= isRanked && rankings.containsKey(section) && history == null;
+        }
+        if (!extracted) {
+            reader.skipValue();
+            return;
+        }
+        if (keyValues.length < sections.size()) {
+            keyValues = new String[sections.size()];
+        }
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            readElement(reader, sections, ranked);
+            for (int i = 0; i < sections.size(); i++) {
+                reportElement(sections.get(i), keyValues[i], metrics);
+            }
+        }
+        reader.endArray();
+
+        for (int i = 0; i < sections.size(); i++) {
+            TopNSelector ranking = rankings.get(sections.get(i));
+            if (ranking != null) {
+                ranking.report(namePrefix + sections.get(i).category + METRIC_SEPARATOR, metrics);
+            }
+        }
+    }
+
+    /**
+     * The key of an element may come after its metrics, so the numeric fields of the element are
+     * buffered until the end of the element, with the value of the key field of every section
+     *
+     * @param countArrays - report array fields as their length, for ranked sections
+     */
+    private void readElement(JsonReader reader, List<Section> sections, boolean countArrays) throws IOException {
+        fieldNames.clear();
+        clearSamples();
+        Arrays.fill(keyValues, null);
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            JsonToken token = reader.peek();
+            if (token == JsonToken.BEGIN_ARRAY && countArrays) {
+                addField(name, countElements(reader));
+                continue;
+            }
+            if (token == JsonToken.BEGIN_ARRAY && history != null) {
+                readSeries(reader, name);
+                continue;
+            }
+            if (token != JsonToken.STRING && token != JsonToken.NUMBER) {
+                reader.skipValue();
+                continue;
+            }
+            String value = reader.nextString();
+            for (int i = 0; i < sections.size(); i++) {
+                if (name.equals(sections.get(i).keyField)) {
+                    keyValues[i] = value;
+                }
+            }
+            double number = toNumber(value);
+            if (!Double.isNaN(number)) {
+                addField(name, number);
+            }
+        }
+        reader.endObject();
+    }
+
+    private void reportElement(Section section, String key, MetricFrame metrics) {
+        String elementKey;
+        if (section.type == SectionType.RANKED_ARRAY) {
+            TopNSelector ranking = rankings.get(section);
+            if (ranking != null && key != null) {
+                ranking.offer(key, fieldNames, fieldValues);
+            }
+            return;
+        } else if (section.type == SectionType.KEYED_ARRAY) {
+            if (key == null) {
+                return;
+            }
+            elementKey = key;
+        } else {
+            if (!section.selectedValue.equals(key)) {
+                return;
+            }
+            elementKey = NO_KEY;
+        }
+        Map<String, Integer> fieldIds = fieldIds(section, elementKey);
+        if (history != null) {
+            // the key and id fields of an element are plain values, its statistics are series
+            reportSamples(fieldIds, section, elementKey);
+            return;
+        }
+        for (int i = 0; i < fieldNames.size(); i++) {
+            metrics.set(idOf(fieldIds, section, elementKey, fieldNames.get(i)), fieldValues[i]);
+        }
+    }
+
+    /**
+     * Buffers the samples of a series, an array of <code>{"timestamp": ..., "value": ...}</code> objects
+     * or of <code>[timestamp, value]</code> pairs. Samples without a valid timestamp or value are skipped.
+     */
+    private void readSeries(JsonReader reader, String field) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            JsonToken token = reader.peek();
+            String timestamp = null;
+            String value = null;
+            if (token == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    JsonToken valueToken = reader.peek();
+                    if (valueToken != JsonToken.STRING && valueToken != JsonToken.NUMBER) {
+                        reader.skipValue();
+                    } else if ("timestamp".equals(name) || "t".equals(name)) {
+                        timestamp = reader.nextString();
+                    } else if ("value".equals(name) || "v".equals(name)) {
+                        value = reader.nextString();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (token == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                if (reader.hasNext() && reader.peek() != JsonToken.BEGIN_OBJECT && reader.peek() != JsonToken.BEGIN_ARRAY) {
+                    timestamp = reader.nextString();
+                }
+                if (reader.hasNext() && (reader.peek() == JsonToken.NUMBER || reader.peek() == JsonToken.STRING)) {
+                    value = reader.nextString();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+                continue;
+            }
+            long time = timestamp == null ? -1 : AMPSBackfill.parseTimestamp(timestamp);
+            double number = value == null ? Double.NaN : toNumber(value);
+            if (time >= 0 && !Double.isNaN(number)) {
+                addSample(field, time, number);
+            }
+        }
+        reader.endArray();
+    }
+
+    private void addSample(String field, long timestamp, double value) {
+        int count = sampleFields.size();
+        if (count == sampleTimes.length) {
+            sampleTimes = Arrays.copyOf(sampleTimes, count * 2);
+            sampleValues = Arrays.copyOf(sampleValues, count * 2);
+        }
+        sampleTimes[count] = timestamp;
+        sampleValues[count] = value;
+        sampleFields.add(field);
+    }
+
+    private void clearSamples() {
+        sampleFields.clear();
+    }
+
+    private void reportSamples(Map<String, Integer> fieldIds, Section section, String elementKey) {
+        for (int i = 0; i < sampleFields.size(); i++) {
+            history.sample(idOf(fieldIds, section, elementKey, sampleFields.get(i)), sampleTimes[i], sampleValues[i]);
+        }
+    }
+
+    private void addField(String name, double value) {
+        if (fieldNames.size() == fieldValues.length) {
+            fieldValues = Arrays.copyOf(fieldValues, fieldValues.length * 2);
+        }
+        fieldValues[fieldNames.size()] = value;
+        fieldNames.add(name);
+    }
+
+    private Map<String, Integer> fieldIds(Section section, String elementKey) {
+        Map<String, Map<String, Integer>> byKey = ids.get(section);
+        if (byKey == null) {
+            byKey = new HashMap<String, Map<String, Integer>>();
+            ids.put(section, byKey);
+        }
+        Map<String, Integer> fieldIds = byKey.get(elementKey);
+        if (fieldIds == null) {
+            fieldIds = new HashMap<String, Integer>();
+            byKey.put(elementKey, fieldIds);
+        }
+        return fieldIds;
+    }
+
+    /**
+     * @return the id of namePrefix + category|key|field, the name is only built the first time
+     */
+    private int idOf(Map<String, Integer> fieldIds, Section section, String elementKey, String field) {
+        Integer id = fieldIds.get(field);
+        if (id == null) {
+            String key = elementKey.length() == 0 ? "" : elementKey + METRIC_SEPARATOR;
+            id = metricIds.idOf(namePrefix + section.category + METRIC_SEPARATOR + key + field);
+            fieldIds.put(field, id);
+        }
+        return id;
+    }
+
+    private int countElements(JsonReader reader) throws IOException {
+        int count = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            reader.skipValue();
+            count++;
+        }
+        reader.endArray();
+        return count;
+    }
+
+    private void putNumber(JsonReader reader, Section section, String field, MetricFrame metrics) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.BEGIN_ARRAY && history != null) {
+            clearSamples();
+            readSeries(reader, field);
+            reportSamples(fieldIds(section, NO_KEY), section, NO_KEY);
+        } else if (token == JsonToken.NUMBER || token == JsonToken.STRING) {
+            double value = toNumber(reader.nextString());
+            if (!Double.isNaN(value)) {
+                metrics.set(idOf(fieldIds(section, NO_KEY), section, NO_KEY, field), value);
+            }
+        } else {
+            reader.skipValue();
+        }
+    }
+
+    /**
+     * @return the value as a number, NaN if it is not one
+     */
+    private double toNumber(String value) {
+        if (!NumberUtils.isNumber(value)) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+}
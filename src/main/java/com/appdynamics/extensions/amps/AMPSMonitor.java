@@ -7,15 +7,10 @@
  */
 package com.appdynamics.extensions.amps;
 
-import com.appdynamics.TaskInputArgs;
 import com.appdynamics.extensions.ArgumentsValidator;
 import com.appdynamics.extensions.PathResolver;
-import com.appdynamics.extensions.amps.config.Configuration;
-import com.appdynamics.extensions.crypto.CryptoUtil;
-import com.appdynamics.extensions.http.SimpleHttpClient;
-import com.appdynamics.extensions.yml.YmlReader;
+import com.appdynamics.extensions.amps.metrics.MetricRegistry;
 import com.google.common.base.Strings;
-import com.google.common.collect.Maps;
 import com.singularity.ee.agent.systemagent.api.AManagedMonitor;
 import com.singularity.ee.agent.systemagent.api.MetricWriter;
 import com.singularity.ee.agent.systemagent.api.TaskExecutionContext;
@@ -24,14 +19,9 @@ import com.singularity.ee.agent.systemagent.api.exception.TaskExecutionException
 import org.apache.log4j.Logger;
 
 import java.io.File;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
-import java.util.regex.Pattern;
-import java.util.regex.PatternSyntaxException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class AMPSMonitor extends AManagedMonitor {
 
@@ -41,6 +31,25 @@ public class AMPSMonitor extends AManagedMonitor {
     private static final String CONFIG_FILE = "config-file";
     private static final String CONFIG_FILE_PATH = "monitors/AMPSMonitor/config.yml";
 
+    private volatile CollectionCycle cycle;
+    // single flight, an execution that finds the previous one still running is skipped
+    private final AtomicBoolean executing = new AtomicBoolean();
+
+    /**
+     * Returns the writer of a metric to the AppDynamics Controller.
+     */
+    private final MetricRegistry.WriterFactory writerFactory = new MetricRegistry.WriterFactory() {
+        public MetricRegistry.Writer createWriter(String fullMetricName) {
+            final MetricWriter metricWriter = getMetricWriter(fullMetricName, MetricWriter.METRIC_AGGREGATION_TYPE_OBSERVATION,
+                    MetricWriter.METRIC_TIME_ROLLUP_TYPE_AVERAGE, MetricWriter.METRIC_CLUSTER_ROLLUP_TYPE_INDIVIDUAL);
+            return new MetricRegistry.Writer() {
+                public void printMetric(String value) {
+                    metricWriter.printMetric(value);
+                }
+            };
+        }
+    };
+
     /**
      * Constructor that logs and prints the version number of this extension
      */
@@ -68,137 +77,45 @@ public class AMPSMonitor extends AManagedMonitor {
      */
     public TaskOutput execute(Map<String, String> taskArguments, TaskExecutionContext taskExecutionContext) throws TaskExecutionException {
 
-        SimpleHttpClient httpClient = null;
+        if (!executing.compareAndSet(false, true)) {
+            logger.warn("Previous execution of AMPSMonitor is still running, skipping this one");
+            CollectionCycle running = cycle;
+            if (running != null) {
+                running.getCollector().getMonitorStats().recordSkippedCycle();
+            }
+            return new TaskOutput("Task skipped, previous execution still running");
+        }
         try {
             logger.info("Executing AMPSMonitor...");
+            long start = System.nanoTime();
 
             taskArguments = ArgumentsValidator.validateArguments(taskArguments, DEFAULT_ARGS);
 
             String configFilename = getConfigFilename(taskArguments.get(CONFIG_FILE));
-            Configuration config = YmlReader.readFromFile(configFilename, Configuration.class);
-
-            Map<String, String> args = buildArgs(config);
-
-            httpClient = SimpleHttpClient.builder(args).build();
-
-            AMPSWrapper AMPSWrapper = new AMPSWrapper();
-
-            //
-            Map<String, Double> ampsMetrics = AMPSWrapper.gatherAMPSMetrics(httpClient);
-            printMetricsHelper(config.getMetricPrefix(), config.getDisabledMetrics(), ampsMetrics);
+            getCycle(configFilename).run(start);
 
             logger.info("Printed metrics successfully");
             return new TaskOutput("Task successfully...");
         } catch (Exception e) {
             logger.error("Exception: ", e);
         } finally {
-            if (httpClient != null) {
-                httpClient.close();
-            }
+            executing.set(false);
         }
         return new TaskOutput("Task failed with errors");
     }
 
-    private Map<String, String> buildArgs(Configuration config) {
-
-        Map<String, String> args = new HashMap<String, String>();
-
-        args.put(TaskInputArgs.HOST, config.getHost());
-        args.put(TaskInputArgs.PORT, config.getPort() + "");
-        args.put(TaskInputArgs.USE_SSL, Boolean.toString(config.isUseSSL()));
-        args.put(TaskInputArgs.USER, config.getUsername());
-        args.put(TaskInputArgs.PASSWORD, getPassword(config));
-        return args;
-    }
-
-    private String getPassword(Configuration configuration) {
-        String password = configuration.getPassword();
-
-        String encryptedPassword = configuration.getPasswordEncrypted();
-
-        if ((password == null || password.length() <= 0) && (encryptedPassword != null && encryptedPassword.length() > 0)) {
-            try {
-                Map<String, String> args = Maps.newHashMap();
-                args.put(TaskInputArgs.PASSWORD_ENCRYPTED, encryptedPassword);
-                args.put(TaskInputArgs.ENCRYPTION_KEY, configuration.getEncryptionKey());
-                password = CryptoUtil.getPassword(args);
-
-            } catch (IllegalArgumentException e) {
-                String msg = "Encryption Key not specified. Please set the value in config.yaml.";
-                logger.error(msg);
-                throw new IllegalArgumentException(msg);
-            }
-        }
-
-        return password;
-    }
-
     /**
-     * Returns the metric to the AppDynamics Controller.
-     *
-     * @param metricName  Name of the Metric
-     * @param metricValue Value of the Metric
-     * @param aggregation Average OR Observation OR Sum
-     * @param timeRollup  Average OR Current OR Sum
-     * @param cluster     Collective OR Individual
+     * The collector is kept across executions, it is only replaced when the task is pointed at a
+     * different config file
      */
-    private void printMetric(String metricName, Double metricValue, String aggregation, String timeRollup, String cluster) throws Exception {
-        MetricWriter metricWriter = super.getMetricWriter(metricName, aggregation, timeRollup, cluster);
-        if (metricValue != null) {
-            metricWriter.printMetric(String.valueOf((long) metricValue.doubleValue()));
-        }
-    }
-
-    /**
-     * Print helper function. Concerned only with printing the metric map
-     *
-     * @param metricPrefix    Prefix identifying the metric to be a cluster, node, or bucket
-     *                        metric
-     * @param disabledMetrics
-     * @param metricsMap
-     */
-    private void printMetricsHelper(String metricPrefix, Set<String> disabledMetrics, Map<String, Double> metricsMap) throws Exception {
-
-        List<Pattern> disabledMetricsPatterns = buildPatterns(disabledMetrics);
-
-        for (Entry<String, Double> entry : metricsMap.entrySet()) {
-            String metricName = entry.getKey();
-            Double metric = entry.getValue();
-            if (!isMatched(disabledMetricsPatterns, metricName)) {
-                printMetric(metricPrefix + metricName, metric, MetricWriter.METRIC_AGGREGATION_TYPE_OBSERVATION,
-                        MetricWriter.METRIC_TIME_ROLLUP_TYPE_AVERAGE, MetricWriter.METRIC_CLUSTER_ROLLUP_TYPE_INDIVIDUAL);
-            }
-        }
-    }
-
-    private List<Pattern> buildPatterns(Set<String> patterns) {
-        if (patterns == null || patterns.size() <= 0) {
-            return new ArrayList<Pattern>();
-        }
-
-        List<Pattern> excludePatterns = new ArrayList<Pattern>();
-        for (String pattern : patterns) {
-            try {
-                Pattern compile = Pattern.compile(pattern);
-                excludePatterns.add(compile);
-            } catch (PatternSyntaxException ex) {
-                logger.error("Invalid pattern[" + pattern + "] specified. Ignoring it.");
-            }
-        }
-
-        return excludePatterns;
-    }
-
-    private boolean isMatched(List<Pattern> patterns, String input) {
-        boolean isMatched = false;
-        for (Pattern pattern : patterns) {
-            if (pattern.matcher(input).matches()) {
-                logger.debug(" [" + input + "] matched");
-                isMatched = true;
-                break;
+    private synchronized CollectionCycle getCycle(String configFilename) {
+        if (cycle == null || !cycle.getCollector().getConfigFilename().equals(configFilename)) {
+            if (cycle != null) {
+                cycle.getCollector().close();
             }
+            cycle = new CollectionCycle(new AMPSCollector(configFilename), writerFactory);
         }
-        return isMatched;
+        return cycle;
     }
 
     private String getConfigFilename(String filename) {
@@ -0,0 +1,387 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps;
+
+import com.appdynamics.TaskInputArgs;
+import com.appdynamics.extensions.amps.config.Server;
+import com.appdynamics.extensions.amps.metrics.CardinalityGuard;
+import com.appdynamics.extensions.amps.metrics.ClusterAggregator;
+import com.appdynamics.extensions.amps.metrics.MetricFrame;
+import com.appdynamics.extensions.amps.metrics.RateConverter;
+import com.appdynamics.extensions.crypto.CryptoUtil;
+import com.appdynamics.extensions.http.SimpleHttpClient;
+import com.google.common.collect.Maps;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Collects the metrics of a single AMPS server, or of one section of it when only selected sections
+ * are fetched. The metric names of the returned frame are prefixed with the server's display name so
+ * the results of all servers can be printed under one metric prefix. The task is created once per
+ * configuration and reused for every poll together with its http client and its frame, which is
+ * refilled by every poll. A poll that was abandoned at the deadline
+ * may still be blocked in a read, the next polls of the task are skipped and return no metrics until it
+ * has finished. While
+ * the circuit breaker of the server is open the server is not polled at all. When the server is a member
+ * of server groups the metrics are added to the cluster aggregates of the cycle the poll started in as
+ * soon as it completes. With a cap on the metric paths of the server, the metrics that do not get a
+ * slot of its {@link CardinalityGuard} are dropped before rates and aggregates are computed.
+ * <p>
+ * With the non blocking {@link AsyncHttpEngine} the task is {@link #submit submitted} instead of called:
+ * the request is sent by the engine and no thread waits for the response, the metrics are extracted on
+ * the executor once the response starts arriving.
+ */
+public class AMPSMonitorTask implements Callable<MetricFrame> {
+
+    private static final Logger logger = Logger.getLogger(AMPSMonitorTask.class);
+
+    // counters not seen for this long are forgotten, checked every EXPIRE_EVERY polls
+    private static final long COUNTER_EXPIRY_MILLIS = 10 * 60 * 1000L;
+    private static final int EXPIRE_EVERY = 10;
+
+    private final Server server;
+    private volatile String section;
+    // the sections of the next poll, null to keep those of the wrapper
+    private volatile List<String> selected;
+    private final SimpleHttpClient httpClient;
+    private final AMPSWrapper ampsWrapper;
+    private final RateConverter rateConverter;
+    private final CircuitBreaker circuitBreaker;
+    private final List<ClusterAggregator.Member> clusters;
+    private final CardinalityGuard guard;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final MetricFrame metrics;
+    // returned by a skipped poll, never filled
+    private final MetricFrame skipped;
+    private int polls;
+
+    /**
+     * @param server         - the server to poll
+     * @param section        - the section to fetch, or null to fetch the complete /amps.json document
+     * @param httpClient     - the pooled client of the server
+     * @param ampsWrapper    - fetches and extracts the section
+     * @param rateConverter  - converts the counters of this task into rates, same schema as the wrapper
+     * @param circuitBreaker - the breaker of the server, shared by the tasks of its sections
+     */
+    public AMPSMonitorTask(Server server, String section, SimpleHttpClient httpClient, AMPSWrapper ampsWrapper,
+                           RateConverter rateConverter, CircuitBreaker circuitBreaker) {
+        this(server, section, httpClient, ampsWrapper, rateConverter, circuitBreaker, Collections.<ClusterAggregator.Member>emptyList());
+    }
+
+    /**
+     * @param clusters - the feeds of the server groups the server is a member of
+     */
+    public AMPSMonitorTask(Server server, String section, SimpleHttpClient httpClient, AMPSWrapper ampsWrapper,
+                           RateConverter rateConverter, CircuitBreaker circuitBreaker, List<ClusterAggregator.Member> clusters) {
+        this(server, section, httpClient, ampsWrapper, rateConverter, circuitBreaker, clusters, null);
+    }
+
+    /**
+     * @param guard - caps the metric paths of the server, shared by the tasks of its sections, null for no cap
+     */
+    public AMPSMonitorTask(Server server, String section, SimpleHttpClient httpClient, AMPSWrapper ampsWrapper,
+                           RateConverter rateConverter, CircuitBreaker circuitBreaker, List<ClusterAggregator.Member> clusters,
+                           CardinalityGuard guard) {
+        this.server = server;
+        this.section = section;
+        this.httpClient = httpClient;
+        this.ampsWrapper = ampsWrapper;
+        this.rateConverter = rateConverter;
+        this.circuitBreaker = circuitBreaker;
+        this.clusters = clusters;
+        this.guard = guard;
+        this.metrics = new MetricFrame(ampsWrapper.getMetricIds());
+        this.skipped = new MetricFrame(ampsWrapper.getMetricIds());
+    }
+
+    public Server getServer() {
+        return server;
+    }
+
+    public String getSection() {
+        return section;
+    }
+
+    /**
+     * Fetches other sections from the next poll on, the wrapper switches to their sub-resource when the
+     * poll starts. The rates and the change detection of the server stay with the task.
+     *
+     * @param sections - sections of the plan of the wrapper
+     */
+    public void select(List<String> sections) {
+        StringBuilder description = new StringBuilder();
+        for (String name : sections) {
+            description.append(description.length() == 0 ? "" : ",").append(name);
+        }
+        this.selected = sections;
+        this.section = description.toString();
+    }
+
+    /**
+     * Switches the wrapper to the selected sections, only called while the task is running
+     */
+    private void applySelection() {
+        List<String> sections = selected;
+        if (sections != null) {
+            selected = null;
+            ampsWrapper.select(sections);
+        }
+    }
+
+    public MetricFrame call() throws Exception {
+        if (!running.compareAndSet(false, true)) {
+            return skipPoll();
+        }
+        try {
+            if (isBackedOff()) {
+                return metrics;
+            }
+            applySelection();
+            beginClusters();
+            MetricFrame ampsMetrics;
+            try {
+                ampsMetrics = ampsWrapper.gather(httpClient);
+            } catch (RuntimeException e) {
+                throw recordFailure(e);
+            }
+            return complete(ampsMetrics);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * The future of a poll through the engine, cancelling it aborts the request
+     */
+    private static class Poll extends FutureTask<MetricFrame> {
+        private static final Callable<MetricFrame> NOT_RUN = new Callable<MetricFrame>() {
+            public MetricFrame call() {
+                throw new IllegalStateException("Completed by the engine");
+            }
+        };
+
+        volatile AsyncHttpEngine.Exchange exchange;
+
+        Poll() {
+            super(NOT_RUN);
+        }
+
+        void complete(MetricFrame metrics) {
+            set(metrics);
+        }
+
+        void fail(Throwable t) {
+            setException(t);
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            AsyncHttpEngine.Exchange request = exchange;
+            if (cancelled && request != null) {
+                request.abort();
+            }
+            return cancelled;
+        }
+    }
+
+    /**
+     * Polls the server through the non blocking engine. The request is sent right away; once the
+     * response headers arrived the metrics are extracted on the executor, while the body arrives.
+     *
+     * @param endpoint - the server in the engine
+     * @param executor - runs the extractions
+     * @return completes with the metrics, like {@link #call()}, cancelling it aborts the request
+     */
+    public Future<MetricFrame> submit(AsyncHttpEngine engine, AsyncHttpEngine.Endpoint endpoint, final Executor executor) {
+        final Poll poll = new Poll();
+        if (!running.compareAndSet(false, true)) {
+            poll.complete(skipPoll());
+            return poll;
+        }
+        if (isBackedOff()) {
+            running.set(false);
+            poll.complete(metrics);
+            return poll;
+        }
+        applySelection();
+        beginClusters();
+        AsyncHttpEngine.Exchange exchange = ampsWrapper.send(engine, endpoint, new AsyncHttpEngine.ResponseListener() {
+            public void onResponse(final AsyncHttpEngine.Response response) {
+                try {
+                    executor.execute(new Runnable() {
+                        public void run() {
+                            MetricFrame ampsMetrics;
+                            try {
+                                ampsMetrics = complete(ampsWrapper.gather(response));
+                            } catch (RuntimeException e) {
+                                RuntimeException failure = recordFailure(e);
+                                // the next poll may be submitted as soon as this one is done
+                                running.set(false);
+                                poll.fail(failure);
+                                return;
+                            }
+                            running.set(false);
+                            poll.complete(ampsMetrics);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    response.close();
+                    running.set(false);
+                    poll.fail(e);
+                }
+            }
+
+            public void onFailure(IOException e) {
+                RuntimeException failure = recordFailure(ampsWrapper.requestFailed(e));
+                running.set(false);
+                poll.fail(failure);
+            }
+        });
+        poll.exchange = exchange;
+        // a cancel that ran before the exchange was known could not abort it
+        if (poll.isCancelled()) {
+            exchange.abort();
+        }
+        return poll;
+    }
+
+    /**
+     * A poll that overlaps the previous one, which is still blocked after it was abandoned at the deadline,
+     * is counted instead of failed. The timeout was already reported for the abandoned poll.
+     *
+     * @return the empty frame, the frame of the task is still being filled by the previous poll
+     */
+    private MetricFrame skipPoll() {
+        ampsWrapper.getStats().recordSkippedPoll();
+        logger.debug("Server [" + server.getDisplayName() + "]" + (section == null ? "" : " section [" + section + "]")
+                + " is still busy with the previous poll, skipping this one");
+        return skipped;
+    }
+
+    /**
+     * @return true if the circuit breaker of the server is open, the metrics of the task are cleared
+     */
+    private boolean isBackedOff() {
+        if (circuitBreaker.allowRequest(System.currentTimeMillis())) {
+            return false;
+        }
+        logger.debug("Server [" + server.getDisplayName() + "] is backed off, not polling it");
+        metrics.clear();
+        return true;
+    }
+
+    /**
+     * Tags the cluster contributions of this poll with the current cycle of the aggregators, a poll
+     * that completes after its cycle was reported is not aggregated
+     */
+    private void beginClusters() {
+        for (int i = 0; i < clusters.size(); i++) {
+            clusters.get(i).begin();
+        }
+    }
+
+    private RuntimeException recordFailure(RuntimeException e) {
+        if (circuitBreaker.recordFailure(System.currentTimeMillis())) {
+            logger.warn("Server [" + server.getDisplayName() + "] is unreachable, not polling it until "
+                    + new Date(circuitBreaker.getOpenUntil()));
+        }
+        return e;
+    }
+
+    /**
+     * Adds the rates and the cluster aggregates of a successful poll
+     */
+    private MetricFrame complete(MetricFrame ampsMetrics) {
+        circuitBreaker.recordSuccess();
+        if (logger.isDebugEnabled()) {
+            logger.debug("Collected " + ampsMetrics.size() + " metrics from server [" + server.getDisplayName() + "]"
+                    + (section == null ? "" : " section [" + section + "]"));
+        }
+        addRates(ampsMetrics, System.currentTimeMillis());
+        for (int i = 0; i < clusters.size(); i++) {
+            clusters.get(i).accumulate(metrics);
+        }
+        return metrics;
+    }
+
+    /**
+     * Copies the metrics into the frame of the task and adds a &lt;counter&gt;_per_sec rate for every
+     * metric that is configured as a counter. Metrics dropped by the guard get no rate either.
+     */
+    private void addRates(MetricFrame ampsMetrics, long timestamp) {
+        metrics.clear();
+        if (guard == null) {
+            metrics.putAll(ampsMetrics);
+        }
+        for (int i = 0; i < ampsMetrics.size(); i++) {
+            int id = ampsMetrics.idAt(i);
+            if (guard != null) {
+                if (!guard.admit(id, timestamp)) {
+                    continue;
+                }
+                metrics.set(id, ampsMetrics.valueAt(i));
+            }
+            int rateId = rateConverter.rateIdOf(id);
+            if (rateId >= 0) {
+                double rate = rateConverter.rate(id, ampsMetrics.valueAt(i), timestamp);
+                if (!Double.isNaN(rate) && (guard == null || guard.admit(rateId, timestamp))) {
+                    metrics.set(rateId, rate);
+                }
+            }
+        }
+        if (++polls % EXPIRE_EVERY == 0) {
+            rateConverter.expire(timestamp - COUNTER_EXPIRY_MILLIS);
+        }
+    }
+
+    static Map<String, String> buildArgs(Server server) {
+
+        Map<String, String> args = new HashMap<String, String>();
+
+        args.put(TaskInputArgs.HOST, server.getHost());
+        args.put(TaskInputArgs.PORT, server.getPort() + "");
+        args.put(TaskInputArgs.USE_SSL, Boolean.toString(server.isUseSSL()));
+        args.put(TaskInputArgs.USER, server.getUsername());
+        args.put(TaskInputArgs.PASSWORD, getPassword(server));
+        return args;
+    }
+
+    private static String getPassword(Server server) {
+        String password = server.getPassword();
+
+        String encryptedPassword = server.getPasswordEncrypted();
+
+        if ((password == null || password.length() <= 0) && (encryptedPassword != null && encryptedPassword.length() > 0)) {
+            try {
+                Map<String, String> args = Maps.newHashMap();
+                args.put(TaskInputArgs.PASSWORD_ENCRYPTED, encryptedPassword);
+                args.put(TaskInputArgs.ENCRYPTION_KEY, server.getEncryptionKey());
+                password = CryptoUtil.getPassword(args);
+
+            } catch (IllegalArgumentException e) {
+                String msg = "Encryption Key not specified for server [" + server.getDisplayName() + "]. Please set the value in config.yaml.";
+                logger.error(msg);
+                throw new IllegalArgumentException(msg);
+            }
+        }
+
+        return password;
+    }
+}
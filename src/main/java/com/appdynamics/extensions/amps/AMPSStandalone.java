@@ -0,0 +1,268 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps;
+
+import com.appdynamics.extensions.amps.metrics.MetricSink;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the collection pipeline of {@link AMPSMonitor} outside the machine agent, for profiling it with
+ * async-profiler or JFR and reproducing slow cycles. Every cycle reloads the config file if it changed,
+ * polls the servers, filters the metrics and writes them to a {@link MetricSink}, exactly like an
+ * execution of the monitor. Run it with the extension jar and log4j on the class path:
+ * <pre>
+ * java -cp amps-monitoring-extension.jar:log4j-1.2.17.jar com.appdynamics.extensions.amps.AMPSStandalone \
+ *     [--sink stdout|csv:&lt;file&gt;|null] [--cycles &lt;n&gt;] [--interval &lt;seconds&gt;] [--warmup &lt;n&gt;] &lt;config.yml&gt;
+ * </pre>
+ * The cycles run back to back unless an interval is given, and until the process is stopped unless a
+ * number of cycles is given. After every cycle its time, the number of values written, the bytes
+ * allocated by all threads and the garbage collections are printed to stderr, and when the process
+ * ends, also when it is stopped, a summary of the cycles after the warmup.
+ */
+public class AMPSStandalone {
+
+    private static final Logger logger = Logger.getLogger(AMPSStandalone.class);
+
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final double BYTES_PER_MB = 1024 * 1024;
+
+    /**
+     * What one cycle cost
+     */
+    public static class CycleStats {
+        long nanos;
+        int written;
+        // -1 if the JVM does not count the allocations per thread
+        long allocatedBytes;
+        long gcCount;
+        long gcMillis;
+        long heapUsed;
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public int getWritten() {
+            return written;
+        }
+
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        public String toString() {
+            return String.format("time=%.1fms written=%d allocated=%s gc=%d (%dms) heapUsed=%.1fMB", nanos / NANOS_PER_MILLI,
+                    written, allocatedBytes < 0 ? "n/a" : String.format("%.2fMB", allocatedBytes / BYTES_PER_MB), gcCount, gcMillis,
+                    heapUsed / BYTES_PER_MB);
+        }
+    }
+
+    private final CollectionCycle cycle;
+    private final MetricSink sink;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+
+    public AMPSStandalone(String configFilename, MetricSink sink) {
+        this.cycle = new CollectionCycle(new AMPSCollector(configFilename), sink);
+        this.sink = sink;
+    }
+
+    /**
+     * Runs one cycle: reload, collect, filter and write, the {@link CollectionCycle} of an execution of
+     * the monitor
+     */
+    public CycleStats runCycle() throws IOException, InterruptedException {
+        long allocatedBefore = allocatedBytes();
+        long gcCountBefore = gcCount();
+        long gcMillisBefore = gcMillis();
+        long start = System.nanoTime();
+
+        sink.startCycle(System.currentTimeMillis());
+        cycle.run(start);
+
+        CycleStats stats = new CycleStats();
+        stats.written = sink.endCycle();
+        stats.nanos = System.nanoTime() - start;
+        long allocatedAfter = allocatedBytes();
+        stats.allocatedBytes = allocatedBefore < 0 || allocatedAfter < 0 ? -1 : allocatedAfter - allocatedBefore;
+        stats.gcCount = gcCount() - gcCountBefore;
+        stats.gcMillis = gcMillis() - gcMillisBefore;
+        Runtime runtime = Runtime.getRuntime();
+        stats.heapUsed = runtime.totalMemory() - runtime.freeMemory();
+        return stats;
+    }
+
+    public void close() throws IOException {
+        cycle.getCollector().close();
+        sink.close();
+    }
+
+    /**
+     * @return the bytes allocated by the live threads, -1 if the JVM does not count them. The
+     * allocations of threads that ended since the previous call are missed, the worker pools of the
+     * collector are long lived.
+     */
+    private long allocatedBytes() {
+        try {
+            if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+                return -1;
+            }
+            com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+            if (!allocations.isThreadAllocatedMemorySupported() || !allocations.isThreadAllocatedMemoryEnabled()) {
+                return -1;
+            }
+            long total = 0;
+            for (long bytes : allocations.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+                if (bytes > 0) {
+                    total += bytes;
+                }
+            }
+            return total;
+        } catch (LinkageError e) {
+            // not a HotSpot JVM
+            return -1;
+        }
+    }
+
+    private long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : collectors) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : collectors) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
+    /**
+     * The cycles after the warmup, summarized when the run ends, also when it is stopped
+     */
+    static class Summary {
+        private long[] nanos = new long[64];
+        private long[] allocated = new long[64];
+        private int cycles;
+
+        synchronized void record(CycleStats stats) {
+            if (cycles == nanos.length) {
+                nanos = Arrays.copyOf(nanos, cycles * 2);
+                allocated = Arrays.copyOf(allocated, cycles * 2);
+            }
+            nanos[cycles] = stats.nanos;
+            allocated[cycles] = stats.allocatedBytes;
+            cycles++;
+        }
+
+        /**
+         * Prints the distribution of the cycle times and the average allocations per cycle
+         */
+        synchronized void print(PrintStream out) {
+            if (cycles == 0) {
+                out.println("No cycles measured");
+                return;
+            }
+            long[] sorted = Arrays.copyOf(nanos, cycles);
+            Arrays.sort(sorted);
+            long total = 0;
+            long totalAllocated = 0;
+            boolean allocationsKnown = true;
+            for (int i = 0; i < cycles; i++) {
+                total += sorted[i];
+                totalAllocated += allocated[i];
+                allocationsKnown &= allocated[i] >= 0;
+            }
+            out.println(String.format("%d cycles: min=%.1fms avg=%.1fms p50=%.1fms p95=%.1fms max=%.1fms allocated/cycle=%s", cycles,
+                    sorted[0] / NANOS_PER_MILLI, total / (double) cycles / NANOS_PER_MILLI, percentile(sorted, 50) / NANOS_PER_MILLI,
+                    percentile(sorted, 95) / NANOS_PER_MILLI, sorted[cycles - 1] / NANOS_PER_MILLI,
+                    allocationsKnown ? String.format("%.2fMB", totalAllocated / (double) cycles / BYTES_PER_MB) : "n/a"));
+        }
+    }
+
+    /**
+     * @return the nearest rank percentile of sorted values
+     */
+    static long percentile(long[] sorted, double percentile) {
+        int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+    }
+
+    public static void main(String[] args) throws Exception {
+        String sinkSpec = "stdout";
+        int cycles = 0;
+        int warmup = 0;
+        long intervalMillis = 0;
+        String configFilename = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if ("--sink".equals(args[i]) && i + 1 < args.length) {
+                    sinkSpec = args[++i];
+                } else if ("--cycles".equals(args[i]) && i + 1 < args.length) {
+                    cycles = Integer.parseInt(args[++i]);
+                } else if ("--warmup".equals(args[i]) && i + 1 < args.length) {
+                    warmup = Integer.parseInt(args[++i]);
+                } else if ("--interval".equals(args[i]) && i + 1 < args.length) {
+                    intervalMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(args[++i]));
+                } else if (configFilename == null && !args[i].startsWith("--")) {
+                    configFilename = args[i];
+                } else {
+                    throw new IllegalArgumentException("Unexpected argument " + args[i]);
+                }
+            }
+            if (configFilename == null) {
+                throw new IllegalArgumentException("No config file");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: AMPSStandalone [--sink stdout|csv:<file>|null] [--cycles <n>] [--interval <seconds>]"
+                    + " [--warmup <n>] <config.yml>");
+            System.exit(2);
+        }
+
+        final AMPSStandalone standalone = new AMPSStandalone(configFilename, MetricSink.forSpec(sinkSpec));
+        final Summary summary = new Summary();
+        Runtime.getRuntime().addShutdownHook(new Thread("AMPSStandaloneSummary") {
+            public void run() {
+                summary.print(System.err);
+            }
+        });
+        try {
+            for (int cycle = 0; cycles <= 0 || cycle < cycles; cycle++) {
+                long start = System.currentTimeMillis();
+                CycleStats stats = standalone.runCycle();
+                System.err.println("cycle " + cycle + (cycle < warmup ? " (warmup)" : "") + ": " + stats);
+                if (cycle >= warmup) {
+                    summary.record(stats);
+                }
+                long sleepMillis = start + intervalMillis - System.currentTimeMillis();
+                if (sleepMillis > 0 && (cycles <= 0 || cycle + 1 < cycles)) {
+                    Thread.sleep(sleepMillis);
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Standalone collection failed", e);
+            throw e;
+        } finally {
+            standalone.close();
+        }
+        System.exit(0);
+    }
+}
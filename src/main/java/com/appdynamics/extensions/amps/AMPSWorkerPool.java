@@ -0,0 +1,90 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps;
+
+import org.apache.log4j.Logger;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds the bounded worker pools used to poll the AMPS servers. When the JVM supports virtual threads
+ * (Java 21+) the pool threads are virtual, otherwise plain daemon threads are used. The lookup is done
+ * reflectively so the extension still runs on the older JVMs shipped with the machine agent.
+ */
+public class AMPSWorkerPool {
+
+    private static final Logger logger = Logger.getLogger(AMPSWorkerPool.class);
+
+    private AMPSWorkerPool() {
+    }
+
+    /**
+     * Returns a fixed size pool whose threads are named after the given prefix
+     *
+     * @param name    - thread name prefix
+     * @param threads - maximum number of concurrently running tasks
+     * @return the executor
+     */
+    public static ExecutorService newFixedPool(String name, int threads) {
+        return Executors.newFixedThreadPool(Math.max(1, threads), newThreadFactory(name));
+    }
+
+    /**
+     * Returns a single threaded scheduler for periodic background work, e.g. the sub-minute sampler
+     *
+     * @param name - thread name prefix
+     * @return the scheduler
+     */
+    public static ScheduledExecutorService newScheduler(String name) {
+        return Executors.newSingleThreadScheduledExecutor(newThreadFactory(name));
+    }
+
+    static ThreadFactory newThreadFactory(String name) {
+        ThreadFactory virtualFactory = virtualThreadFactory(name);
+        if (virtualFactory != null) {
+            return virtualFactory;
+        }
+        return new DaemonThreadFactory(name);
+    }
+
+    private static ThreadFactory virtualThreadFactory(String name) {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = ofVirtual.invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (NoSuchMethodException e) {
+            // pre Java 21 JVM
+            return null;
+        } catch (Exception e) {
+            logger.debug("Virtual threads are not available, falling back to platform threads: " + e);
+            return null;
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger counter = new AtomicInteger();
+
+        DaemonThreadFactory(String name) {
+            this.name = name;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, name + "-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -7,21 +7,33 @@
  */
 package com.appdynamics.extensions.amps;
 
+import com.appdynamics.extensions.amps.metrics.MetricFrame;
+import com.appdynamics.extensions.amps.metrics.MetricIds;
+import com.appdynamics.extensions.amps.metrics.MonitorStats;
 import com.appdynamics.extensions.http.Response;
 import com.appdynamics.extensions.http.SimpleHttpClient;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParseException;
-import com.google.gson.JsonParser;
-import com.google.gson.JsonPrimitive;
-import org.apache.commons.lang.math.NumberUtils;
+import com.appdynamics.extensions.http.WebTarget;
+import com.google.gson.stream.MalformedJsonException;
 import org.apache.log4j.Logger;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.SequenceInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 public class AMPSWrapper {
     private static final Logger logger = Logger.getLogger(AMPSWrapper.class);
@@ -36,292 +48,389 @@ public class AMPSWrapper {
     public static final String QUERY_KEY = "queries";
     public static final String CACHE_KEY = "caches";
     public static final String PROCESSOR_KEY = "processors";
-    private static final String AMPS_URI = "/amps.json";
+    private static final String UTF_8 = "UTF-8";
+    private static final int HTTP_NOT_MODIFIED = 304;
+    // bodies up to this size are buffered for the poll and hashed, larger ones are streamed into the extractor
+    private static final int MAX_HASHED_BODY = 128 * 1024;
+    private static final int INITIAL_BODY_BUFFER = 8 * 1024;
+    private static final String ACCEPT_ENCODING = "gzip, deflate";
+    private static final int INFLATE_BUFFER = 8 * 1024;
+
+    private String uri;
+    private final AMPSJsonExtractor extractor;
+    private final MonitorStats.ServerStats stats;
+    // change detection state of the previous response of every resource fetched, a wrapper is only used
+    // by one task at a time
+    private final Map<String, ResponseState> states = new HashMap<String, ResponseState>();
+    private ResponseState state;
 
     /**
-     * Gathers all the amps metrics.  This can be done by a single REST call to host:port/amps.json
-     * then we parse out the required metrics from the JSON response
-     * we return a map containing as key the metric prefix and as value a map
-     * the map value has key of the actual metric name and value the actual metric valus
-     *
-     * @param httpClient
-     * @return
+     * The previous response of a resource and the sections its metrics were extracted for
      */
-    public Map<String, Double> gatherAMPSMetrics(SimpleHttpClient httpClient) {
-        // go issue the REST API Call to get the JSON object
-        JsonElement AMPSResponse = getResponse(httpClient, AMPS_URI);
-
-        // create a map object to hold the metrics
-        Map<String, Double> ampsMetrics = new HashMap<String, Double>();
-
-        // only process if our REST call found something in JSON format
-        if (AMPSResponse != null && AMPSResponse.isJsonObject()) {
-
-            // Get the JSON object rooted at amps
-            JsonObject AMPSJson = AMPSResponse.getAsJsonObject().getAsJsonObject("amps");
-
-            // get the Host metrics
-            getHostMetrics(AMPSJson, ampsMetrics);
+    private static class ResponseState {
+        // the metrics of the last response, refilled by every response that changed
+        final MetricFrame metrics;
+        List<String> sections;
+        String entityTag;
+        String lastModified;
+        byte[] bodyDigest;
+        boolean hasLastResponse;
+
+        ResponseState(MetricFrame metrics) {
+            this.metrics = metrics;
+        }
 
-            // get the Instance metrics
-            getInstanceMetrics(AMPSJson, ampsMetrics);
+        void forget() {
+            entityTag = null;
+            lastModified = null;
+            bodyDigest = null;
+            hasLastResponse = false;
+            metrics.clear();
         }
-        return ampsMetrics;
     }
 
+    /**
+     * Creates a wrapper that fetches the complete /amps.json document
+     */
+    public AMPSWrapper() {
+        this(new AMPSJsonExtractor(), new MonitorStats.ServerStats());
+    }
 
     /**
-     * Returns JsonElement after parsing HttpResponse from given uri
+     * Creates a wrapper that only fetches the sub-resource of the given section, e.g.
+     * /amps/instance/processors.json for instance/processors
      *
-     * @param httpClient - object to make the REST API call with
-     * @param uri - the full uri for the REST API call
-     * @return REST API data in JSON object form
+     * @param section - one of {@link AMPSJsonExtractor#getSectionNames()}
      */
-    private JsonElement getResponse(SimpleHttpClient httpClient, String uri) {
-        // go make the REST API call and get the data back as String
-        String response = getResponseString(httpClient, uri);
+    public AMPSWrapper(String section) {
+        this(new AMPSJsonExtractor(section), new MonitorStats.ServerStats());
+    }
 
-        // Define a JSON element to hold the JSON data
-        JsonElement jsonElement = null;
+    /**
+     * @param extractor - extracts the document or section to fetch, its resource is requested
+     * @param stats     - records the cost of every request
+     */
+    public AMPSWrapper(AMPSJsonExtractor extractor, MonitorStats.ServerStats stats) {
+        this.uri = extractor.getResource();
+        this.extractor = extractor;
+        this.stats = stats;
+        this.state = new ResponseState(new MetricFrame(extractor.getMetricIds()));
+        states.put(uri, state);
+    }
 
-        // parse out the REST API string into JSON formt allowing for invalid JSON data
-        // return by the amps server
-        try {
-            jsonElement = new JsonParser().parse(response);
-        } catch (JsonParseException e) {
-            logger.error("Response from " + uri + "is not a json");
+    /**
+     * Switches to the sub-resource of other sections of the extractor's plan. The previous response of
+     * every resource is kept, it is reused when the same sections are fetched from it again.
+     *
+     * @param sectionNames - sections of the plan
+     */
+    public void select(List<String> sectionNames) {
+        extractor.select(sectionNames);
+        uri = extractor.getResource();
+        state = states.get(uri);
+        if (state == null) {
+            state = new ResponseState(new MetricFrame(extractor.getMetricIds()));
+            states.put(uri, state);
+        }
+        if (!sectionNames.equals(state.sections)) {
+            // the validators and the digest are those of a response extracted for other sections
+            state.forget();
+            state.sections = new ArrayList<String>(sectionNames);
         }
+    }
 
-        return jsonElement;
+    /**
+     * @return the schema of the metric ids returned by {@link #gather(SimpleHttpClient)}
+     */
+    public MetricIds getMetricIds() {
+        return extractor.getMetricIds();
+    }
+
+    /**
+     * @return the stats of the server the requests are recorded in
+     */
+    public MonitorStats.ServerStats getStats() {
+        return stats;
     }
 
     /**
-     * Returns HttpResponse as string from given url
+     * Gathers all the amps metrics.  This can be done by a single REST call to host:port/amps.json
+     * (or to the sub-resource of a single section) then we stream the required metrics out of the JSON response
+     * we return a map containing as key the metric name (host|... or instance|...) and as value the
+     * actual metric value
      *
      * @param httpClient
-     * @param path
      * @return
      */
-    private String getResponseString(SimpleHttpClient httpClient, String path) {
+    public Map<String, Double> gatherAMPSMetrics(SimpleHttpClient httpClient) {
+        return gather(httpClient).toMap();
+    }
 
-        // default the data as null
-        Response response = null;
-        String responseString = "";
+    /**
+     * Same as {@link #gatherAMPSMetrics(SimpleHttpClient)}, returning the metrics in the frame of this
+     * wrapper. The frame is refilled by the next call.
+     *
+     * @return the metrics by id of the extractor's schema, empty if the response is not valid JSON
+     */
+    public MetricFrame gather(SimpleHttpClient httpClient) {
+        // go issue the REST API Call and extract the metrics while the body is read
+        return getResponse(httpClient, uri);
+    }
 
-        // go execute the REST API catching any exceptions
+    /**
+     * Sends the request of the section through the non blocking engine, with the same conditional
+     * headers as {@link #gather(SimpleHttpClient)}. The response is handed to the listener on an I/O
+     * thread, its metrics are extracted by {@link #gather(AsyncHttpEngine.Response)}.
+     *
+     * @return the request, for aborting it
+     */
+    public AsyncHttpEngine.Exchange send(AsyncHttpEngine engine, AsyncHttpEngine.Endpoint endpoint,
+                                         AsyncHttpEngine.ResponseListener listener) {
+        return engine.send(endpoint, uri, requestHeaders(), listener);
+    }
+
+    /**
+     * Same as {@link #gather(SimpleHttpClient)} for a response of the non blocking engine, the metrics
+     * are extracted while its body arrives. The response is closed.
+     *
+     * @return the metrics by id of the extractor's schema, empty if the response is not valid JSON
+     */
+    public MetricFrame gather(AsyncHttpEngine.Response response) {
         try {
-            response = httpClient.target().path(path).get();
-            responseString = response.string();
-        } catch (Exception e) {
-            logger.error("Exception in getting response from " + path, e);
-            throw new RuntimeException(e);
-        } finally {
-            try {
-                if (response != null) {
-                    response.close();
-                }
-            } catch (Exception ex) {
-                // Ignore
+            stats.recordFirstByte(response.getFirstByteNanos());
+            if (response.getStatus() == HTTP_NOT_MODIFIED && state.hasLastResponse) {
+                stats.recordUnchanged();
+                return state.metrics;
+            }
+            if (response.getStatus() >= 300) {
+                stats.recordError();
+                throw new RuntimeException("Exception in getting response from " + uri,
+                        new IllegalStateException("Server returned HTTP " + response.getStatus()));
             }
+            state.entityTag = response.getHeader("ETag");
+            state.lastModified = response.getHeader("Last-Modified");
+            return extract(uri, response.getHeader("Content-Encoding"), response.getBody());
+        } finally {
+            response.close();
         }
-        return responseString;
     }
 
     /**
-     * Populates the amps Host metrics hashmap
+     * Records a request of the non blocking engine that failed before the response arrived
      *
-     * @param AMPSJson - The amps Json object
-     * @param ampsMetrics - the map containing all the host metrics
-     * @return
+     * @return the exception to fail the poll with
      */
-    private void getHostMetrics(JsonObject AMPSJson, Map<String, Double> ampsMetrics) {
-
-        // extract the host JSON data
-        JsonObject hostJson = AMPSJson.getAsJsonObject(HOST_KEY);
-
-        // extract the cpu subset of host and add to our metrics map
-        Map<String, Double> metrics = getArrayMetricsByID(hostJson, CPU_KEY, ALL_KEY);
-
-        populateMap(HOST_KEY + METRIC_SEPARATOR + CPU_KEY, metrics, ampsMetrics);
-
-        //ampsMetrics.put(HOST_KEY + METRIC_SEPARATOR + CPU_KEY, metrics);
-
-        // extract the memory subset of host and add to our metrics map
-        metrics = getRootMetrics(hostJson, MEMORY_KEY);
-        populateMap(HOST_KEY + METRIC_SEPARATOR + MEMORY_KEY, metrics, ampsMetrics);
-
-        // extract the network subset of host and add to our metrics map
-        metrics = getArrayMetrics(hostJson, NETWORK_KEY, "id");
-        populateMap(HOST_KEY + METRIC_SEPARATOR + NETWORK_KEY, metrics, ampsMetrics);
-
+    RuntimeException requestFailed(IOException e) {
+        stats.recordError();
+        return new RuntimeException("Exception in getting response from " + uri, e);
     }
 
-    private void populateMap(String metricCategory, Map<String, Double> metrics, Map<String, Double> ampsMetrics) {
-
-        for (Entry<String, Double> entry : metrics.entrySet()) {
-            ampsMetrics.put(metricCategory + METRIC_SEPARATOR + entry.getKey(), entry.getValue());
+    /**
+     * @return the request headers: the accepted encodings and the validators of the previous response
+     */
+    private Map<String, String> requestHeaders() {
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        headers.put("Accept-Encoding", ACCEPT_ENCODING);
+        if (state.hasLastResponse && state.entityTag != null) {
+            headers.put("If-None-Match", state.entityTag);
+        }
+        if (state.hasLastResponse && state.lastModified != null) {
+            headers.put("If-Modified-Since", state.lastModified);
         }
+        return headers;
     }
 
+
     /**
-     * Populates the amps Host metrics hashmap
+     * Returns the metrics extracted from the HttpResponse of the given uri. When the server supports
+     * conditional requests and answers 304 Not Modified the metrics of the previous response are
+     * returned. Otherwise small bodies, like most sections, are buffered for the poll and hashed, and
+     * the metrics of the previous response are reused when the hash did not change. Large bodies are
+     * never held in memory as a whole, they are handed to the extractor as they are read.
      *
-     * @param AMPSJson - The amps Json object
-     * @param ampsMetrics - the map containing all the host metrics
-     * @return
+     * @param httpClient - object to make the REST API call with
+     * @param path - the path for the REST API call
+     * @return extracted metrics, empty if the response is not valid JSON
      */
-    private void getInstanceMetrics(JsonObject AMPSJson, Map<String, Double> ampsMetrics) {
-
-        // extract the instance JSON data
-        JsonObject instanceJson = AMPSJson.getAsJsonObject(INSTANCE_KEY);
+    private MetricFrame getResponse(SimpleHttpClient httpClient, String path) {
 
-        // extract the cpu subset of instance and add to our metrics map
-        Map<String, Double> metrics = getRootMetrics(instanceJson, CPUI_KEY);
-        populateMap(INSTANCE_KEY + METRIC_SEPARATOR + CPUI_KEY, metrics, ampsMetrics);
-
-        // extract the cache subset of instance and add to our metrics map
-        JsonObject memoryJson = instanceJson.getAsJsonObject(MEMORY_KEY);
-        JsonObject cacheJson = memoryJson.getAsJsonObject(CACHE_KEY);
-        metrics = getArrayMetrics(cacheJson, CACHE_KEY, "description");
-        populateMap(INSTANCE_KEY + METRIC_SEPARATOR + CACHE_KEY, metrics, ampsMetrics);
+        // default the data as null
+        Response response = null;
+        InputStream inputStream = null;
+        String contentEncoding = null;
 
-        // extract the query subset of instance and add to our metrics map
-        metrics = getRootMetrics(instanceJson, QUERY_KEY);
-        populateMap(INSTANCE_KEY + METRIC_SEPARATOR + QUERY_KEY, metrics, ampsMetrics);
+        // go execute the REST API catching any exceptions
+        try {
+            WebTarget target = httpClient.target().path(path);
+            for (Map.Entry<String, String> header : requestHeaders().entrySet()) {
+                target = target.header(header.getKey(), header.getValue());
+            }
+            long start = System.nanoTime();
+            response = target.get();
+            stats.recordFirstByte(System.nanoTime() - start);
+            if (response.getStatus() == HTTP_NOT_MODIFIED && state.hasLastResponse) {
+                stats.recordUnchanged();
+                closeQuietly(response);
+                return state.metrics;
+            }
+            if (response.getStatus() >= 300) {
+                throw new IllegalStateException("Server returned HTTP " + response.getStatus());
+            }
+            state.entityTag = response.getHeader("ETag");
+            state.lastModified = response.getHeader("Last-Modified");
+            contentEncoding = response.getHeader("Content-Encoding");
+            inputStream = response.inputStream();
+        } catch (Exception e) {
+            // logged by the caller, which knows whether the server is known to be down
+            stats.recordError();
+            closeQuietly(response);
+            throw new RuntimeException("Exception in getting response from " + path, e);
+        }
 
-        // extract the processor subset of instance and add to our metrics map
-        metrics = getArrayMetricsByID(instanceJson, PROCESSOR_KEY, ALL_KEY);
-        populateMap(INSTANCE_KEY + METRIC_SEPARATOR + PROCESSOR_KEY, metrics, ampsMetrics);
+        try {
+            return extract(path, contentEncoding, inputStream);
+        } finally {
+            closeQuietly(response);
+        }
     }
 
     /**
-     * Returns a map of the CPU metrics
+     * Extracts the metrics of a body, or reuses those of the previous response if a small body hashes
+     * the same
      *
-     * @param hostJson - the extracted amps Json object
-     * @return Map of CPU metrics
+     * @return extracted metrics, empty if the body is not valid JSON
+     * @throws RuntimeException if the body could not be read completely
      */
-    private Map<String, Double> getArrayMetrics(JsonObject hostJson, String key, String id) {
-
-        // extract the array for the caller's key
-        JsonArray arrayJson = hostJson.getAsJsonArray(key);
-
-        // define a map to hold the metrics
-        Map<String, Double> metrics = new HashMap<String, Double>();
-
-        // loop thru the array extracting the metrics
-        Iterator<JsonElement> it = arrayJson.iterator();
-        while (it.hasNext()) {
-            // get the next json object from the array
-            JsonElement elementJson = it.next();
-            JsonObject oJson = elementJson.getAsJsonObject();
-
-            // loop thru the CPU elements looking for id to add to the metric
-            Iterator<Entry<String, JsonElement>> it1 = oJson.entrySet().iterator();
-            while (it1.hasNext()) {
-                Entry<String, JsonElement> entry = it1.next();
-                String metricName = entry.getKey();
-                JsonElement JsonValue = entry.getValue();
-                String value = JsonValue.getAsString();
-                if (metricName.equals(id) && JsonValue instanceof JsonPrimitive) {
-                    it1 = oJson.entrySet().iterator();
-                    populateMetricsMapHelper(it1, metrics, value + METRIC_SEPARATOR);
+    private MetricFrame extract(String path, String contentEncoding, InputStream inputStream) {
+        // parse out the metrics allowing for invalid JSON data returned by the amps server
+        // compressed bodies are inflated as they are read, the wire and the inflated bytes are metered
+        MetricFrame metrics = state.metrics;
+        MeteredInputStream wire = new MeteredInputStream(inputStream);
+        MeteredInputStream body = wire;
+        long start = System.nanoTime();
+        try {
+            if (contentEncoding != null) {
+                body = new MeteredInputStream(decode(wire, contentEncoding));
+            }
+            // the buffer is dropped with the poll, a wrapper holds no body between polls
+            byte[] prefix = readUpTo(body, MAX_HASHED_BODY);
+            InputStream extractFrom;
+            if (prefix.length < MAX_HASHED_BODY) {
+                byte[] digest = digest(prefix);
+                if (state.hasLastResponse && Arrays.equals(digest, state.bodyDigest)) {
+                    stats.recordUnchanged();
+                    return metrics;
                 }
+                state.bodyDigest = digest;
+                extractFrom = new ByteArrayInputStream(prefix);
+            } else {
+                state.bodyDigest = null;
+                extractFrom = new SequenceInputStream(new ByteArrayInputStream(prefix), body);
             }
+            metrics.clear();
+            extractor.extract(new InputStreamReader(extractFrom, UTF_8), metrics);
+            state.hasLastResponse = true;
+            return metrics;
+        } catch (MalformedJsonException e) {
+            logger.error("Response from " + path + " is not a json", e);
+            stats.recordError();
+            state.forget();
+        } catch (IOException e) {
+            // the body did not arrive, a read timeout, a reset or a premature end fail the poll like the request
+            stats.recordError();
+            state.forget();
+            throw new RuntimeException("Exception in reading response from " + path, e);
+        } catch (IllegalStateException e) {
+            logger.error("Response from " + path + " is not a json", e);
+            stats.recordError();
+            state.forget();
+        } finally {
+            // the extraction runs while the body is read, whatever was not spent reading is extraction
+            stats.recordTransfer(wire.getReadNanos(), wire.getBytes());
+            if (body != wire) {
+                stats.recordDecompress(body.getReadNanos() - wire.getReadNanos(), body.getBytes());
+                // releases the native memory of the inflater
+                closeQuietly(body);
+            }
+            stats.recordExtract(System.nanoTime() - start - body.getReadNanos());
         }
-
         return metrics;
     }
 
     /**
-     * Returns a map of the CPU metrics
+     * Reads the body until its end or the limit is reached
      *
-     * @param hostJson - the extracted amps Json object
-     * @return Map of CPU metrics
+     * @return the bytes read, the limit if there may be more
      */
-    private Map<String, Double> getArrayMetricsByID(JsonObject hostJson, String key, String id) {
-
-        // extract the cpu subset of host
-        JsonArray arrayJson = hostJson.getAsJsonArray(key);
-
-        // define a map to hold the metrics
-        Map<String, Double> metrics = new HashMap<String, Double>();
-
-        // loop thru the CPU IDs until we find caller's id then put its metrics out
-        Iterator<JsonElement> it = arrayJson.iterator();
-        boolean allFound = false;
-        while (it.hasNext() && !allFound) {
-            // get the next json object from the array
-            JsonElement elementJson = it.next();
-            JsonObject oJson = elementJson.getAsJsonObject();
-
-            // loop thru the elements looking for id
-            Iterator<Entry<String, JsonElement>> it1 = oJson.entrySet().iterator();
-            while (it1.hasNext()) {
-                // get the next element
-                Entry<String, JsonElement> entry = it1.next();
-
-                // gets its name and value
-                String metricName = entry.getKey();
-                JsonElement value = entry.getValue();
-
-                // check we have valid json, and if its the id we were asked to select
-                if (metricName.equals("id") && value instanceof JsonPrimitive && value.getAsString().equals(id)) {
-                    // get an iterator for the populate call and go grab the metrics for the
-                    // caller's id
-                    it1 = oJson.entrySet().iterator();
-                    populateMetricsMapHelper(it1, metrics, "");
-                    // done so flag to exit
-                    allFound = true;
-                }
+    private static byte[] readUpTo(InputStream in, int limit) throws IOException {
+        byte[] buffer = new byte[INITIAL_BODY_BUFFER];
+        int length = 0;
+        while (length < limit) {
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.min(limit, buffer.length * 2));
             }
+            int read = in.read(buffer, length, buffer.length - length);
+            if (read == -1) {
+                break;
+            }
+            length += read;
         }
-
-        return metrics;
+        return length == buffer.length ? buffer : Arrays.copyOf(buffer, length);
     }
 
     /**
-     * Returns a map of the Memory metrics
-     *
-     * @param hostJson - the extracted amps Json object
-     * @return Map of Memory metrics
+     * Wraps the body in a streaming decoder of its content encoding
      */
-    private Map<String, Double> getRootMetrics(JsonObject hostJson, String key) {
-
-        // extract the root Json object based on caller's key
-        JsonObject rootJson = hostJson.getAsJsonObject(key);
-
-        // define a map to hold the metrics
-        Map<String, Double> metrics = new HashMap<String, Double>();
+    static InputStream decode(InputStream in, String contentEncoding) throws IOException {
+        String encoding = contentEncoding.trim().toLowerCase(Locale.ENGLISH);
+        if (encoding.length() == 0 || "identity".equals(encoding)) {
+            return in;
+        } else if ("gzip".equals(encoding) || "x-gzip".equals(encoding)) {
+            return new GZIPInputStream(in, INFLATE_BUFFER);
+        } else if ("deflate".equals(encoding)) {
+            // deflate should be zlib wrapped, but some servers send the raw deflate stream
+            BufferedInputStream buffered = new BufferedInputStream(in, INFLATE_BUFFER);
+            buffered.mark(2);
+            int cmf = buffered.read();
+            int flg = buffered.read();
+            buffered.reset();
+            boolean zlib = (cmf & 0x0F) == 8 && flg >= 0 && ((cmf << 8) | flg) % 31 == 0;
+            return new InflaterInputStream(buffered, new Inflater(!zlib), INFLATE_BUFFER) {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    inf.end();
+                }
+            };
+        }
+        throw new IOException("Unsupported content encoding " + contentEncoding);
+    }
 
-        // Go get the metrics from the Json object
-        Iterator<Entry<String, JsonElement>> it = rootJson.entrySet().iterator();
-        populateMetricsMapHelper(it, metrics, "");
+    private static byte[] digest(byte[] body) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("MD5");
+            messageDigest.update(body);
+            return messageDigest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 
-        // pass back to the caller
-        return metrics;
+    private void closeQuietly(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException ex) {
+            // Ignore
+        }
     }
 
-    /**
-     * Populates a map with values retrieved from the entry set of a Json
-     * Object
-     *
-     * @param iterator
-     *            An entry set iterator for the json object
-     * @param metrics
-     *            Map that is populated based on the values retrieved from entry set
-     * @param prefix
-     *            Optional prefix for the metric name to distinguish duplicate
-     *            metric names
-     */
-    private void populateMetricsMapHelper(Iterator<Entry<String, JsonElement>> iterator, Map<String, Double> metrics, String prefix) {
-        while (iterator.hasNext()) {
-            Entry<String, JsonElement> entry = iterator.next();
-            String metricName = entry.getKey();
-            JsonElement value = entry.getValue();
-            if (value instanceof JsonPrimitive && NumberUtils.isNumber(value.getAsString())) {
-                Double val = value.getAsDouble();
-                metrics.put(prefix + metricName, val);
+    private void closeQuietly(Response response) {
+        try {
+            if (response != null) {
+                response.close();
             }
+        } catch (Exception ex) {
+            // Ignore
         }
     }
 }
@@ -0,0 +1,818 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps;
+
+import org.apache.log4j.Logger;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non blocking HTTP/1.1 client for the admin API, an alternative to the blocking {@code SimpleHttpClient}
+ * that ties up a thread for every request in flight. All requests are multiplexed over a few I/O threads,
+ * each running a {@link Selector}; the connections of a server stay with one I/O thread and are kept
+ * alive between polls. The listener of a request is called as soon as the status line and the headers
+ * arrived, the body is handed over as an {@link InputStream} that is filled as the bytes arrive, so the
+ * extraction can run while the rest of the body is still on the wire. A connection stops reading while
+ * too much of its body waits for the reader. Plain HTTP only, fixed length, chunked and
+ * close-delimited bodies.
+ */
+public class AsyncHttpEngine {
+
+    private static final Logger logger = Logger.getLogger(AsyncHttpEngine.class);
+
+    private static final int READ_BUFFER = 16 * 1024;
+    // a connection stops reading when this many body bytes wait for the reader, and resumes at half of it
+    static final int MAX_BUFFERED_BODY = 256 * 1024;
+    private static final int MAX_HEAD = 64 * 1024;
+    // how often the I/O threads check the timeouts
+    private static final long SELECT_MILLIS = 100;
+    private static final String ASCII = "ISO-8859-1";
+
+    /**
+     * Receives the response of a request. Exactly one of the methods is called, on an I/O thread, so
+     * the listener must hand the work over instead of reading the body itself.
+     */
+    public interface ResponseListener {
+        /**
+         * @param response - status and headers, the body is still arriving
+         */
+        void onResponse(Response response);
+
+        /**
+         * The request failed, was timed out or aborted before the response headers arrived
+         */
+        void onFailure(IOException e);
+    }
+
+    /**
+     * A server the engine sends requests to, with its idle keep-alive connections
+     */
+    public static class Endpoint {
+        private final InetSocketAddress address;
+        private final String hostHeader;
+        private final String authorization;
+        private final IoLoop loop;
+        // used by the I/O thread of the endpoint only
+        private final ArrayDeque<Connection> idle = new ArrayDeque<Connection>();
+
+        Endpoint(InetSocketAddress address, String hostHeader, String authorization, IoLoop loop) {
+            this.address = address;
+            this.hostHeader = hostHeader;
+            this.authorization = authorization;
+            this.loop = loop;
+        }
+    }
+
+    /**
+     * The status and headers of a response and its arriving body
+     */
+    public static class Response {
+        private final int status;
+        private final Map<String, String> headers;
+        private final Body body;
+        private final long firstByteNanos;
+
+        Response(int status, Map<String, String> headers, Body body, long firstByteNanos) {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+            this.firstByteNanos = firstByteNanos;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        /**
+         * @return the value of the header, repeated headers joined by commas, null if it is missing
+         */
+        public String getHeader(String name) {
+            return headers.get(name.toLowerCase(Locale.ENGLISH));
+        }
+
+        /**
+         * @return the time from sending the request until the headers arrived
+         */
+        public long getFirstByteNanos() {
+            return firstByteNanos;
+        }
+
+        /**
+         * @return the body, reads block until more bytes arrived, fail if the connection broke
+         */
+        public InputStream getBody() {
+            return body;
+        }
+
+        /**
+         * Releases the body, a body that was not read to the end aborts its request
+         */
+        public void close() {
+            body.close();
+        }
+    }
+
+    /**
+     * A request in flight, it can be aborted from any thread
+     */
+    public static class Exchange {
+        private final Endpoint endpoint;
+        private final ByteBuffer request;
+        private final ResponseListener listener;
+        private final long sentNanos = System.nanoTime();
+
+        // the state below is used by the I/O thread only
+        private Connection connection;
+        private boolean retried;
+        private boolean done;
+        private long lastActivityNanos = sentNanos;
+        private boolean responseStarted;
+        private byte[] head = new byte[1024];
+        private int headLength;
+        private Body body;
+        private boolean keepAlive;
+        private int bodyState;
+        private long remaining;
+        private final StringBuilder line = new StringBuilder();
+
+        Exchange(Endpoint endpoint, ByteBuffer request, ResponseListener listener) {
+            this.endpoint = endpoint;
+            this.request = request;
+            this.listener = listener;
+        }
+
+        /**
+         * Closes the connection of the request, the listener or the reader of the body is failed
+         */
+        public void abort() {
+            endpoint.loop.execute(new Runnable() {
+                public void run() {
+                    endpoint.loop.fail(Exchange.this, new IOException("Request aborted"));
+                }
+            });
+        }
+    }
+
+    private static class Connection {
+        final SocketChannel channel;
+        SelectionKey key;
+        boolean connected;
+        boolean reused;
+        Exchange exchange;
+        // reading paused until the reader of the body caught up
+        boolean paused;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    // framing of the body
+    private static final int FIXED = 1;
+    private static final int CHUNK_SIZE = 2;
+    private static final int CHUNK_DATA = 3;
+    private static final int CHUNK_END = 4;
+    private static final int TRAILERS = 5;
+    private static final int UNTIL_CLOSE = 6;
+
+    private final IoLoop[] loops;
+    private final long connectTimeoutNanos;
+    private final long socketTimeoutNanos;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    /**
+     * @param ioThreads            - number of I/O threads
+     * @param connectTimeoutMillis - time allowed to connect
+     * @param socketTimeoutMillis  - time allowed without any bytes sent or received
+     */
+    public AsyncHttpEngine(int ioThreads, int connectTimeoutMillis, int socketTimeoutMillis) throws IOException {
+        this.connectTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(connectTimeoutMillis);
+        this.socketTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(socketTimeoutMillis);
+        this.loops = new IoLoop[Math.max(1, ioThreads)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new IoLoop(Selector.open());
+            Thread thread = new Thread(loops[i], "AMPSHttpIO-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Creates the endpoint of a server, its host name is resolved now
+     *
+     * @param username - sent with basic authentication, null or empty for none
+     */
+    public Endpoint endpoint(String host, int port, String username, String password) {
+        String authorization = null;
+        if (username != null && username.length() > 0) {
+            authorization = "Basic " + base64(bytes(username + ":" + (password == null ? "" : password), "UTF-8"));
+        }
+        IoLoop loop = loops[(nextLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+        return new Endpoint(new InetSocketAddress(host, port), host + ":" + port, authorization, loop);
+    }
+
+    /**
+     * Sends a GET request
+     *
+     * @param path    - path and query of the resource
+     * @param headers - additional request headers
+     * @return the request, for aborting it
+     */
+    public Exchange send(Endpoint endpoint, String path, Map<String, String> headers, ResponseListener listener) {
+        StringBuilder request = new StringBuilder(256);
+        request.append("GET ").append(path).append(" HTTP/1.1\r\n");
+        request.append("Host: ").append(endpoint.hostHeader).append("\r\n");
+        if (endpoint.authorization != null) {
+            request.append("Authorization: ").append(endpoint.authorization).append("\r\n");
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            request.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        request.append("\r\n");
+        final Exchange exchange = new Exchange(endpoint, ByteBuffer.wrap(bytes(request.toString(), ASCII)), listener);
+        final IoLoop loop = endpoint.loop;
+        loop.execute(new Runnable() {
+            public void run() {
+                loop.start(exchange);
+            }
+        });
+        return exchange;
+    }
+
+    /**
+     * Stops the I/O threads, the requests in flight fail
+     */
+    public void close() {
+        for (IoLoop loop : loops) {
+            loop.close();
+        }
+    }
+
+    /**
+     * The selector of one I/O thread and the requests it runs
+     */
+    class IoLoop implements Runnable {
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+        private final List<Exchange> active = new ArrayList<Exchange>();
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER);
+        private volatile boolean closed;
+
+        IoLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void close() {
+            closed = true;
+            selector.wakeup();
+        }
+
+        public void run() {
+            try {
+                while (!closed) {
+                    selector.select(SELECT_MILLIS);
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (key.isValid()) {
+                            Connection connection = (Connection) key.attachment();
+                            try {
+                                handle(connection, key);
+                            } catch (RuntimeException e) {
+                                // e.g. a key cancelled by an abort, the other requests go on
+                                logger.warn("Error handling a connection of the http engine", e);
+                                closeQuietly(connection.channel);
+                                if (connection.exchange != null) {
+                                    fail(connection.exchange, new IOException(e.toString()));
+                                }
+                            }
+                        }
+                    }
+                    expire(System.nanoTime());
+                }
+            } catch (Throwable t) {
+                logger.error("I/O thread of the http engine failed", t);
+            } finally {
+                for (Exchange exchange : new ArrayList<Exchange>(active)) {
+                    fail(exchange, new IOException("Http engine closed"));
+                }
+                for (SelectionKey key : selector.keys()) {
+                    closeQuietly(((Connection) key.attachment()).channel);
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+
+        void start(Exchange exchange) {
+            if (exchange.done) {
+                return;
+            }
+            if (closed) {
+                fail(exchange, new IOException("Http engine closed"));
+                return;
+            }
+            active.add(exchange);
+            Connection connection = exchange.retried ? null : exchange.endpoint.idle.poll();
+            while (connection != null && !connection.channel.isOpen()) {
+                connection = exchange.endpoint.idle.poll();
+            }
+            try {
+                if (connection == null) {
+                    SocketChannel channel = SocketChannel.open();
+                    channel.configureBlocking(false);
+                    connection = new Connection(channel);
+                    connection.key = channel.register(selector, 0, connection);
+                    connection.connected = channel.connect(exchange.endpoint.address);
+                } else {
+                    connection.reused = true;
+                }
+                connection.exchange = exchange;
+                exchange.connection = connection;
+                exchange.lastActivityNanos = System.nanoTime();
+                connection.key.interestOps(connection.connected ? SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT);
+            } catch (IOException e) {
+                if (connection != null) {
+                    closeQuietly(connection.channel);
+                }
+                fail(exchange, e);
+            }
+        }
+
+        private void handle(Connection connection, SelectionKey key) {
+            Exchange exchange = connection.exchange;
+            if (exchange == null) {
+                // an idle connection that the server closed
+                if (key.isReadable()) {
+                    closeQuietly(connection.channel);
+                } else {
+                    key.interestOps(0);
+                }
+                return;
+            }
+            try {
+                if (key.isConnectable()) {
+                    if (connection.channel.finishConnect()) {
+                        connection.connected = true;
+                        exchange.lastActivityNanos = System.nanoTime();
+                        key.interestOps(SelectionKey.OP_WRITE);
+                    }
+                } else if (key.isWritable()) {
+                    connection.channel.write(exchange.request);
+                    exchange.lastActivityNanos = System.nanoTime();
+                    if (!exchange.request.hasRemaining()) {
+                        key.interestOps(SelectionKey.OP_READ);
+                    }
+                } else if (key.isReadable()) {
+                    read(connection, exchange);
+                }
+            } catch (IOException e) {
+                if (retry(exchange)) {
+                    return;
+                }
+                fail(exchange, e);
+            }
+        }
+
+        private void read(Connection connection, Exchange exchange) throws IOException {
+            readBuffer.clear();
+            int read = connection.channel.read(readBuffer);
+            if (read < 0) {
+                if (exchange.bodyState == UNTIL_CLOSE) {
+                    complete(exchange);
+                } else if (!retry(exchange)) {
+                    fail(exchange, new EOFException("Connection closed before the response was complete"));
+                }
+                return;
+            }
+            exchange.lastActivityNanos = System.nanoTime();
+            exchange.responseStarted = true;
+            byte[] bytes = readBuffer.array();
+            int offset = 0;
+            while (offset < read && !exchange.done) {
+                offset = exchange.body == null ? readHead(exchange, bytes, offset, read) : readBody(exchange, bytes, offset, read);
+            }
+            if (!exchange.done && exchange.body != null && exchange.body.isFull()) {
+                connection.paused = true;
+                connection.key.interestOps(0);
+            }
+        }
+
+        /**
+         * Resends a request whose reused connection turned out to be closed by the server
+         */
+        private boolean retry(Exchange exchange) {
+            Connection connection = exchange.connection;
+            if (connection == null || !connection.reused || exchange.responseStarted || exchange.retried) {
+                return false;
+            }
+            closeQuietly(connection.channel);
+            active.remove(exchange);
+            exchange.connection = null;
+            exchange.retried = true;
+            exchange.request.rewind();
+            start(exchange);
+            return true;
+        }
+
+        private int readHead(Exchange exchange, byte[] bytes, int offset, int end) throws IOException {
+            while (offset < end) {
+                if (exchange.headLength == exchange.head.length) {
+                    if (exchange.head.length >= MAX_HEAD) {
+                        throw new IOException("Response headers longer than " + MAX_HEAD + " bytes");
+                    }
+                    byte[] head = new byte[exchange.head.length * 2];
+                    System.arraycopy(exchange.head, 0, head, 0, exchange.headLength);
+                    exchange.head = head;
+                }
+                exchange.head[exchange.headLength++] = bytes[offset++];
+                int n = exchange.headLength;
+                if (n >= 4 && exchange.head[n - 1] == '\n' && exchange.head[n - 2] == '\r' && exchange.head[n - 3] == '\n'
+                        && exchange.head[n - 4] == '\r') {
+                    parseHead(exchange, new String(exchange.head, 0, n - 4, ASCII));
+                    break;
+                }
+            }
+            return offset;
+        }
+
+        private void parseHead(Exchange exchange, String head) throws IOException {
+            String[] lines = head.split("\r\n");
+            String[] statusLine = lines[0].split(" ", 3);
+            if (statusLine.length < 2 || !statusLine[0].startsWith("HTTP/1.")) {
+                throw new IOException("Invalid status line: " + lines[0]);
+            }
+            int status;
+            try {
+                status = Integer.parseInt(statusLine[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid status line: " + lines[0]);
+            }
+            if (status >= 100 && status < 200) {
+                // interim response, the real one follows
+                exchange.headLength = 0;
+                return;
+            }
+            Map<String, String> headers = new HashMap<String, String>();
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon <= 0) {
+                    continue;
+                }
+                String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.ENGLISH);
+                String value = lines[i].substring(colon + 1).trim();
+                String previous = headers.get(name);
+                headers.put(name, previous == null ? value : previous + ", " + value);
+            }
+            String connectionHeader = headers.get("connection");
+            exchange.keepAlive = "HTTP/1.1".equals(statusLine[0])
+                    ? connectionHeader == null || !"close".equalsIgnoreCase(connectionHeader)
+                    : "keep-alive".equalsIgnoreCase(connectionHeader);
+            String transferEncoding = headers.get("transfer-encoding");
+            String contentLength = headers.get("content-length");
+            if (status == 204 || status == 304) {
+                exchange.bodyState = FIXED;
+                exchange.remaining = 0;
+            } else if (transferEncoding != null && transferEncoding.toLowerCase(Locale.ENGLISH).contains("chunked")) {
+                exchange.bodyState = CHUNK_SIZE;
+            } else if (contentLength != null) {
+                exchange.bodyState = FIXED;
+                try {
+                    exchange.remaining = Long.parseLong(contentLength);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid Content-Length: " + contentLength);
+                }
+            } else {
+                exchange.bodyState = UNTIL_CLOSE;
+                exchange.keepAlive = false;
+            }
+            exchange.head = null;
+            exchange.body = new Body(exchange);
+            Response response = new Response(status, Collections.unmodifiableMap(headers), exchange.body,
+                    System.nanoTime() - exchange.sentNanos);
+            try {
+                exchange.listener.onResponse(response);
+            } catch (RuntimeException e) {
+                logger.error("Response listener failed", e);
+                exchange.body.close();
+            }
+            if (exchange.bodyState == FIXED && exchange.remaining == 0) {
+                complete(exchange);
+            }
+        }
+
+        private int readBody(Exchange exchange, byte[] bytes, int offset, int end) throws IOException {
+            switch (exchange.bodyState) {
+                case FIXED:
+                case CHUNK_DATA: {
+                    int length = (int) Math.min(exchange.remaining, end - offset);
+                    exchange.body.append(bytes, offset, length);
+                    exchange.remaining -= length;
+                    if (exchange.remaining == 0) {
+                        if (exchange.bodyState == FIXED) {
+                            complete(exchange);
+                        } else {
+                            exchange.bodyState = CHUNK_END;
+                        }
+                    }
+                    return offset + length;
+                }
+                case UNTIL_CLOSE:
+                    exchange.body.append(bytes, offset, end - offset);
+                    return end;
+                default:
+                    return readLine(exchange, bytes, offset, end);
+            }
+        }
+
+        /**
+         * Reads the lines around the chunks: the chunk sizes, the line end after the data and the trailers
+         */
+        private int readLine(Exchange exchange, byte[] bytes, int offset, int end) throws IOException {
+            StringBuilder line = exchange.line;
+            while (offset < end) {
+                char c = (char) (bytes[offset++] & 0xff);
+                if (c != '\n') {
+                    if (c != '\r') {
+                        if (line.length() >= 1024) {
+                            throw new IOException("Chunk line too long");
+                        }
+                        line.append(c);
+                    }
+                    continue;
+                }
+                if (exchange.bodyState == CHUNK_SIZE) {
+                    int extension = line.indexOf(";");
+                    String size = (extension < 0 ? line.toString() : line.substring(0, extension)).trim();
+                    try {
+                        exchange.remaining = Long.parseLong(size, 16);
+                    } catch (NumberFormatException e) {
+                        throw new IOException("Invalid chunk size: " + line);
+                    }
+                    exchange.bodyState = exchange.remaining == 0 ? TRAILERS : CHUNK_DATA;
+                } else if (exchange.bodyState == CHUNK_END) {
+                    exchange.bodyState = CHUNK_SIZE;
+                } else if (line.length() == 0) {
+                    line.setLength(0);
+                    complete(exchange);
+                    return offset;
+                }
+                line.setLength(0);
+                return offset;
+            }
+            return offset;
+        }
+
+        private void complete(Exchange exchange) {
+            exchange.done = true;
+            active.remove(exchange);
+            exchange.body.finish();
+            Connection connection = exchange.connection;
+            connection.exchange = null;
+            connection.paused = false;
+            if (exchange.keepAlive && exchange.bodyState != UNTIL_CLOSE && connection.channel.isOpen()) {
+                // reading on keeps noticing when the server closes the idle connection
+                connection.key.interestOps(SelectionKey.OP_READ);
+                exchange.endpoint.idle.add(connection);
+            } else {
+                closeQuietly(connection.channel);
+            }
+        }
+
+        void fail(Exchange exchange, IOException e) {
+            if (exchange.done) {
+                return;
+            }
+            exchange.done = true;
+            active.remove(exchange);
+            if (exchange.connection != null) {
+                closeQuietly(exchange.connection.channel);
+                exchange.connection.exchange = null;
+            }
+            if (exchange.body == null) {
+                try {
+                    exchange.listener.onFailure(e);
+                } catch (RuntimeException listenerFailure) {
+                    logger.error("Response listener failed", listenerFailure);
+                }
+            } else {
+                exchange.body.fail(e);
+            }
+        }
+
+        void resume(final Exchange exchange) {
+            execute(new Runnable() {
+                public void run() {
+                    Connection connection = exchange.connection;
+                    if (!exchange.done && connection != null && connection.paused) {
+                        connection.paused = false;
+                        exchange.lastActivityNanos = System.nanoTime();
+                        connection.key.interestOps(SelectionKey.OP_READ);
+                    }
+                }
+            });
+        }
+
+        private void expire(long now) {
+            for (int i = active.size() - 1; i >= 0; i--) {
+                Exchange exchange = active.get(i);
+                Connection connection = exchange.connection;
+                if (connection == null || connection.paused) {
+                    // a paused connection waits for the reader, not for the server
+                    continue;
+                }
+                long timeout = connection.connected ? socketTimeoutNanos : connectTimeoutNanos;
+                if (now - exchange.lastActivityNanos > timeout) {
+                    fail(exchange, new SocketTimeoutException((connection.connected ? "Read" : "Connect") + " timed out after "
+                            + TimeUnit.NANOSECONDS.toMillis(timeout) + "ms"));
+                }
+            }
+        }
+    }
+
+    /**
+     * The body of a response, filled by the I/O thread as the bytes arrive and read by one reader
+     */
+    static class Body extends InputStream {
+        private final Exchange exchange;
+        private final ArrayDeque<byte[]> chunks = new ArrayDeque<byte[]>();
+        private byte[] current;
+        private int position;
+        private int buffered;
+        private boolean finished;
+        private boolean closed;
+        private IOException failure;
+        private boolean resumeRequested;
+
+        Body(Exchange exchange) {
+            this.exchange = exchange;
+        }
+
+        synchronized void append(byte[] bytes, int offset, int length) {
+            if (length == 0 || closed) {
+                return;
+            }
+            byte[] chunk = new byte[length];
+            System.arraycopy(bytes, offset, chunk, 0, length);
+            chunks.add(chunk);
+            buffered += length;
+            resumeRequested = false;
+            notifyAll();
+        }
+
+        synchronized boolean isFull() {
+            return buffered >= MAX_BUFFERED_BODY;
+        }
+
+        synchronized void finish() {
+            finished = true;
+            notifyAll();
+        }
+
+        synchronized void fail(IOException e) {
+            failure = e;
+            notifyAll();
+        }
+
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        public synchronized int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            while (current == null) {
+                if (closed) {
+                    throw new IOException("Body closed");
+                }
+                current = chunks.poll();
+                position = 0;
+                if (current != null) {
+                    break;
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+                if (finished) {
+                    return -1;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    exchange.abort();
+                    throw new InterruptedIOException("Interrupted while reading the response body");
+                }
+            }
+            int read = Math.min(length, current.length - position);
+            System.arraycopy(current, position, bytes, offset, read);
+            position += read;
+            if (position == current.length) {
+                current = null;
+            }
+            buffered -= read;
+            if (!resumeRequested && !finished && buffered < MAX_BUFFERED_BODY / 2 && buffered + read >= MAX_BUFFERED_BODY / 2) {
+                resumeRequested = true;
+                exchange.endpoint.loop.resume(exchange);
+            }
+            return read;
+        }
+
+        public synchronized int available() {
+            return buffered;
+        }
+
+        public void close() {
+            boolean complete;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                complete = finished;
+                chunks.clear();
+                current = null;
+                notifyAll();
+            }
+            if (!complete) {
+                exchange.abort();
+            }
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    private static byte[] bytes(String s, String charset) {
+        try {
+            return s.getBytes(charset);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    static String base64(byte[] bytes) {
+        StringBuilder encoded = new StringBuilder((bytes.length + 2) / 3 * 4);
+        for (int i = 0; i < bytes.length; i += 3) {
+            int b = (bytes[i] & 0xff) << 16;
+            if (i + 1 < bytes.length) {
+                b |= (bytes[i + 1] & 0xff) << 8;
+            }
+            if (i + 2 < bytes.length) {
+                b |= bytes[i + 2] & 0xff;
+            }
+            encoded.append(BASE64[(b >> 18) & 0x3f]).append(BASE64[(b >> 12) & 0x3f]);
+            encoded.append(i + 1 < bytes.length ? BASE64[(b >> 6) & 0x3f] : '=');
+            encoded.append(i + 2 < bytes.length ? BASE64[b & 0x3f] : '=');
+        }
+        return encoded.toString();
+    }
+}
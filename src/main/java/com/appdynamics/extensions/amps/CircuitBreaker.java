@@ -0,0 +1,141 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps;
+
+import java.util.Random;
+
+/**
+ * Keeps an unreachable AMPS server from costing a connect timeout every poll. After a number of
+ * consecutive failures the breaker opens and the server is not polled until a jittered, exponentially
+ * growing backoff has passed. Then a single probe request is let through (half open): if it succeeds
+ * the breaker closes, otherwise it opens again with a doubled backoff. Shared by the tasks of all
+ * sections of a server; once the polls are marked by {@link #startPoll()} the failures of the sections
+ * of one poll count as one, so the threshold counts polls whatever the number of sections.
+ */
+public class CircuitBreaker {
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final Random random;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long backoffMillis;
+    private long openUntil;
+    private boolean probing;
+    private boolean available = true;
+    // true once the polls are marked, then a failure only counts if none did since the poll started
+    private boolean pollsMarked;
+    private boolean failureCounted;
+
+    /**
+     * @param failureThreshold     - consecutive failures that open the breaker
+     * @param initialBackoffMillis - backoff after the breaker opened the first time
+     * @param maxBackoffMillis     - upper bound of the backoff
+     */
+    public CircuitBreaker(int failureThreshold, long initialBackoffMillis, long maxBackoffMillis) {
+        this(failureThreshold, initialBackoffMillis, maxBackoffMillis, new Random());
+    }
+
+    CircuitBreaker(int failureThreshold, long initialBackoffMillis, long maxBackoffMillis, Random random) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = Math.max(initialBackoffMillis, maxBackoffMillis);
+        this.random = random;
+    }
+
+    /**
+     * @return true if the server should be polled now. When the backoff has passed only the first
+     * caller is let through as a probe until its outcome is recorded.
+     */
+    public synchronized boolean allowRequest(long now) {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (now < openUntil) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probing = true;
+                return true;
+            default:
+                if (probing) {
+                    return false;
+                }
+                probing = true;
+                return true;
+        }
+    }
+
+    /**
+     * Marks the start of a poll of the server, the first failure of its sections counts
+     */
+    public synchronized void startPoll() {
+        pollsMarked = true;
+        failureCounted = false;
+    }
+
+    public synchronized void recordSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        backoffMillis = 0;
+        probing = false;
+        available = true;
+    }
+
+    /**
+     * @return true if this failure opened the breaker
+     */
+    public synchronized boolean recordFailure(long now) {
+        if (failureCounted) {
+            // another section of this poll already failed
+            available = false;
+            return false;
+        }
+        failureCounted = pollsMarked;
+        consecutiveFailures++;
+        available = false;
+        probing = false;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            backoffMillis = backoffMillis == 0 ? initialBackoffMillis : Math.min(maxBackoffMillis, backoffMillis * 2);
+            // equal jitter: somewhere between half and all of the backoff, so servers that failed
+            // together are not probed together
+            long jittered = backoffMillis / 2 + (long) (random.nextDouble() * (backoffMillis - backoffMillis / 2));
+            openUntil = now + jittered;
+            boolean opened = state == State.CLOSED;
+            state = State.OPEN;
+            return opened;
+        }
+        return false;
+    }
+
+    /**
+     * @return false if the last request failed or the server is backed off
+     */
+    public synchronized boolean isAvailable() {
+        return available && state == State.CLOSED;
+    }
+
+    public synchronized boolean isClosed() {
+        return state == State.CLOSED;
+    }
+
+    public synchronized long getOpenUntil() {
+        return openUntil;
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+}
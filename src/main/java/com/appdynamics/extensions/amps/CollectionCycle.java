@@ -0,0 +1,91 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps;
+
+import com.appdynamics.extensions.amps.config.Configuration;
+import com.appdynamics.extensions.amps.metrics.MetricFrame;
+import com.appdynamics.extensions.amps.metrics.MetricRegistry;
+import com.appdynamics.extensions.amps.metrics.MonitorStats;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The steps of one execution of the monitor: reload the config file if it changed, collect, filter and
+ * write the metrics, then the self instrumentation. Run by {@link AMPSMonitor} with the writers of the
+ * machine agent and by {@link AMPSStandalone} with a {@link com.appdynamics.extensions.amps.metrics.MetricSink}.
+ * <p>
+ * Not thread safe, the executions are single flight.
+ */
+public class CollectionCycle {
+
+    // execution-frequency-in-seconds of monitor.xml, a cycle taking longer delays the next one
+    private static final long EXECUTION_FREQUENCY_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    private final AMPSCollector collector;
+    private final MetricRegistry.WriterFactory writerFactory;
+    private MetricRegistry metricRegistry;
+
+    public CollectionCycle(AMPSCollector collector, MetricRegistry.WriterFactory writerFactory) {
+        this.collector = collector;
+        this.writerFactory = writerFactory;
+    }
+
+    public AMPSCollector getCollector() {
+        return collector;
+    }
+
+    /**
+     * @param start - {@link System#nanoTime()} when the execution started
+     */
+    public void run(long start) throws IOException, InterruptedException {
+        if (collector.reloadIfChanged() || metricRegistry == null) {
+            // prefix and filters may have changed, start with fresh slots
+            Configuration config = collector.getConfiguration();
+            metricRegistry = new MetricRegistry(collector.getMetricIds(), config.getMetricPrefix(), collector.getMetricFilter(),
+                    writerFactory);
+        }
+
+        MetricFrame metrics = collector.collect();
+        MonitorStats monitorStats = collector.getMonitorStats();
+        print(metrics, monitorStats);
+
+        long cycleNanos = System.nanoTime() - start;
+        monitorStats.recordCycle(cycleNanos, cycleNanos > EXECUTION_FREQUENCY_NANOS);
+        printMonitorStats(monitorStats);
+    }
+
+    /**
+     * Prints the metric frame and records the time spent and the number of metrics emitted and dropped
+     */
+    private void print(MetricFrame metrics, MonitorStats monitorStats) {
+        long start = System.nanoTime();
+        metricRegistry.takeFilterNanos();
+        int emitted = 0;
+        int dropped = 0;
+        for (int i = 0; i < metrics.size(); i++) {
+            if (metricRegistry.print(metrics.idAt(i), metrics.valueAt(i))) {
+                emitted++;
+            } else {
+                dropped++;
+            }
+        }
+        monitorStats.recordEmit(metricRegistry.takeFilterNanos(), System.nanoTime() - start, emitted, dropped);
+    }
+
+    /**
+     * Prints the self instrumentation under metricPrefix|Monitor and ends the emit cycle
+     */
+    private void printMonitorStats(MonitorStats monitorStats) {
+        for (Map.Entry<String, Double> entry : monitorStats.report().entrySet()) {
+            metricRegistry.print(entry.getKey(), entry.getValue());
+        }
+        metricRegistry.endCycle();
+    }
+}
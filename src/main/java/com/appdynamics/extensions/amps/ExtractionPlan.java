@@ -0,0 +1,366 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps;
+
+import com.appdynamics.extensions.amps.config.SectionDefinition;
+import com.appdynamics.extensions.amps.metrics.TopNSelector;
+import com.google.gson.stream.JsonToken;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.appdynamics.extensions.amps.AMPSWrapper.METRIC_SEPARATOR;
+
+/**
+ * The sections of the admin API document that are extracted, compiled once into the path trie the
+ * {@link AMPSJsonExtractor} walks the token stream with. Every section is defined by a JSONPath-like
+ * path:
+ * <ul>
+ * <li><code>$.amps.host.memory</code> - the numeric fields of an object, reported as host|memory|field</li>
+ * <li><code>$.amps.host.network[*]</code> - every element of an array, reported as
+ * host|network|&lt;key&gt;|field where the key is the value of the section's key field (default id)</li>
+ * <li><code>$.amps.host.cpus[?(@.id == 'all')]</code> - only the array element whose field equals the
+ * value, reported as host|cpus|field</li>
+ * </ul>
+ * A ranked array section (the clients) is reported through a {@link TopNSelector}. The built-in sections
+ * can be extended and overridden by the <code>sectionDefinitions</code> of config.yml. However many
+ * sections are defined the document is read in one pass, sections sharing an array are extracted from
+ * the same elements and sections nested in other sections are extracted as well.
+ */
+public class ExtractionPlan {
+
+    private static final String ID_KEY = "id";
+    private static final String ROOT = "$";
+    private static final Pattern FILTER = Pattern.compile("\\?\\(\\s*@\\.([^=\\s]+)\\s*==?\\s*(['\"])(.*)\\2\\s*\\)");
+
+    /**
+     * How the JSON value found at a section path is turned into metrics
+     */
+    enum SectionType {
+        /**
+         * Numeric fields of an object, reported as category|field
+         */
+        OBJECT,
+        /**
+         * Array of objects, every element reported as category|key|field
+         */
+        KEYED_ARRAY,
+        /**
+         * Array of objects, only the element whose key field equals the selected value is reported as
+         * category|field
+         */
+        SELECTED_ARRAY,
+        /**
+         * Array of objects, the top elements by some fields are reported as category|Top|ranking field|rank|field and
+         * the rest aggregated, see {@link TopNSelector}. Array fields are reported as their length.
+         */
+        RANKED_ARRAY
+    }
+
+    static class Section {
+        final String name;
+        final String category;
+        final SectionType type;
+        final String keyField;
+        final String selectedValue;
+        final String resource;
+        final String[] path;
+
+        Section(String name, SectionType type, String keyField, String selectedValue, String resource, String[] path) {
+            this.name = name;
+            this.category = name.replace("/", METRIC_SEPARATOR);
+            this.type = type;
+            this.keyField = keyField;
+            this.selectedValue = selectedValue;
+            this.resource = resource;
+            this.path = path;
+        }
+
+        boolean accepts(JsonToken token) {
+            return type == SectionType.OBJECT ? token == JsonToken.BEGIN_OBJECT : token == JsonToken.BEGIN_ARRAY;
+        }
+    }
+
+    /**
+     * Node of the path trie. Several sections may share a path, e.g. different id filters of one array,
+     * they are extracted from the same elements.
+     */
+    static class PathNode {
+        final Map<String, PathNode> children = new HashMap<String, PathNode>();
+        final List<Section> sections = new ArrayList<Section>();
+
+        boolean accepts(JsonToken token) {
+            return !sections.isEmpty() && sections.get(0).accepts(token);
+        }
+
+        PathNode child(String name) {
+            PathNode node = children.get(name);
+            if (node == null) {
+                node = new PathNode();
+                children.put(name, node);
+            }
+            return node;
+        }
+    }
+
+    /**
+     * The sections extracted when config.yml does not define any
+     */
+    public static final ExtractionPlan DEFAULT = new ExtractionPlan(builtInSections());
+
+    private final Map<String, Section> sections;
+    // trie of the complete document
+    private final PathNode root;
+    // tries of the sub-resources, every suffix of the section path is accepted
+    private final Map<String, PathNode> sectionRoots = new HashMap<String, PathNode>();
+    // tries of the requests that serve several sections, by the names of the sections
+    private final Map<List<String>, PathNode> groupRoots = new HashMap<List<String>, PathNode>();
+
+    private ExtractionPlan(Map<String, Section> sections) {
+        this.sections = sections;
+        this.root = new PathNode();
+        for (Section section : sections.values()) {
+            addPath(root, section, 0);
+            PathNode sectionRoot = new PathNode();
+            for (int i = 0; i < section.path.length; i++) {
+                addPath(sectionRoot, section, i);
+            }
+            sectionRoots.put(section.name, sectionRoot);
+        }
+    }
+
+    /**
+     * Compiles the built-in sections and the sections defined in config.yml
+     *
+     * @param definitions - the sectionDefinitions of config.yml, may be null
+     * @throws IllegalArgumentException if a definition is invalid
+     */
+    public static ExtractionPlan compile(List<SectionDefinition> definitions) {
+        if (definitions == null || definitions.isEmpty()) {
+            return DEFAULT;
+        }
+        Map<String, Section> sections = builtInSections();
+        for (SectionDefinition definition : definitions) {
+            Section section = compile(definition.getName(), definition.getPath(), definition.getKey(),
+                    definition.getResource(), definition.isRanked());
+            sections.put(section.name, section);
+        }
+        return new ExtractionPlan(sections);
+    }
+
+    private static Map<String, Section> builtInSections() {
+        Map<String, Section> sections = new LinkedHashMap<String, Section>();
+        builtIn(sections, "host/cpus", "$.amps.host.cpus[?(@.id == 'all')]", null, null, false);
+        builtIn(sections, "host/memory", "$.amps.host.memory", null, null, false);
+        builtIn(sections, "host/network", "$.amps.host.network[*]", ID_KEY, null, false);
+        builtIn(sections, "instance/cpu", "$.amps.instance.cpu", null, null, false);
+        builtIn(sections, "instance/caches", "$.amps.instance.memory.caches.caches[*]", "description",
+                "/amps/instance/memory/caches.json", false);
+        builtIn(sections, "instance/queries", "$.amps.instance.queries", null, null, false);
+        builtIn(sections, "instance/processors", "$.amps.instance.processors[?(@.id == 'all')]", null, null, false);
+        builtIn(sections, "instance/clients", "$.amps.instance.clients[*]", "client_name", null, true);
+        return sections;
+    }
+
+    private static void builtIn(Map<String, Section> sections, String name, String path, String key, String resource, boolean ranked) {
+        sections.put(name, compile(name, path, key, resource, ranked));
+    }
+
+    /**
+     * Parses the path of a section definition
+     */
+    static Section compile(String name, String path, String key, String resource, boolean ranked) {
+        if (name == null || name.trim().length() == 0) {
+            throw new IllegalArgumentException("Section definition without a name, path [" + path + "]");
+        }
+        if (path == null || !path.startsWith(ROOT + ".")) {
+            throw invalid(name, path, "it must start with " + ROOT + ".");
+        }
+        String elements = path.substring(ROOT.length() + 1);
+        String selector = null;
+        int bracket = elements.indexOf('[');
+        if (bracket >= 0) {
+            if (!elements.endsWith("]")) {
+                throw invalid(name, path, "only the last element may have a [...] selector");
+            }
+            selector = elements.substring(bracket + 1, elements.length() - 1).trim();
+            elements = elements.substring(0, bracket);
+        }
+        String[] names = elements.split("\\.", -1);
+        for (String element : names) {
+            if (element.length() == 0 || element.indexOf(']') >= 0) {
+                throw invalid(name, path, "empty or malformed element");
+            }
+        }
+        if (resource == null) {
+            StringBuilder derived = new StringBuilder();
+            for (String element : names) {
+                derived.append('/').append(element);
+            }
+            resource = derived.append(".json").toString();
+        }
+
+        if (selector == null) {
+            if (ranked) {
+                throw invalid(name, path, "a ranked section must be an array, e.g. " + path + "[*]");
+            }
+            return new Section(name, SectionType.OBJECT, null, null, resource, names);
+        } else if ("*".equals(selector)) {
+            return new Section(name, ranked ? SectionType.RANKED_ARRAY : SectionType.KEYED_ARRAY,
+                    key == null ? ID_KEY : key, null, resource, names);
+        }
+        Matcher filter = FILTER.matcher(selector);
+        if (!filter.matches() || ranked) {
+            throw invalid(name, path, "the selector must be [*] or [?(@.field == 'value')]");
+        }
+        return new Section(name, SectionType.SELECTED_ARRAY, filter.group(1), filter.group(3), resource, names);
+    }
+
+    private static IllegalArgumentException invalid(String name, String path, String reason) {
+        return new IllegalArgumentException("Invalid path [" + path + "] of section [" + name + "]: " + reason);
+    }
+
+    private static void addPath(PathNode root, Section section, int from) {
+        PathNode node = root;
+        for (int i = from; i < section.path.length; i++) {
+            node = node.child(section.path[i]);
+        }
+        if (node.sections.contains(section)) {
+            return;
+        }
+        for (Section other : node.sections) {
+            if ((other.type == SectionType.OBJECT) != (section.type == SectionType.OBJECT)) {
+                throw new IllegalArgumentException("Sections [" + other.name + "] and [" + section.name
+                        + "] have the same path, one as an object and one as an array");
+            }
+            if (other.type == section.type && other.type != SectionType.SELECTED_ARRAY) {
+                throw new IllegalArgumentException("Sections [" + other.name + "] and [" + section.name + "] have the same path");
+            }
+        }
+        node.sections.add(section);
+    }
+
+    /**
+     * @return the names of the sections that can be listed under <code>sections</code> in config.yml
+     */
+    public Set<String> getSectionNames() {
+        return Collections.unmodifiableSet(sections.keySet());
+    }
+
+    /**
+     * @return the admin API sub-resource serving the given section
+     */
+    public String getResource(String sectionName) {
+        return getSection(sectionName).resource;
+    }
+
+    Section getSection(String sectionName) {
+        Section section = sections.get(sectionName);
+        if (section == null) {
+            throw new IllegalArgumentException("Unknown section [" + sectionName + "], valid sections are " + sections.keySet());
+        }
+        return section;
+    }
+
+    Collection<Section> getSections() {
+        return sections.values();
+    }
+
+    PathNode getRoot() {
+        return root;
+    }
+
+    PathNode getRoot(Section section) {
+        return sectionRoots.get(section.name);
+    }
+
+    /**
+     * The sections of a group are served by the sub-resource of their common ancestor, which may be
+     * returned wrapped in any part of its path or as the bare object
+     *
+     * @param sectionNames - at least two sections
+     * @return the trie of the sub-resource of the sections
+     */
+    synchronized PathNode getRoot(List<String> sectionNames) {
+        PathNode groupRoot = groupRoots.get(sectionNames);
+        if (groupRoot == null) {
+            List<Section> group = getSections(sectionNames);
+            int common = commonLength(group);
+            groupRoot = new PathNode();
+            for (Section section : group) {
+                for (int i = 0; i <= common && i < section.path.length; i++) {
+                    addPath(groupRoot, section, i);
+                }
+            }
+            groupRoots.put(new ArrayList<String>(sectionNames), groupRoot);
+        }
+        return groupRoot;
+    }
+
+    /**
+     * @return the admin API sub-resource serving all the given sections, the resource of the section if
+     * there is only one
+     */
+    public String getResource(List<String> sectionNames) {
+        if (sectionNames.size() == 1) {
+            return getResource(sectionNames.get(0));
+        }
+        List<Section> group = getSections(sectionNames);
+        int common = commonLength(group);
+        StringBuilder resource = new StringBuilder();
+        for (int i = 0; i < Math.max(1, common); i++) {
+            resource.append('/').append(group.get(0).path[i]);
+        }
+        return resource.append(".json").toString();
+    }
+
+    private List<Section> getSections(List<String> sectionNames) {
+        List<Section> group = new ArrayList<Section>();
+        for (String sectionName : sectionNames) {
+            group.add(getSection(sectionName));
+        }
+        return group;
+    }
+
+    /**
+     * @return the number of leading path elements the sections have in common
+     */
+    private static int commonLength(List<Section> group) {
+        String[] first = group.get(0).path;
+        int common = first.length;
+        for (Section section : group) {
+            int i = 0;
+            while (i < common && i < section.path.length && first[i].equals(section.path[i])) {
+                i++;
+            }
+            common = i;
+        }
+        return common;
+    }
+
+    /**
+     * @return the ranked sections, the clients unless config.yml defines more
+     */
+    List<Section> getRankedSections() {
+        List<Section> ranked = new ArrayList<Section>();
+        for (Section section : sections.values()) {
+            if (section.type == SectionType.RANKED_ARRAY) {
+                ranked.add(section);
+            }
+        }
+        return ranked;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read from the response body and the time spent blocked in the reads, which tells
+ * the body transfer apart from the extraction that runs interleaved with it.
+ */
+class MeteredInputStream extends FilterInputStream {
+
+    private long bytes;
+    private long readNanos;
+
+    MeteredInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        long start = System.nanoTime();
+        int b = super.read();
+        readNanos += System.nanoTime() - start;
+        if (b >= 0) {
+            bytes++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        long start = System.nanoTime();
+        int read = super.read(buffer, offset, length);
+        readNanos += System.nanoTime() - start;
+        if (read > 0) {
+            bytes += read;
+        }
+        return read;
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+
+    long getReadNanos() {
+        return readNanos;
+    }
+}
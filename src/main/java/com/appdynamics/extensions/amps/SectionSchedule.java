@@ -0,0 +1,85 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Poll intervals of the sections, for polling the sections that change every second more often than
+ * the slow moving bulk. A single scheduler ticks at the greatest common divisor of the intervals, every
+ * tick the sections whose interval is due are polled together.
+ */
+public class SectionSchedule {
+
+    private final List<String> sections;
+    private final int[] intervals;
+    private final int tickSeconds;
+
+    /**
+     * @param sections        - the polled sections
+     * @param intervals       - poll interval in seconds by section, sections that are not listed use the
+     *                        default interval
+     * @param defaultInterval - poll interval of the other sections
+     * @param maxInterval     - the longest allowed interval
+     * @throws IllegalArgumentException if an interval is not within 1 and maxInterval seconds or is given for
+     *                                  a section that is not polled
+     */
+    public SectionSchedule(List<String> sections, Map<String, Integer> intervals, int defaultInterval, int maxInterval) {
+        for (String section : intervals.keySet()) {
+            if (!sections.contains(section)) {
+                throw new IllegalArgumentException("Poll interval of section [" + section + "] that is not listed under sections "
+                        + sections);
+            }
+        }
+        this.sections = new ArrayList<String>(sections);
+        this.intervals = new int[sections.size()];
+        int tick = 0;
+        for (int i = 0; i < sections.size(); i++) {
+            Integer interval = intervals.get(sections.get(i));
+            int seconds = interval == null ? defaultInterval : interval;
+            if (seconds < 1 || seconds > maxInterval) {
+                throw new IllegalArgumentException("Poll interval of section [" + sections.get(i) + "] must be between 1 and "
+                        + maxInterval + " seconds: " + seconds);
+            }
+            this.intervals[i] = seconds;
+            tick = gcd(tick, seconds);
+        }
+        this.tickSeconds = tick;
+    }
+
+    public int getTickSeconds() {
+        return tickSeconds;
+    }
+
+    /**
+     * @param tick - number of ticks since the schedule started
+     * @return the sections due at the tick, in the order they are configured
+     */
+    public List<String> dueAt(long tick) {
+        long seconds = tick * tickSeconds;
+        List<String> due = new ArrayList<String>();
+        for (int i = 0; i < intervals.length; i++) {
+            if (seconds % intervals[i] == 0) {
+                due.add(sections.get(i));
+            }
+        }
+        return Collections.unmodifiableList(due);
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
@@ -8,6 +8,8 @@
 
 package com.appdynamics.extensions.amps.config;
 
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -15,72 +17,288 @@ import java.util.Set;
  */
 public class Configuration {
 
-    private String host;
-    private int port;
-    private boolean useSSL;
-    private String username;
-    private String password;
-    private String passwordEncrypted;
-    private String encryptionKey;
+    private List<Server> servers;
+
+    private List<String> sections;
+
+    private List<SectionDefinition> sectionDefinitions;
+
+    private Map<String, Integer> sectionIntervals;
+
+    private int numberOfThreads = 5;
+
+    private String httpEngine = "blocking";
+
+    private int ioThreads = 2;
+
+    private int cycleDeadlineSeconds = 50;
+
+    private int failuresBeforeBackoff = 3;
+
+    private int initialBackoffSeconds = 60;
+
+    private int maxBackoffSeconds = 900;
+
+    private int samplingIntervalSeconds;
+
+    private List<String> rollupMetrics;
+
+    private int topClients;
+
+    private List<String> topClientsBy;
+
+    private List<ServerGroup> serverGroups;
+
+    private List<String> clusterMetrics;
+
+    private String spoolDirectory;
+
+    private int spoolSizeMB = 16;
+
+    private int backfillMinutes;
+
+    private int backfillPageMinutes = 10;
+
+    private int backfillPagesPerCycle = 3;
+
+    private String backfillStateFile = "backfill.properties";
+
+    private int maxMetricPathsPerServer;
+
+    private int metricPathExpiryCycles = 10;
+
+    private Set<String> includedMetrics;
+
+    private List<String> counterMetrics;
+
+    private int counterRateMultiplier = 1;
 
     private Set<String> disabledMetrics;
 
     private String metricPrefix;
 
-    public String getHost() {
-        return host;
+    public List<Server> getServers() {
+        return servers;
+    }
+
+    public void setServers(List<Server> servers) {
+        this.servers = servers;
+    }
+
+    public List<String> getSections() {
+        return sections;
+    }
+
+    public void setSections(List<String> sections) {
+        this.sections = sections;
+    }
+
+    public List<SectionDefinition> getSectionDefinitions() {
+        return sectionDefinitions;
+    }
+
+    public void setSectionDefinitions(List<SectionDefinition> sectionDefinitions) {
+        this.sectionDefinitions = sectionDefinitions;
+    }
+
+    public Map<String, Integer> getSectionIntervals() {
+        return sectionIntervals;
+    }
+
+    public void setSectionIntervals(Map<String, Integer> sectionIntervals) {
+        this.sectionIntervals = sectionIntervals;
+    }
+
+    public int getNumberOfThreads() {
+        return numberOfThreads;
+    }
+
+    public void setNumberOfThreads(int numberOfThreads) {
+        this.numberOfThreads = numberOfThreads;
+    }
+
+    public String getHttpEngine() {
+        return httpEngine;
+    }
+
+    public void setHttpEngine(String httpEngine) {
+        this.httpEngine = httpEngine;
+    }
+
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    public void setIoThreads(int ioThreads) {
+        this.ioThreads = ioThreads;
+    }
+
+    public int getCycleDeadlineSeconds() {
+        return cycleDeadlineSeconds;
+    }
+
+    public void setCycleDeadlineSeconds(int cycleDeadlineSeconds) {
+        this.cycleDeadlineSeconds = cycleDeadlineSeconds;
+    }
+
+    public int getFailuresBeforeBackoff() {
+        return failuresBeforeBackoff;
+    }
+
+    public void setFailuresBeforeBackoff(int failuresBeforeBackoff) {
+        this.failuresBeforeBackoff = failuresBeforeBackoff;
+    }
+
+    public int getInitialBackoffSeconds() {
+        return initialBackoffSeconds;
+    }
+
+    public void setInitialBackoffSeconds(int initialBackoffSeconds) {
+        this.initialBackoffSeconds = initialBackoffSeconds;
+    }
+
+    public int getMaxBackoffSeconds() {
+        return maxBackoffSeconds;
+    }
+
+    public void setMaxBackoffSeconds(int maxBackoffSeconds) {
+        this.maxBackoffSeconds = maxBackoffSeconds;
+    }
+
+    public int getSamplingIntervalSeconds() {
+        return samplingIntervalSeconds;
+    }
+
+    public void setSamplingIntervalSeconds(int samplingIntervalSeconds) {
+        this.samplingIntervalSeconds = samplingIntervalSeconds;
+    }
+
+    public List<String> getRollupMetrics() {
+        return rollupMetrics;
+    }
+
+    public void setRollupMetrics(List<String> rollupMetrics) {
+        this.rollupMetrics = rollupMetrics;
+    }
+
+    public int getTopClients() {
+        return topClients;
+    }
+
+    public void setTopClients(int topClients) {
+        this.topClients = topClients;
+    }
+
+    public List<String> getTopClientsBy() {
+        return topClientsBy;
+    }
+
+    public void setTopClientsBy(List<String> topClientsBy) {
+        this.topClientsBy = topClientsBy;
+    }
+
+    public List<ServerGroup> getServerGroups() {
+        return serverGroups;
+    }
+
+    public void setServerGroups(List<ServerGroup> serverGroups) {
+        this.serverGroups = serverGroups;
+    }
+
+    public List<String> getClusterMetrics() {
+        return clusterMetrics;
+    }
+
+    public void setClusterMetrics(List<String> clusterMetrics) {
+        this.clusterMetrics = clusterMetrics;
+    }
+
+    public String getSpoolDirectory() {
+        return spoolDirectory;
+    }
+
+    public void setSpoolDirectory(String spoolDirectory) {
+        this.spoolDirectory = spoolDirectory;
+    }
+
+    public int getSpoolSizeMB() {
+        return spoolSizeMB;
+    }
+
+    public void setSpoolSizeMB(int spoolSizeMB) {
+        this.spoolSizeMB = spoolSizeMB;
+    }
+
+    public int getBackfillMinutes() {
+        return backfillMinutes;
+    }
+
+    public void setBackfillMinutes(int backfillMinutes) {
+        this.backfillMinutes = backfillMinutes;
+    }
+
+    public int getBackfillPageMinutes() {
+        return backfillPageMinutes;
+    }
+
+    public void setBackfillPageMinutes(int backfillPageMinutes) {
+        this.backfillPageMinutes = backfillPageMinutes;
+    }
+
+    public int getBackfillPagesPerCycle() {
+        return backfillPagesPerCycle;
     }
 
-    public void setHost(String host) {
-        this.host = host;
+    public void setBackfillPagesPerCycle(int backfillPagesPerCycle) {
+        this.backfillPagesPerCycle = backfillPagesPerCycle;
     }
 
-    public int getPort() {
-        return port;
+    public String getBackfillStateFile() {
+        return backfillStateFile;
     }
 
-    public void setPort(int port) {
-        this.port = port;
+    public void setBackfillStateFile(String backfillStateFile) {
+        this.backfillStateFile = backfillStateFile;
     }
 
-    public boolean isUseSSL() {
-        return useSSL;
+    public int getMaxMetricPathsPerServer() {
+        return maxMetricPathsPerServer;
     }
 
-    public void setUseSSL(boolean useSSL) {
-        this.useSSL = useSSL;
+    public void setMaxMetricPathsPerServer(int maxMetricPathsPerServer) {
+        this.maxMetricPathsPerServer = maxMetricPathsPerServer;
     }
 
-    public String getUsername() {
-        return username;
+    public int getMetricPathExpiryCycles() {
+        return metricPathExpiryCycles;
     }
 
-    public void setUsername(String username) {
-        this.username = username;
+    public void setMetricPathExpiryCycles(int metricPathExpiryCycles) {
+        this.metricPathExpiryCycles = metricPathExpiryCycles;
     }
 
-    public String getPassword() {
-        return password;
+    public Set<String> getIncludedMetrics() {
+        return includedMetrics;
     }
 
-    public void setPassword(String password) {
-        this.password = password;
+    public void setIncludedMetrics(Set<String> includedMetrics) {
+        this.includedMetrics = includedMetrics;
     }
 
-    public String getPasswordEncrypted() {
-        return passwordEncrypted;
+    public List<String> getCounterMetrics() {
+        return counterMetrics;
     }
 
-    public void setPasswordEncrypted(String passwordEncrypted) {
-        this.passwordEncrypted = passwordEncrypted;
+    public void setCounterMetrics(List<String> counterMetrics) {
+        this.counterMetrics = counterMetrics;
     }
 
-    public String getEncryptionKey() {
-        return encryptionKey;
+    public int getCounterRateMultiplier() {
+        return counterRateMultiplier;
     }
 
-    public void setEncryptionKey(String encryptionKey) {
-        this.encryptionKey = encryptionKey;
+    public void setCounterRateMultiplier(int counterRateMultiplier) {
+        this.counterRateMultiplier = counterRateMultiplier;
     }
 
     public Set<String> getDisabledMetrics() {
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps.config;
+
+import java.util.List;
+
+/**
+ * One entry of the <code>serverGroups</code> list in config.yml, the servers of a cluster by display name.
+ */
+public class ServerGroup {
+
+    private String name;
+    private List<String> servers;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public List<String> getServers() {
+        return servers;
+    }
+
+    public void setServers(List<String> servers) {
+        this.servers = servers;
+    }
+}
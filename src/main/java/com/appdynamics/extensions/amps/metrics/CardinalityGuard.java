@@ -0,0 +1,122 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps.metrics;
+
+import java.util.Arrays;
+
+/**
+ * Caps the number of distinct metric paths reported for one server. The paths of array elements are
+ * named after values like the interface id or the cache description, on hosts where those come and
+ * go the paths would otherwise grow without bound. The admitted paths are kept in a fixed table of
+ * slots; when the table is full a clock hand sweeps it for a path that was not seen for the expiry
+ * time and hands its slot to the new path. A path that finds no free slot is dropped and counted as
+ * an overflow. Once a sweep found nothing to evict, new paths are dropped without sweeping until the
+ * least recently seen path can expire.
+ * <p>
+ * Shared by the tasks of the sections of the server, the methods are synchronized.
+ */
+public class CardinalityGuard {
+
+    private final int capacity;
+    private final long expiryMillis;
+    private final MonitorStats.ServerStats stats;
+    // the metric id and the time it was last seen, by slot
+    private final int[] slotIds;
+    private final long[] lastSeen;
+    private int size;
+    private int hand;
+    // per metric id: its slot, shifted by one so 0 means not admitted
+    private int[] slots = new int[0];
+    // no slot can be evicted before this time
+    private long noEvictionUntil = Long.MIN_VALUE;
+
+    /**
+     * @param capacity     - the most metric paths of the server that are reported
+     * @param expiryMillis - a path that was not seen for this long gives up its slot to a new path
+     * @param stats        - records the dropped samples and the number of admitted paths, may be null
+     */
+    public CardinalityGuard(int capacity, long expiryMillis, MonitorStats.ServerStats stats) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.expiryMillis = expiryMillis;
+        this.stats = stats;
+        this.slotIds = new int[capacity];
+        this.lastSeen = new long[capacity];
+        if (stats != null) {
+            stats.recordMetricPaths(0);
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Records that the metric was seen and decides whether it is reported
+     *
+     * @return true if the metric holds a slot, false if the cap is reached and it is dropped
+     */
+    public synchronized boolean admit(int id, long now) {
+        if (id >= slots.length) {
+            int length = Math.max(256, slots.length);
+            while (length <= id) {
+                length *= 2;
+            }
+            slots = Arrays.copyOf(slots, length);
+        }
+        int slot = slots[id] - 1;
+        if (slot < 0) {
+            slot = size < capacity ? size++ : evict(now);
+            if (slot < 0) {
+                if (stats != null) {
+                    stats.recordOverflow();
+                }
+                return false;
+            }
+            slotIds[slot] = id;
+            slots[id] = slot + 1;
+            if (stats != null) {
+                stats.recordMetricPaths(size);
+            }
+        }
+        lastSeen[slot] = now;
+        return true;
+    }
+
+    /**
+     * Sweeps the clock hand over the full table for a path that expired
+     *
+     * @return the freed slot, or -1 if no path expired
+     */
+    private int evict(long now) {
+        if (now < noEvictionUntil) {
+            return -1;
+        }
+        long oldest = Long.MAX_VALUE;
+        for (int i = 0; i < capacity; i++) {
+            int slot = hand;
+            hand = (hand + 1) % capacity;
+            if (now - lastSeen[slot] > expiryMillis) {
+                slots[slotIds[slot]] = 0;
+                return slot;
+            }
+            oldest = Math.min(oldest, lastSeen[slot]);
+        }
+        noEvictionUntil = oldest + expiryMillis + 1;
+        return -1;
+    }
+
+    /**
+     * @return the number of admitted metric paths
+     */
+    public synchronized int size() {
+        return size;
+    }
+}
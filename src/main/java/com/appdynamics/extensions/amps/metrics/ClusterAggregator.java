@@ -0,0 +1,263 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Aggregates the metrics of the servers of one group across its members: every metric path reported
+ * by the members is reported as <code>Cluster|&lt;group&gt;|&lt;metric path&gt;_sum</code>,
+ * <code>_min</code>, <code>_max</code> and <code>_avg</code>. The collection tasks of the members add
+ * their frames from the worker threads as soon as they complete, into lock-free accumulators: the sum,
+ * minimum and maximum of a path are doubles updated with compare-and-set, the number of members that
+ * reported it is an atomic counter. The accumulators are allocated in pages, only adding a path that
+ * needs a new page takes a lock. {@link #report(MetricFrame)} reads and resets the accumulators once
+ * the poll is complete and starts the next cycle.
+ * <p>
+ * Every contribution is tagged with the cycle its poll started in, see {@link Member#begin()}. The
+ * cycles alternate between two sets of accumulators, a member that completes after its cycle was
+ * reported, because its poll was abandoned at the deadline, is dropped instead of being counted in
+ * the next cycle on top of its own fresh sample.
+ */
+public class ClusterAggregator {
+
+    public static final String CLUSTER = "Cluster";
+    public static final String SUM_SUFFIX = "_sum";
+
+    private static final String SEPARATOR = "|";
+    private static final String[] SUFFIXES = {SUM_SUFFIX, RollupBuffer.MIN_SUFFIX, RollupBuffer.MAX_SUFFIX, RollupBuffer.AVG_SUFFIX};
+
+    private static final int PAGE_BITS = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final long ZERO = Double.doubleToRawLongBits(0d);
+    private static final long POSITIVE_INFINITY = Double.doubleToRawLongBits(Double.POSITIVE_INFINITY);
+    private static final long NEGATIVE_INFINITY = Double.doubleToRawLongBits(Double.NEGATIVE_INFINITY);
+
+    /**
+     * Accumulators of PAGE_SIZE paths
+     */
+    private static class Page {
+        final AtomicLongArray sums = new AtomicLongArray(PAGE_SIZE);
+        final AtomicLongArray mins = new AtomicLongArray(PAGE_SIZE);
+        final AtomicLongArray maxs = new AtomicLongArray(PAGE_SIZE);
+        final AtomicIntegerArray counts = new AtomicIntegerArray(PAGE_SIZE);
+
+        Page() {
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                sums.set(i, ZERO);
+                mins.set(i, POSITIVE_INFINITY);
+                maxs.set(i, NEGATIVE_INFINITY);
+            }
+        }
+    }
+
+    /**
+     * The accumulators of every other cycle and the members adding to them
+     */
+    private static class Generation {
+        volatile AtomicReferenceArray<Page> pages = new AtomicReferenceArray<Page>(16);
+        final AtomicInteger writers = new AtomicInteger();
+    }
+
+    private final String name;
+    private final MetricFilter clusterMetrics;
+    // the metric paths without the display name of the member
+    private final MetricIds paths = new MetricIds();
+    private final Generation[] generations = {new Generation(), new Generation()};
+    // only advanced by the reporting thread
+    private volatile int cycle;
+    // ids of the four aggregates of every path, only used by the reporting thread
+    private int[] outputIds = new int[0];
+
+    /**
+     * @param name           - name of the group, part of the metric path
+     * @param clusterMetrics - the metrics to aggregate, matched against &lt;displayName&gt;|&lt;metric path&gt;, null for all
+     */
+    public ClusterAggregator(String name, MetricFilter clusterMetrics) {
+        this.name = name;
+        this.clusterMetrics = clusterMetrics;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param displayName - display name of the member server
+     * @return the feed of one collection task of the member, every task needs its own
+     */
+    public Member member(String displayName) {
+        return new Member(displayName + SEPARATOR);
+    }
+
+    /**
+     * Adds the metrics of one member task to the group. Not thread safe, owned by one task, but the
+     * members of a group add concurrently.
+     */
+    public class Member {
+        private static final int UNKNOWN = 0;
+        private static final int NOT_AGGREGATED = -1;
+
+        private final String prefix;
+        // per metric id of the task's frames: the path index + 1, UNKNOWN or NOT_AGGREGATED
+        private int[] pathOf = new int[256];
+        private int pollCycle;
+
+        Member(String prefix) {
+            this.prefix = prefix;
+            this.pollCycle = cycle;
+        }
+
+        /**
+         * Tags the next {@link #accumulate(MetricFrame)} with the current cycle, called when the poll
+         * of the member starts
+         */
+        public void begin() {
+            pollCycle = cycle;
+        }
+
+        /**
+         * @return false if the cycle of the poll was already reported and the metrics were dropped
+         */
+        public boolean accumulate(MetricFrame metrics) {
+            Generation generation = generations[pollCycle & 1];
+            generation.writers.incrementAndGet();
+            try {
+                // checked after registering as a writer, the report waits for the writers of its cycle
+                if (cycle != pollCycle) {
+                    return false;
+                }
+                for (int i = 0; i < metrics.size(); i++) {
+                    int path = pathOf(metrics.getMetricIds(), metrics.idAt(i));
+                    if (path >= 0) {
+                        add(generation, path, metrics.valueAt(i));
+                    }
+                }
+                return true;
+            } finally {
+                generation.writers.decrementAndGet();
+            }
+        }
+
+        private int pathOf(MetricIds metricIds, int id) {
+            if (id >= pathOf.length) {
+                int length = pathOf.length;
+                while (length <= id) {
+                    length *= 2;
+                }
+                pathOf = Arrays.copyOf(pathOf, length);
+            }
+            int path = pathOf[id];
+            if (path == UNKNOWN) {
+                String metricName = metricIds.nameOf(id);
+                if (metricName.startsWith(prefix) && (clusterMetrics == null || clusterMetrics.isEnabled(metricName))) {
+                    path = paths.idOf(metricName.substring(prefix.length())) + 1;
+                } else {
+                    path = NOT_AGGREGATED;
+                }
+                pathOf[id] = path;
+            }
+            return path == NOT_AGGREGATED ? -1 : path - 1;
+        }
+    }
+
+    private void add(Generation generation, int path, double value) {
+        Page page = page(generation, path >>> PAGE_BITS, true);
+        int i = path & (PAGE_SIZE - 1);
+        long current;
+        do {
+            current = page.sums.get(i);
+        } while (!page.sums.compareAndSet(i, current, Double.doubleToRawLongBits(Double.longBitsToDouble(current) + value)));
+        do {
+            current = page.mins.get(i);
+        } while (value < Double.longBitsToDouble(current) && !page.mins.compareAndSet(i, current, Double.doubleToRawLongBits(value)));
+        do {
+            current = page.maxs.get(i);
+        } while (value > Double.longBitsToDouble(current) && !page.maxs.compareAndSet(i, current, Double.doubleToRawLongBits(value)));
+        page.counts.incrementAndGet(i);
+    }
+
+    /**
+     * Adds the aggregates of every path reported in the current cycle to the frame, resets them and
+     * starts the next cycle. Only called by one thread.
+     *
+     * @param metrics - the frame of the poll, the names are interned into its schema
+     */
+    public void report(MetricFrame metrics) {
+        Generation generation = generations[cycle & 1];
+        cycle = cycle + 1;
+        // the members that passed the cycle check before it advanced finish adding
+        while (generation.writers.get() > 0) {
+            Thread.yield();
+        }
+        int size = paths.size();
+        if (outputIds.length < 4 * size) {
+            outputIds = Arrays.copyOf(outputIds, Math.max(4 * size, 2 * outputIds.length));
+        }
+        for (int path = 0; path < size; path++) {
+            Page page = page(generation, path >>> PAGE_BITS, false);
+            if (page == null) {
+                continue;
+            }
+            int i = path & (PAGE_SIZE - 1);
+            int count = page.counts.getAndSet(i, 0);
+            if (count == 0) {
+                continue;
+            }
+            double sum = Double.longBitsToDouble(page.sums.getAndSet(i, ZERO));
+            double min = Double.longBitsToDouble(page.mins.getAndSet(i, POSITIVE_INFINITY));
+            double max = Double.longBitsToDouble(page.maxs.getAndSet(i, NEGATIVE_INFINITY));
+            if (outputIds[4 * path] == 0) {
+                // ids are shifted by one so 0 means not interned yet
+                String pathName = CLUSTER + SEPARATOR + name + SEPARATOR + paths.nameOf(path);
+                for (int k = 0; k < SUFFIXES.length; k++) {
+                    outputIds[4 * path + k] = metrics.getMetricIds().idOf(pathName + SUFFIXES[k]) + 1;
+                }
+            }
+            metrics.set(outputIds[4 * path] - 1, sum);
+            metrics.set(outputIds[4 * path + 1] - 1, min);
+            metrics.set(outputIds[4 * path + 2] - 1, max);
+            metrics.set(outputIds[4 * path + 3] - 1, sum / count);
+        }
+    }
+
+    private Page page(Generation generation, int index, boolean create) {
+        AtomicReferenceArray<Page> current = generation.pages;
+        if (index < current.length()) {
+            Page page = current.get(index);
+            if (page != null || !create) {
+                return page;
+            }
+        } else if (!create) {
+            return null;
+        }
+        return allocatePage(generation, index);
+    }
+
+    private synchronized Page allocatePage(Generation generation, int index) {
+        AtomicReferenceArray<Page> current = generation.pages;
+        if (index >= current.length()) {
+            AtomicReferenceArray<Page> grown = new AtomicReferenceArray<Page>(Math.max(index + 1, 2 * current.length()));
+            for (int i = 0; i < current.length(); i++) {
+                grown.set(i, current.get(i));
+            }
+            generation.pages = grown;
+            current = grown;
+        }
+        Page page = current.get(index);
+        if (page == null) {
+            page = new Page();
+            current.set(index, page);
+        }
+        return page;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps.metrics;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from metric id to the previous sample (value and timestamp) of a counter.
+ * Keys and values live in parallel primitive arrays, so neither lookups nor updates allocate. Not
+ * thread safe, every collection task owns its own instance.
+ */
+public class CounterStateMap {
+
+    private static final int FREE = -1;
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private int[] keys;
+    private double[] values;
+    private long[] timestamps;
+    private int size;
+    private int mask;
+
+    public CounterStateMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public CounterStateMap(int expectedSize) {
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    /**
+     * @return the slot of the key, or a negative value if the key is not present
+     */
+    public int indexOf(int key) {
+        int index = hash(key) & mask;
+        while (true) {
+            int k = keys[index];
+            if (k == key) {
+                return index;
+            }
+            if (k == FREE) {
+                return -1;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    public double valueAt(int index) {
+        return values[index];
+    }
+
+    public long timestampAt(int index) {
+        return timestamps[index];
+    }
+
+    public void setAt(int index, double value, long timestamp) {
+        values[index] = value;
+        timestamps[index] = timestamp;
+    }
+
+    public void put(int key, double value, long timestamp) {
+        if (key < 0) {
+            throw new IllegalArgumentException("Metric ids are not negative: " + key);
+        }
+        int index = hash(key) & mask;
+        while (keys[index] != FREE && keys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        if (keys[index] == FREE) {
+            keys[index] = key;
+            size++;
+        }
+        values[index] = value;
+        timestamps[index] = timestamp;
+        if (size * 2 > keys.length) {
+            rehash(keys.length * 2, Long.MIN_VALUE);
+        }
+    }
+
+    /**
+     * Drops the state of every counter that was not updated since the given time
+     */
+    public void removeOlderThan(long timestamp) {
+        rehash(tableSizeFor(size), timestamp);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void rehash(int capacity, long minTimestamp) {
+        int[] oldKeys = keys;
+        double[] oldValues = values;
+        long[] oldTimestamps = timestamps;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE && oldTimestamps[i] >= minTimestamp) {
+                put(oldKeys[i], oldValues[i], oldTimestamps[i]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        Arrays.fill(keys, FREE);
+        values = new double[capacity];
+        timestamps = new long[capacity];
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
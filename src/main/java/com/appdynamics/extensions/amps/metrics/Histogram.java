@@ -0,0 +1,101 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of non negative values, e.g. durations in nanoseconds. Values are counted in
+ * power of two buckets so recording is a handful of atomic increments and percentiles are accurate
+ * to a factor of two, which is plenty to tell where the time of a poll went.
+ */
+public class Histogram {
+
+    private static final int BUCKETS = 64;
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        buckets.incrementAndGet(value == 0 ? 0 : 63 - Long.numberOfLeadingZeros(value));
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the values recorded since the last call, and starts over
+     */
+    public Snapshot snapshotAndReset() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.getAndSet(i, 0);
+        }
+        return new Snapshot(count.getAndSet(0), sum.getAndSet(0), max.getAndSet(0), counts);
+    }
+
+    public static class Snapshot {
+        private final long count;
+        private final long sum;
+        private final long max;
+        private final long[] buckets;
+
+        Snapshot(long count, long sum, long max, long[] buckets) {
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+            this.buckets = buckets;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @param percentile - between 0 and 100
+         * @return the upper bound of the bucket holding the percentile, capped at the max value
+         */
+        public long getPercentile(double percentile) {
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0) {
+                    long upperBound = i >= 63 ? Long.MAX_VALUE : (1L << i + 1) - 1;
+                    return Math.min(upperBound, max);
+                }
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps.metrics;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Decides which metrics are reported. A metric is reported when it matches one of the include patterns
+ * (or no include patterns are configured) and none of the exclude patterns. The patterns are compiled
+ * once per configuration; patterns that are plain literals, optionally wrapped in <code>.*</code>, are
+ * evaluated with String operations instead of the regex engine. Since metric names hardly change
+ * between polls the decision for every name is cached in a bounded map.
+ */
+public class MetricFilter {
+
+    private static final Logger logger = Logger.getLogger(MetricFilter.class);
+
+    public static final int DEFAULT_CACHE_SIZE = 50000;
+
+    private static final String ANY = ".*";
+    private static final String REGEX_META_CHARS = "\\.[]{}()*+?^$|";
+
+    private final List<Rule> includes;
+    private final List<Rule> excludes;
+    private final int maxCacheSize;
+    private final ConcurrentMap<String, Boolean> decisions = new ConcurrentHashMap<String, Boolean>();
+
+    public MetricFilter(Collection<String> includePatterns, Collection<String> excludePatterns) {
+        this(includePatterns, excludePatterns, DEFAULT_CACHE_SIZE);
+    }
+
+    public MetricFilter(Collection<String> includePatterns, Collection<String> excludePatterns, int maxCacheSize) {
+        this.includes = compile(includePatterns);
+        this.excludes = compile(excludePatterns);
+        this.maxCacheSize = maxCacheSize;
+    }
+
+    /**
+     * @param metricName - name of the metric without the metric prefix
+     * @return true if the metric should be reported
+     */
+    public boolean isEnabled(String metricName) {
+        Boolean decision = decisions.get(metricName);
+        if (decision == null) {
+            decision = evaluate(metricName);
+            if (decisions.size() >= maxCacheSize) {
+                // names churned past the bound, start over rather than growing without limit
+                decisions.clear();
+            }
+            decisions.put(metricName, decision);
+        }
+        return decision;
+    }
+
+    boolean evaluate(String metricName) {
+        if (!includes.isEmpty() && !matchesAny(includes, metricName)) {
+            return false;
+        }
+        if (matchesAny(excludes, metricName)) {
+            logger.debug(" [" + metricName + "] matched");
+            return false;
+        }
+        return true;
+    }
+
+    int cacheSize() {
+        return decisions.size();
+    }
+
+    private static boolean matchesAny(List<Rule> rules, String input) {
+        for (int i = 0; i < rules.size(); i++) {
+            if (rules.get(i).matches(input)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Rule> compile(Collection<String> patterns) {
+        List<Rule> rules = new ArrayList<Rule>();
+        if (patterns == null) {
+            return rules;
+        }
+        for (String pattern : patterns) {
+            if (pattern == null) {
+                continue;
+            }
+            try {
+                rules.add(Rule.compile(pattern));
+            } catch (PatternSyntaxException ex) {
+                logger.error("Invalid pattern[" + pattern + "] specified. Ignoring it.");
+            }
+        }
+        return rules;
+    }
+
+    enum MatchType {
+        EQUALS, PREFIX, SUFFIX, CONTAINS, REGEX
+    }
+
+    static class Rule {
+        final MatchType type;
+        final String literal;
+        final Pattern pattern;
+
+        private Rule(MatchType type, String literal, Pattern pattern) {
+            this.type = type;
+            this.literal = literal;
+            this.pattern = pattern;
+        }
+
+        static Rule compile(String regex) {
+            String body = regex;
+            boolean anyBefore = body.startsWith(ANY);
+            if (anyBefore) {
+                body = body.substring(ANY.length());
+            }
+            boolean anyAfter = body.endsWith(ANY) && !isEscaped(body, body.length() - ANY.length());
+            if (anyAfter) {
+                body = body.substring(0, body.length() - ANY.length());
+            }
+
+            String literal = unescapeLiteral(body);
+            if (literal == null) {
+                return new Rule(MatchType.REGEX, null, Pattern.compile(regex));
+            }
+            MatchType type;
+            if (anyBefore && anyAfter) {
+                type = MatchType.CONTAINS;
+            } else if (anyAfter) {
+                type = MatchType.PREFIX;
+            } else if (anyBefore) {
+                type = MatchType.SUFFIX;
+            } else {
+                type = MatchType.EQUALS;
+            }
+            return new Rule(type, literal, null);
+        }
+
+        boolean matches(String input) {
+            switch (type) {
+                case EQUALS:
+                    return input.equals(literal);
+                case PREFIX:
+                    return input.startsWith(literal);
+                case SUFFIX:
+                    return input.endsWith(literal);
+                case CONTAINS:
+                    return input.contains(literal);
+                default:
+                    return pattern.matcher(input).matches();
+            }
+        }
+
+        /**
+         * @return the literal text matched by the regex, or null if the regex uses any regex construct
+         * other than escaped meta characters
+         */
+        private static String unescapeLiteral(String regex) {
+            StringBuilder literal = new StringBuilder(regex.length());
+            for (int i = 0; i < regex.length(); i++) {
+                char c = regex.charAt(i);
+                if (c == '\\') {
+                    if (i + 1 >= regex.length() || REGEX_META_CHARS.indexOf(regex.charAt(i + 1)) < 0) {
+                        // \d, \s, \Q ... are real regex constructs
+                        return null;
+                    }
+                    literal.append(regex.charAt(++i));
+                } else if (REGEX_META_CHARS.indexOf(c) >= 0) {
+                    return null;
+                } else {
+                    literal.append(c);
+                }
+            }
+            return literal.toString();
+        }
+
+        private static boolean isEscaped(String regex, int index) {
+            int backslashes = 0;
+            for (int i = index - 1; i >= 0 && regex.charAt(i) == '\\'; i--) {
+                backslashes++;
+            }
+            return backslashes % 2 == 1;
+        }
+    }
+}
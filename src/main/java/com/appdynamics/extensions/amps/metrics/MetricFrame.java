@@ -0,0 +1,133 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps.metrics;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The values of one poll, stored in a <code>double[]</code> indexed by the ids of a {@link MetricIds}
+ * schema instead of a map of names to boxed values. Frames are allocated once and refilled by every
+ * poll: {@link #clear()} starts a new generation in O(1), a value is only present if it was set in the
+ * current generation. The ids set are also kept in the order they were set, so iterating a frame costs
+ * O(size) and not O(schema). Not thread safe, a frame is filled by one task and handed over when the
+ * task completes.
+ */
+public class MetricFrame {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final MetricIds metricIds;
+    private double[] values = new double[INITIAL_CAPACITY];
+    // the generation in which each id was last set
+    private int[] generations = new int[INITIAL_CAPACITY];
+    private int[] setIds = new int[INITIAL_CAPACITY];
+    private int size;
+    private int generation = 1;
+
+    public MetricFrame(MetricIds metricIds) {
+        this.metricIds = metricIds;
+    }
+
+    public MetricIds getMetricIds() {
+        return metricIds;
+    }
+
+    /**
+     * Removes all values
+     */
+    public void clear() {
+        size = 0;
+        if (++generation == Integer.MAX_VALUE) {
+            Arrays.fill(generations, 0);
+            generation = 1;
+        }
+    }
+
+    public void set(int id, double value) {
+        if (id >= values.length) {
+            grow(id);
+        }
+        if (generations[id] != generation) {
+            generations[id] = generation;
+            if (size == setIds.length) {
+                setIds = Arrays.copyOf(setIds, size * 2);
+            }
+            setIds[size++] = id;
+        }
+        values[id] = value;
+    }
+
+    /**
+     * Sets the value of a metric by name, for the few metrics that are not part of the extracted
+     * document
+     */
+    public void put(String metricName, double value) {
+        set(metricIds.idOf(metricName), value);
+    }
+
+    public boolean contains(int id) {
+        return id < generations.length && generations[id] == generation;
+    }
+
+    /**
+     * @return the value of the id, only meaningful if the frame {@link #contains(int)} it
+     */
+    public double get(int id) {
+        return values[id];
+    }
+
+    /**
+     * @return the number of values in the frame
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index - 0 to size - 1, in the order the values were set
+     */
+    public int idAt(int index) {
+        return setIds[index];
+    }
+
+    public double valueAt(int index) {
+        return values[setIds[index]];
+    }
+
+    /**
+     * Copies all values of another frame of the same schema into this one
+     */
+    public void putAll(MetricFrame other) {
+        for (int i = 0; i < other.size; i++) {
+            int id = other.setIds[i];
+            set(id, other.values[id]);
+        }
+    }
+
+    /**
+     * @return the values by metric name, for tests and tools
+     */
+    public Map<String, Double> toMap() {
+        Map<String, Double> metrics = new LinkedHashMap<String, Double>();
+        for (int i = 0; i < size; i++) {
+            metrics.put(metricIds.nameOf(setIds[i]), valueAt(i));
+        }
+        return metrics;
+    }
+
+    private void grow(int id) {
+        int capacity = values.length;
+        while (capacity <= id) {
+            capacity *= 2;
+        }
+        values = Arrays.copyOf(values, capacity);
+        generations = Arrays.copyOf(generations, capacity);
+    }
+}
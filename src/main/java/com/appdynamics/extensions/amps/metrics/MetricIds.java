@@ -0,0 +1,61 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The learned schema of the metrics: interns metric names into small, dense int ids so per metric
+ * state can be kept in primitive structures and a poll can be stored in a {@link MetricFrame}. Ids are
+ * stable for the lifetime of the instance and safe to use from several threads, lookups of known names
+ * do not lock.
+ */
+public class MetricIds {
+
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+    private volatile String[] names = new String[256];
+    private int size;
+
+    /**
+     * @return the id of the metric, assigning a new one the first time the name is seen
+     */
+    public int idOf(String metricName) {
+        Integer id = ids.get(metricName);
+        if (id == null) {
+            return assign(metricName);
+        }
+        return id;
+    }
+
+    private synchronized int assign(String metricName) {
+        Integer id = ids.get(metricName);
+        if (id != null) {
+            return id;
+        }
+        if (size == names.length) {
+            names = Arrays.copyOf(names, names.length * 2);
+        }
+        // the name is stored before the id is published
+        names[size] = metricName;
+        ids.put(metricName, size);
+        return size++;
+    }
+
+    /**
+     * @return the name of an id returned by {@link #idOf(String)}
+     */
+    public String nameOf(int id) {
+        return names[id];
+    }
+
+    public int size() {
+        return ids.size();
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps.metrics;
+
+import com.singularity.ee.agent.systemagent.api.MetricWriter;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Assigns every metric a slot the first time it is seen. The slot keeps the fully qualified metric
+ * name, the filter decision and the writer, so the steady state emit loop does not build names, match
+ * filters or look up writers. Slots are indexed by the id of the metric in the {@link MetricIds} schema,
+ * emitting a {@link MetricFrame} is one array access per metric. Slots of metrics that were not
+ * reported for a number of cycles are evicted. Not thread safe, metrics are emitted from a single
+ * thread.
+ */
+public class MetricRegistry {
+
+    private static final Logger logger = Logger.getLogger(MetricRegistry.class);
+
+    public static final int DEFAULT_MAX_MISSED_CYCLES = 10;
+
+    /**
+     * Receives the values of one metric, usually backed by the agent's {@link MetricWriter}
+     */
+    public interface Writer {
+        void printMetric(String value);
+    }
+
+    /**
+     * Creates the writer of a fully qualified metric name
+     */
+    public interface WriterFactory {
+        Writer createWriter(String fullMetricName);
+    }
+
+    public static class Slot {
+        private final int id;
+        private final String fullName;
+        private final boolean enabled;
+        private Writer writer;
+        private long lastSeenCycle;
+        private long lastValue;
+        private String lastValueString;
+
+        Slot(int id, String fullName, boolean enabled) {
+            this.id = id;
+            this.fullName = fullName;
+            this.enabled = enabled;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getFullName() {
+            return fullName;
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+    }
+
+    private final MetricIds metricIds;
+    private final String metricPrefix;
+    private final MetricFilter metricFilter;
+    private final WriterFactory writerFactory;
+    private final int maxMissedCycles;
+    private Slot[] slotsById = new Slot[256];
+    private final List<Slot> slots = new ArrayList<Slot>();
+    private long cycle;
+    private long filterNanos;
+
+    public MetricRegistry(String metricPrefix, MetricFilter metricFilter, WriterFactory writerFactory) {
+        this(metricPrefix, metricFilter, writerFactory, DEFAULT_MAX_MISSED_CYCLES);
+    }
+
+    public MetricRegistry(String metricPrefix, MetricFilter metricFilter, WriterFactory writerFactory, int maxMissedCycles) {
+        this(new MetricIds(), metricPrefix, metricFilter, writerFactory, maxMissedCycles);
+    }
+
+    /**
+     * @param metricIds - the schema of the frames that are emitted
+     */
+    public MetricRegistry(MetricIds metricIds, String metricPrefix, MetricFilter metricFilter, WriterFactory writerFactory) {
+        this(metricIds, metricPrefix, metricFilter, writerFactory, DEFAULT_MAX_MISSED_CYCLES);
+    }
+
+    public MetricRegistry(MetricIds metricIds, String metricPrefix, MetricFilter metricFilter, WriterFactory writerFactory,
+                          int maxMissedCycles) {
+        this.metricIds = metricIds;
+        this.metricPrefix = metricPrefix == null ? "" : metricPrefix;
+        this.metricFilter = metricFilter;
+        this.writerFactory = writerFactory;
+        this.maxMissedCycles = maxMissedCycles;
+    }
+
+    /**
+     * @return the slot of the metric, created the first time the name is seen
+     */
+    public Slot slotFor(String metricName) {
+        return slotFor(metricIds.idOf(metricName));
+    }
+
+    /**
+     * @param id - id of the metric in the schema of this registry
+     * @return the slot of the metric, created the first time the id is seen
+     */
+    public Slot slotFor(int id) {
+        if (id >= slotsById.length) {
+            int length = slotsById.length;
+            while (length <= id) {
+                length *= 2;
+            }
+            slotsById = Arrays.copyOf(slotsById, length);
+        }
+        Slot slot = slotsById[id];
+        if (slot == null) {
+            String metricName = metricIds.nameOf(id);
+            long start = System.nanoTime();
+            boolean enabled = metricFilter == null || metricFilter.isEnabled(metricName);
+            filterNanos += System.nanoTime() - start;
+            slot = new Slot(id, metricPrefix + metricName, enabled);
+            slotsById[id] = slot;
+            slots.add(slot);
+        }
+        slot.lastSeenCycle = cycle;
+        return slot;
+    }
+
+    /**
+     * Reports the value of a metric if it is enabled. The value is rounded to a long, the string of the
+     * last value is reused while the value does not change.
+     *
+     * @return false if the metric is disabled and was dropped
+     */
+    public boolean print(String metricName, double value) {
+        return print(metricIds.idOf(metricName), value);
+    }
+
+    /**
+     * @param id - id of the metric in the schema of this registry
+     * @see #print(String, double)
+     */
+    public boolean print(int id, double value) {
+        Slot slot = slotFor(id);
+        if (!slot.enabled) {
+            return false;
+        }
+        if (slot.writer == null) {
+            slot.writer = writerFactory.createWriter(slot.fullName);
+        }
+        long longValue = Math.round(value);
+        if (slot.lastValueString == null || slot.lastValue != longValue) {
+            slot.lastValue = longValue;
+            slot.lastValueString = String.valueOf(longValue);
+        }
+        slot.writer.printMetric(slot.lastValueString);
+        return true;
+    }
+
+    /**
+     * Ends the current emit cycle and evicts the slots that were not seen for more than the allowed
+     * number of cycles
+     */
+    public void endCycle() {
+        int kept = 0;
+        for (int i = 0; i < slots.size(); i++) {
+            Slot slot = slots.get(i);
+            if (cycle - slot.lastSeenCycle >= maxMissedCycles) {
+                slotsById[slot.id] = null;
+            } else {
+                slots.set(kept++, slot);
+            }
+        }
+        int evicted = slots.size() - kept;
+        if (evicted > 0) {
+            slots.subList(kept, slots.size()).clear();
+        }
+        if (evicted > 0) {
+            logger.debug("Evicted " + evicted + " stale metric slots");
+        }
+        cycle++;
+    }
+
+    /**
+     * @return the time spent evaluating the filter for new metrics since the last call
+     */
+    public long takeFilterNanos() {
+        long nanos = filterNanos;
+        filterNanos = 0;
+        return nanos;
+    }
+
+    public int size() {
+        return slots.size();
+    }
+}
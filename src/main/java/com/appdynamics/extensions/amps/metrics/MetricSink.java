@@ -0,0 +1,154 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps.metrics;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Where the metrics go when the collector runs outside the machine agent, see
+ * {@link com.appdynamics.extensions.amps.AMPSStandalone}. A sink creates the writers of the
+ * {@link MetricRegistry} like the agent's metric writers would, and is told where the cycles start
+ * and end so it can stamp and flush the values. The writers count the values written per cycle.
+ */
+public abstract class MetricSink implements MetricRegistry.WriterFactory {
+
+    private int written;
+
+    /**
+     * @param spec - <code>stdout</code>, <code>csv:&lt;file&gt;</code> or <code>null</code>
+     * @throws IllegalArgumentException if the spec names no sink
+     */
+    public static MetricSink forSpec(String spec) throws IOException {
+        if ("stdout".equals(spec)) {
+            return new Stdout(System.out);
+        } else if ("null".equals(spec)) {
+            return new Null();
+        } else if (spec.startsWith("csv:") && spec.length() > 4) {
+            return new Csv(new FileOutputStream(spec.substring(4)));
+        }
+        throw new IllegalArgumentException("Unknown sink [" + spec + "], valid sinks are stdout, csv:<file> and null");
+    }
+
+    public final MetricRegistry.Writer createWriter(final String fullMetricName) {
+        return new MetricRegistry.Writer() {
+            public void printMetric(String value) {
+                written++;
+                write(fullMetricName, value);
+            }
+        };
+    }
+
+    /**
+     * @param timestamp - time the cycle started, in milliseconds since the epoch
+     */
+    public void startCycle(long timestamp) {
+        written = 0;
+    }
+
+    /**
+     * @return the number of values written since the cycle started
+     */
+    public int endCycle() throws IOException {
+        return written;
+    }
+
+    public void close() throws IOException {
+    }
+
+    protected abstract void write(String fullMetricName, String value);
+
+    /**
+     * Discards the values, for measuring the cost of the collection alone
+     */
+    public static class Null extends MetricSink {
+        protected void write(String fullMetricName, String value) {
+        }
+    }
+
+    /**
+     * Prints one <code>name=value</code> line per value and a blank line after every cycle
+     */
+    public static class Stdout extends MetricSink {
+        private final PrintWriter out;
+
+        public Stdout(OutputStream out) throws IOException {
+            this.out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out, "UTF-8")));
+        }
+
+        protected void write(String fullMetricName, String value) {
+            out.print(fullMetricName);
+            out.print('=');
+            out.println(value);
+        }
+
+        public int endCycle() throws IOException {
+            out.println();
+            out.flush();
+            return super.endCycle();
+        }
+
+        public void close() {
+            out.flush();
+        }
+    }
+
+    /**
+     * Writes one <code>time,metric,value</code> row per value, the time of the cycle in UTC
+     */
+    public static class Csv extends MetricSink {
+        private final PrintWriter out;
+        private final SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        private String cycleTime;
+
+        public Csv(OutputStream out) throws IOException {
+            this.out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out, "UTF-8")));
+            timeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+            this.out.println("time,metric,value");
+        }
+
+        public void startCycle(long timestamp) {
+            super.startCycle(timestamp);
+            cycleTime = timeFormat.format(new Date(timestamp));
+        }
+
+        protected void write(String fullMetricName, String value) {
+            out.print(cycleTime);
+            out.print(',');
+            out.print(quote(fullMetricName));
+            out.print(',');
+            out.println(value);
+        }
+
+        public int endCycle() throws IOException {
+            out.flush();
+            if (out.checkError()) {
+                throw new IOException("Error writing the CSV sink");
+            }
+            return super.endCycle();
+        }
+
+        public void close() {
+            out.close();
+        }
+
+        static String quote(String field) {
+            if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0) {
+                return field;
+            }
+            return '"' + field.replace("\"", "\"\"") + '"';
+        }
+    }
+}
@@ -0,0 +1,443 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps.metrics;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append only local spool of the collected samples. Every sample is a fixed size binary record (metric
+ * id, timestamp, value) in a ring file that is memory mapped, so appending a poll is a few stores into
+ * the page cache. The ring holds a fixed number of records, when it is full the oldest records are
+ * overwritten. The ring is forced to disk at most every {@link #FORCE_INTERVAL_NANOS} and on close, an OS
+ * crash loses the records of that interval; a crash of the process loses none.
+ * <p>
+ * The ids of the records are the spool's own ids. They are persisted next to the ring in a names file,
+ * so the spool can be read after a restart and by {@link MetricSpoolReader}. Ids of the frames that are
+ * appended are translated once per id. New names are appended to the file. The records of every id in
+ * the ring are counted as they are written and overwritten; when the spool is opened and whenever the
+ * ring wraps, the file is rewritten with only the ids that still have records, if any id has none.
+ * <p>
+ * The spool survives crashes: names are written before any record that uses them and the head of the
+ * ring is only advanced after its records are written. Every record carries the low bits of its
+ * sequence number, so a record that was torn by an OS crash is detected and skipped.
+ * <p>
+ * The spool is a local history for post-incident analysis of the sub-minute behaviour of the servers,
+ * read with {@link MetricSpoolReader}. Nothing is sent from it to the controller.
+ * <p>
+ * Not thread safe.
+ */
+public class MetricSpool {
+
+    private static final Logger logger = Logger.getLogger(MetricSpool.class);
+
+    public static final String RING_FILE = "metrics.spool";
+    public static final String NAMES_FILE = "metrics.names";
+
+    static final int MAGIC = 0x414d5053;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    // id, sequence, timestamp, value
+    public static final int RECORD_SIZE = 4 + 4 + 8 + 8;
+    // the ring is mapped as one buffer
+    public static final int MAX_CAPACITY = (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE;
+    public static final long FORCE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int RECORD_SIZE_OFFSET = 12;
+    private static final int HEAD_OFFSET = 16;
+
+    /**
+     * Receives the records of the spool in the order they were appended
+     */
+    public interface Visitor {
+        void sample(String metricName, long timestamp, double value);
+    }
+
+    private final File directory;
+    private final int capacity;
+    private final MetricIds metricIds;
+    private final File namesPath;
+    private final Map<String, Integer> spoolIds = new HashMap<String, Integer>();
+    private final Map<Integer, String> spoolNames = new HashMap<Integer, String>();
+    private int nextSpoolId;
+    private final RandomAccessFile ringFile;
+    private final MappedByteBuffer ring;
+    private FileOutputStream namesFile;
+    private DataOutputStream names;
+    // per frame id: the spool id + 1, 0 if not translated yet
+    private int[] spoolIdOf = new int[256];
+    private int[] appended = new int[256];
+    // per spool id: the number of records of the id in the ring
+    private int[] records = new int[256];
+    // the number of spool ids with records in the ring
+    private int liveNames;
+    private long head;
+    private long lastForceNanos = System.nanoTime();
+
+    /**
+     * Opens the spool in the directory, creating it if needed. An existing spool of a different capacity
+     * or format is started over.
+     *
+     * @param capacity  - number of records kept
+     * @param metricIds - the schema of the frames that are appended
+     */
+    public MetricSpool(File directory, int capacity, MetricIds metricIds) throws IOException {
+        if (capacity < 1 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Capacity must be between 1 and " + MAX_CAPACITY + ": " + capacity);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create spool directory " + directory);
+        }
+        this.directory = directory;
+        this.capacity = capacity;
+        this.metricIds = metricIds;
+
+        File file = new File(directory, RING_FILE);
+        namesPath = new File(directory, NAMES_FILE);
+        long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+        boolean reuse = file.length() == size && namesPath.exists() && isValid(file, capacity);
+        if (!reuse && file.exists()) {
+            logger.warn("Starting over the spool in " + directory + ", its size or format does not match the configuration");
+        }
+        long validNames = 0;
+        if (reuse) {
+            try {
+                validNames = loadNames(namesPath, spoolNames);
+            } catch (IOException e) {
+                logger.warn("Starting over the spool in " + directory + ": " + e.getMessage());
+                spoolNames.clear();
+                reuse = false;
+            }
+            for (Map.Entry<Integer, String> entry : spoolNames.entrySet()) {
+                spoolIds.put(entry.getValue(), entry.getKey());
+                nextSpoolId = Math.max(nextSpoolId, entry.getKey() + 1);
+            }
+        }
+
+        ringFile = new RandomAccessFile(file, "rw");
+        ringFile.setLength(size);
+        ring = ringFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        if (reuse) {
+            head = ring.getLong(HEAD_OFFSET);
+        } else {
+            ring.putInt(MAGIC_OFFSET, MAGIC);
+            ring.putInt(VERSION_OFFSET, VERSION);
+            ring.putInt(CAPACITY_OFFSET, capacity);
+            ring.putInt(RECORD_SIZE_OFFSET, RECORD_SIZE);
+            ring.putLong(HEAD_OFFSET, 0);
+        }
+
+        // drop a torn entry at the end of the names, the records using it were never published
+        RandomAccessFile truncate = new RandomAccessFile(namesPath, "rw");
+        try {
+            truncate.setLength(validNames);
+        } finally {
+            truncate.close();
+        }
+        namesFile = new FileOutputStream(namesPath, true);
+        names = new DataOutputStream(namesFile);
+        if (reuse) {
+            countRecords();
+            compactNames();
+            logger.info("Opened spool " + directory + " with " + Math.min(head, capacity) + " records of "
+                    + spoolIds.size() + " metrics");
+        }
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the sequence number of the next record
+     */
+    public long getHead() {
+        return head;
+    }
+
+    /**
+     * Appends one record for every metric of the frame, the ring is forced to disk if the last force is
+     * older than {@link #FORCE_INTERVAL_NANOS}
+     */
+    public void append(MetricFrame metrics, long timestamp) throws IOException {
+        int count = metrics.size();
+        if (count == 0) {
+            return;
+        }
+        if (appended.length < count) {
+            appended = new int[Math.max(appended.length * 2, count)];
+        }
+        int[] ids = appended;
+        boolean newNames = false;
+        for (int i = 0; i < count; i++) {
+            int id = metrics.idAt(i);
+            if (id >= spoolIdOf.length) {
+                spoolIdOf = Arrays.copyOf(spoolIdOf, Math.max(spoolIdOf.length * 2, id + 1));
+            }
+            int spoolId = spoolIdOf[id] - 1;
+            if (spoolId < 0) {
+                String metricName = metricIds.nameOf(id);
+                Integer known = spoolIds.get(metricName);
+                if (known != null) {
+                    spoolId = known;
+                } else {
+                    spoolId = nextSpoolId++;
+                    spoolIds.put(metricName, spoolId);
+                    spoolNames.put(spoolId, metricName);
+                    names.writeInt(spoolId);
+                    names.writeUTF(metricName);
+                    newNames = true;
+                }
+                spoolIdOf[id] = spoolId + 1;
+            }
+            ids[i] = spoolId;
+        }
+        if (newNames) {
+            names.flush();
+            namesFile.getFD().sync();
+        }
+
+        long sequence = head;
+        for (int i = 0; i < count; i++, sequence++) {
+            int offset = offsetOf(sequence);
+            if (sequence >= capacity && ring.getInt(offset + 4) == (int) (sequence - capacity)) {
+                release(ring.getInt(offset));
+            }
+            retain(ids[i]);
+            ring.putInt(offset, ids[i]);
+            ring.putInt(offset + 4, (int) sequence);
+            ring.putLong(offset + 8, timestamp);
+            ring.putDouble(offset + 16, metrics.valueAt(i));
+        }
+        // a record that did not reach the disk before the head did fails the sequence check
+        boolean wrapped = head / capacity != sequence / capacity;
+        head = sequence;
+        ring.putLong(HEAD_OFFSET, head);
+        long now = System.nanoTime();
+        if (now - lastForceNanos >= FORCE_INTERVAL_NANOS) {
+            ring.force();
+            lastForceNanos = now;
+        }
+        if (wrapped) {
+            compactNames();
+        }
+    }
+
+    /**
+     * Counts the records of every id of a reused ring, the only time the ring is scanned
+     */
+    private void countRecords() {
+        for (long sequence = Math.max(0, head - capacity); sequence < head; sequence++) {
+            int offset = offsetOf(sequence);
+            int spoolId = ring.getInt(offset);
+            // a torn record, or one of an id without a name, is not read and not counted
+            if (ring.getInt(offset + 4) == (int) sequence && spoolNames.containsKey(spoolId)) {
+                retain(spoolId);
+            }
+        }
+    }
+
+    private void retain(int spoolId) {
+        if (spoolId >= records.length) {
+            records = Arrays.copyOf(records, Math.max(records.length * 2, spoolId + 1));
+        }
+        if (records[spoolId]++ == 0) {
+            liveNames++;
+        }
+    }
+
+    /**
+     * Uncounts an overwritten record, ids that were not counted are ignored
+     */
+    private void release(int spoolId) {
+        if (spoolId >= 0 && spoolId < records.length && records[spoolId] > 0 && --records[spoolId] == 0) {
+            liveNames--;
+        }
+    }
+
+    /**
+     * Rewrites the names file with only the ids the ring still holds records of, if it has other ids.
+     * The new file replaces the old one by a rename, so a crash leaves one of the two complete.
+     */
+    private void compactNames() throws IOException {
+        if (liveNames == spoolNames.size()) {
+            return;
+        }
+        File compacted = new File(directory, NAMES_FILE + ".tmp");
+        FileOutputStream file = new FileOutputStream(compacted);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+            for (Iterator<Map.Entry<Integer, String>> it = spoolNames.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<Integer, String> entry = it.next();
+                if (entry.getKey() < records.length && records[entry.getKey()] > 0) {
+                    out.writeInt(entry.getKey());
+                    out.writeUTF(entry.getValue());
+                } else {
+                    spoolIds.remove(entry.getValue());
+                    it.remove();
+                }
+            }
+            out.flush();
+            file.getFD().sync();
+        } finally {
+            file.close();
+        }
+        names.close();
+        // after a crash the ring on disk must not hold older records of the dropped ids
+        ring.force();
+        lastForceNanos = System.nanoTime();
+        if (!compacted.renameTo(namesPath)) {
+            throw new IOException("Unable to replace spool names file " + namesPath);
+        }
+        namesFile = new FileOutputStream(namesPath, true);
+        names = new DataOutputStream(namesFile);
+        // the frame ids of the dropped names are translated again
+        Arrays.fill(spoolIdOf, 0);
+    }
+
+    public void close() {
+        try {
+            ring.force();
+            ringFile.close();
+        } catch (IOException e) {
+            logger.warn("Error closing spool " + directory, e);
+        }
+        try {
+            names.close();
+        } catch (IOException e) {
+            logger.warn("Error closing spool " + directory, e);
+        }
+    }
+
+    private int offsetOf(long sequence) {
+        return HEADER_SIZE + (int) (sequence % capacity) * RECORD_SIZE;
+    }
+
+    /**
+     * Visits all records still in the ring of a spool directory, without modifying it
+     *
+     * @return the number of records visited
+     */
+    public static int read(File directory, Visitor visitor) throws IOException {
+        File file = new File(directory, RING_FILE);
+        Map<Integer, String> spoolNames = new HashMap<Integer, String>();
+        loadNames(new File(directory, NAMES_FILE), spoolNames);
+        RandomAccessFile ringFile = new RandomAccessFile(file, "r");
+        try {
+            ByteBuffer ring = ringFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, ringFile.length());
+            if (ring.limit() < HEADER_SIZE || ring.getInt(MAGIC_OFFSET) != MAGIC || ring.getInt(VERSION_OFFSET) != VERSION
+                    || ring.getInt(RECORD_SIZE_OFFSET) != RECORD_SIZE) {
+                throw new IOException(file + " is not a metric spool");
+            }
+            int capacity = ring.getInt(CAPACITY_OFFSET);
+            long head = ring.getLong(HEAD_OFFSET);
+            return visit(ring, capacity, spoolNames, Math.max(0, head - capacity), head, visitor);
+        } finally {
+            ringFile.close();
+        }
+    }
+
+    private static int visit(ByteBuffer ring, int capacity, Map<Integer, String> spoolNames, long from, long to,
+                             Visitor visitor) {
+        int visited = 0;
+        int torn = 0;
+        for (long sequence = from; sequence < to; sequence++) {
+            int offset = HEADER_SIZE + (int) (sequence % capacity) * RECORD_SIZE;
+            String metricName = spoolNames.get(ring.getInt(offset));
+            if (ring.getInt(offset + 4) != (int) sequence || metricName == null) {
+                torn++;
+                continue;
+            }
+            visitor.sample(metricName, ring.getLong(offset + 8), ring.getDouble(offset + 16));
+            visited++;
+        }
+        if (torn > 0) {
+            logger.warn("Skipped " + torn + " incomplete spool records");
+        }
+        return visited;
+    }
+
+    private static boolean isValid(File file, int capacity) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            return in.readInt() == MAGIC && in.readInt() == VERSION && in.readInt() == capacity && in.readInt() == RECORD_SIZE;
+        } catch (EOFException e) {
+            return false;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the names file into the names by id
+     *
+     * @return the length of the complete entries of the file
+     */
+    private static long loadNames(File file, Map<Integer, String> spoolNames) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        long valid = 0;
+        try {
+            while (true) {
+                int id = in.readInt();
+                String metricName = in.readUTF();
+                if (id < 0 || spoolNames.put(id, metricName) != null) {
+                    throw new IOException("Corrupt spool names file " + file + " at metric " + metricName);
+                }
+                valid += 4 + 2 + utfLength(metricName);
+            }
+        } catch (EOFException e) {
+            // a complete file, or a torn last entry
+        } finally {
+            in.close();
+        }
+        return valid;
+    }
+
+    private static int utfLength(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                length++;
+            } else if (c > 0x07FF) {
+                length += 3;
+            } else {
+                length += 2;
+            }
+        }
+        return length;
+    }
+}
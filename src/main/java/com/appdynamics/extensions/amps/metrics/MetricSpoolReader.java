@@ -0,0 +1,121 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps.metrics;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.regex.Pattern;
+
+/**
+ * Prints the samples of a {@link MetricSpool} for post-incident analysis, without modifying the spool.
+ * Run it with the extension jar on the class path:
+ * <pre>
+ * java -cp amps-monitoring-extension.jar com.appdynamics.extensions.amps.metrics.MetricSpoolReader \
+ *     [--summary] &lt;spool directory&gt; [metric regex]
+ * </pre>
+ * Every sample is printed as a tab separated line of UTC time, metric name and value. With
+ * <code>--summary</code> one line per metric is printed instead: number of samples, first and last
+ * time, min, max and average.
+ */
+public class MetricSpoolReader implements MetricSpool.Visitor {
+
+    private final Pattern metricPattern;
+    private final PrintWriter out;
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+    private final Map<String, Summary> summaries;
+
+    private static class Summary {
+        long count;
+        long first;
+        long last;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum;
+    }
+
+    /**
+     * @param metricPattern - only the metrics matching it are printed, null for all
+     * @param summary       - true to print one line per metric instead of every sample
+     */
+    public MetricSpoolReader(Pattern metricPattern, boolean summary, PrintWriter out) {
+        this.metricPattern = metricPattern;
+        this.out = out;
+        this.summaries = summary ? new LinkedHashMap<String, Summary>() : null;
+        timeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    public void sample(String metricName, long timestamp, double value) {
+        if (metricPattern != null && !metricPattern.matcher(metricName).matches()) {
+            return;
+        }
+        if (summaries == null) {
+            out.print(timeFormat.format(new Date(timestamp)));
+            out.print('\t');
+            out.print(metricName);
+            out.print('\t');
+            out.println(value);
+            return;
+        }
+        Summary summary = summaries.get(metricName);
+        if (summary == null) {
+            summary = new Summary();
+            summary.first = timestamp;
+            summaries.put(metricName, summary);
+        }
+        summary.count++;
+        summary.last = timestamp;
+        summary.min = Math.min(summary.min, value);
+        summary.max = Math.max(summary.max, value);
+        summary.sum += value;
+    }
+
+    /**
+     * Prints the summaries, if they were requested, and flushes the output
+     */
+    public void finish() {
+        if (summaries != null) {
+            out.println("metric\tsamples\tfirst\tlast\tmin\tmax\tavg");
+            for (Map.Entry<String, Summary> entry : summaries.entrySet()) {
+                Summary summary = entry.getValue();
+                out.println(entry.getKey() + '\t' + summary.count + '\t' + timeFormat.format(new Date(summary.first)) + '\t'
+                        + timeFormat.format(new Date(summary.last)) + '\t' + summary.min + '\t' + summary.max + '\t'
+                        + summary.sum / summary.count);
+            }
+        }
+        out.flush();
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean summary = false;
+        int next = 0;
+        if (args.length > 0 && "--summary".equals(args[0])) {
+            summary = true;
+            next++;
+        }
+        if (args.length - next < 1 || args.length - next > 2) {
+            System.err.println("Usage: MetricSpoolReader [--summary] <spool directory> [metric regex]");
+            System.exit(2);
+        }
+        File directory = new File(args[next]);
+        Pattern metricPattern = args.length - next == 2 ? Pattern.compile(args[next + 1]) : null;
+
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out, "UTF-8")));
+        MetricSpoolReader reader = new MetricSpoolReader(metricPattern, summary, out);
+        int records = MetricSpool.read(directory, reader);
+        reader.finish();
+        System.err.println(records + " records in " + directory);
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps.metrics;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the cost of the extension itself so a slow poll can be attributed to the AMPS servers, the
+ * parsing or the writes to the controller. Every server gets its own phase timings, the filter/emit
+ * phase and the cycle as a whole are measured once per cycle. Recording is lock free and allocation
+ * free; {@link #report()} turns everything recorded since the previous report into metrics under
+ * <code>Monitor|...</code>, times in microseconds.
+ */
+public class MonitorStats {
+
+    public static final String MONITOR_PREFIX = "Monitor|";
+
+    private static final double NANOS_PER_MICRO = TimeUnit.MICROSECONDS.toNanos(1);
+
+    /**
+     * Cost of polling one server
+     */
+    public static class ServerStats {
+        /**
+         * From sending the request until the response headers arrived: connect, TLS and first byte
+         */
+        final Histogram firstByte = new Histogram();
+        /**
+         * Time blocked reading the response body
+         */
+        final Histogram transfer = new Histogram();
+        /**
+         * Time spent inflating compressed bodies
+         */
+        final Histogram decompress = new Histogram();
+        /**
+         * Time spent tokenizing the body and extracting the metrics, excluding the reads
+         */
+        final Histogram extract = new Histogram();
+        final AtomicLong responseBytes = new AtomicLong();
+        final AtomicLong decompressedBytes = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong unchanged = new AtomicLong();
+        final AtomicLong timeouts = new AtomicLong();
+        final AtomicLong skippedPolls = new AtomicLong();
+        final AtomicLong overflows = new AtomicLong();
+        // admitted metric paths, negative while the paths of the server are not capped
+        final AtomicInteger metricPaths = new AtomicInteger(-1);
+
+        public void recordFirstByte(long nanos) {
+            firstByte.record(nanos);
+        }
+
+        public void recordTransfer(long nanos, long bytes) {
+            transfer.record(nanos);
+            responseBytes.addAndGet(bytes);
+        }
+
+        public void recordDecompress(long nanos, long bytes) {
+            decompress.record(nanos);
+            decompressedBytes.addAndGet(bytes);
+        }
+
+        public void recordExtract(long nanos) {
+            extract.record(nanos);
+        }
+
+        public void recordError() {
+            errors.incrementAndGet();
+        }
+
+        /**
+         * A response that was not modified, or hashed the same, and was not parsed again
+         */
+        public void recordUnchanged() {
+            unchanged.incrementAndGet();
+        }
+
+        /**
+         * A request that was cancelled because it did not complete before the deadline
+         */
+        public void recordTimeout() {
+            timeouts.incrementAndGet();
+        }
+
+        /**
+         * A poll that was skipped because the previous poll of the server was still running
+         */
+        public void recordSkippedPoll() {
+            skippedPolls.incrementAndGet();
+        }
+
+        /**
+         * A sample of a new metric path that was dropped because the server reached its cap
+         */
+        public void recordOverflow() {
+            overflows.incrementAndGet();
+        }
+
+        /**
+         * @param paths - the number of metric paths of the server that are reported
+         */
+        public void recordMetricPaths(int paths) {
+            metricPaths.set(paths);
+        }
+    }
+
+    private final ConcurrentMap<String, ServerStats> servers = new ConcurrentHashMap<String, ServerStats>();
+    private final Histogram cycle = new Histogram();
+    private final Histogram filter = new Histogram();
+    private final Histogram emit = new Histogram();
+    private final AtomicLong emitted = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong overruns = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+
+    public ServerStats forServer(String displayName) {
+        ServerStats stats = servers.get(displayName);
+        if (stats == null) {
+            ServerStats newStats = new ServerStats();
+            stats = servers.putIfAbsent(displayName, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * @param filterNanos - part of emitNanos spent deciding whether new metrics are reported
+     * @param emitNanos   - time spent handing the metrics to the writers
+     */
+    public void recordEmit(long filterNanos, long emitNanos, int emittedMetrics, int droppedMetrics) {
+        filter.record(filterNanos);
+        emit.record(emitNanos - filterNanos);
+        emitted.addAndGet(emittedMetrics);
+        dropped.addAndGet(droppedMetrics);
+    }
+
+    /**
+     * @param overrun - true if the cycle took longer than the execution frequency of the task
+     */
+    public void recordCycle(long nanos, boolean overrun) {
+        cycle.record(nanos);
+        if (overrun) {
+            overruns.incrementAndGet();
+        }
+    }
+
+    /**
+     * An execution that was skipped because the previous one was still running
+     */
+    public void recordSkippedCycle() {
+        skipped.incrementAndGet();
+    }
+
+    /**
+     * @return the metrics recorded since the previous report, relative to the metric prefix. Histograms
+     * that did not record anything are left out.
+     */
+    public Map<String, Double> report() {
+        Map<String, Double> metrics = new LinkedHashMap<String, Double>();
+        putTimes(metrics, MONITOR_PREFIX + "cycle", cycle);
+        putTimes(metrics, MONITOR_PREFIX + "filter", filter);
+        putTimes(metrics, MONITOR_PREFIX + "emit", emit);
+        metrics.put(MONITOR_PREFIX + "metrics_emitted", (double) emitted.getAndSet(0));
+        metrics.put(MONITOR_PREFIX + "metrics_dropped", (double) dropped.getAndSet(0));
+        metrics.put(MONITOR_PREFIX + "cycle_overruns", (double) overruns.getAndSet(0));
+        metrics.put(MONITOR_PREFIX + "cycles_skipped", (double) skipped.getAndSet(0));
+        for (Map.Entry<String, ServerStats> entry : servers.entrySet()) {
+            String prefix = MONITOR_PREFIX + "Servers|" + entry.getKey() + "|";
+            ServerStats stats = entry.getValue();
+            putTimes(metrics, prefix + "first_byte", stats.firstByte);
+            putTimes(metrics, prefix + "transfer", stats.transfer);
+            putTimes(metrics, prefix + "decompress", stats.decompress);
+            putTimes(metrics, prefix + "extract", stats.extract);
+            metrics.put(prefix + "response_bytes", (double) stats.responseBytes.getAndSet(0));
+            metrics.put(prefix + "decompressed_bytes", (double) stats.decompressedBytes.getAndSet(0));
+            metrics.put(prefix + "errors", (double) stats.errors.getAndSet(0));
+            metrics.put(prefix + "unchanged_responses", (double) stats.unchanged.getAndSet(0));
+            metrics.put(prefix + "timeouts", (double) stats.timeouts.getAndSet(0));
+            metrics.put(prefix + "polls_skipped", (double) stats.skippedPolls.getAndSet(0));
+            int paths = stats.metricPaths.get();
+            if (paths >= 0) {
+                metrics.put(prefix + "metric_paths", (double) paths);
+                metrics.put(prefix + "metric_paths_overflow", (double) stats.overflows.getAndSet(0));
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Forgets the servers that are no longer configured
+     */
+    public void retainServers(Collection<String> displayNames) {
+        servers.keySet().retainAll(displayNames);
+    }
+
+    private static void putTimes(Map<String, Double> metrics, String name, Histogram histogram) {
+        Histogram.Snapshot snapshot = histogram.snapshotAndReset();
+        if (snapshot.getCount() == 0) {
+            return;
+        }
+        metrics.put(name + "|count", (double) snapshot.getCount());
+        metrics.put(name + "|avg_us", snapshot.getMean() / NANOS_PER_MICRO);
+        metrics.put(name + "|p95_us", snapshot.getPercentile(95) / NANOS_PER_MICRO);
+        metrics.put(name + "|max_us", snapshot.getMax() / NANOS_PER_MICRO);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps.metrics;
+
+import java.util.Arrays;
+
+/**
+ * Turns monotonic counters (messages received, bytes in, ...) into per second rates. The values are sent
+ * to the controller as longs, a multiplier keeps the precision of rates below one per second. The previous
+ * sample of every counter is kept in a {@link CounterStateMap} keyed by the interned metric id. A
+ * counter that went backwards was reset (for example by an AMPS restart); no rate is reported for that
+ * sample and the new value becomes the baseline. The counter decision and the id of the rate metric
+ * are cached per metric id, so converting a frame does not look up names. Not thread safe, every
+ * collection task owns its own converter.
+ */
+public class RateConverter {
+
+    public static final String RATE_SUFFIX = "_per_sec";
+
+    private final MetricFilter counters;
+    private final MetricIds metricIds;
+    private final double multiplier;
+    private final CounterStateMap state = new CounterStateMap();
+    // per metric id: the id of its rate metric, NOT_A_COUNTER, or UNKNOWN
+    private int[] rateIds = new int[0];
+
+    private static final int UNKNOWN = 0;
+    private static final int NOT_A_COUNTER = -1;
+
+    /**
+     * @param counters  - matches the metrics that are counters, null if there are none
+     * @param metricIds - interns the metric names
+     */
+    public RateConverter(MetricFilter counters, MetricIds metricIds) {
+        this(counters, metricIds, 1);
+    }
+
+    /**
+     * @param multiplier - the rates are multiplied by it, e.g. 100 to report a rate of 0.25 per second as 25
+     */
+    public RateConverter(MetricFilter counters, MetricIds metricIds, double multiplier) {
+        this.counters = counters;
+        this.metricIds = metricIds;
+        this.multiplier = multiplier;
+    }
+
+    public boolean isCounter(String metricName) {
+        return counters != null && counters.isEnabled(metricName);
+    }
+
+    /**
+     * @return the id of the &lt;counter&gt;_per_sec metric of the given metric, or -1 if the metric is
+     * not a counter
+     */
+    public int rateIdOf(int id) {
+        if (id >= rateIds.length) {
+            int length = Math.max(256, rateIds.length);
+            while (length <= id) {
+                length *= 2;
+            }
+            rateIds = Arrays.copyOf(rateIds, length);
+        }
+        int rateId = rateIds[id];
+        if (rateId == UNKNOWN) {
+            String metricName = metricIds.nameOf(id);
+            // ids start at 0, stored shifted by one so 0 can mean unknown
+            rateId = isCounter(metricName) ? metricIds.idOf(metricName + RATE_SUFFIX) + 1 : NOT_A_COUNTER;
+            rateIds[id] = rateId;
+        }
+        return rateId == NOT_A_COUNTER ? -1 : rateId - 1;
+    }
+
+    /**
+     * Records the sample of a counter and returns its rate since the previous sample
+     *
+     * @param metricName - name of the counter
+     * @param value      - current value of the counter
+     * @param timestamp  - time the value was sampled, in milliseconds
+     * @return the per second rate times the multiplier, or null for the first sample and after a reset
+     */
+    public Double rate(String metricName, double value, long timestamp) {
+        double rate = rate(metricIds.idOf(metricName), value, timestamp);
+        return Double.isNaN(rate) ? null : rate;
+    }
+
+    /**
+     * Same as {@link #rate(String, double, long)} without boxing
+     *
+     * @param id - id of the counter
+     * @return the per second rate times the multiplier, or NaN for the first sample and after a reset
+     */
+    public double rate(int id, double value, long timestamp) {
+        int index = state.indexOf(id);
+        if (index < 0) {
+            state.put(id, value, timestamp);
+            return Double.NaN;
+        }
+        double previous = state.valueAt(index);
+        long elapsed = timestamp - state.timestampAt(index);
+        if (elapsed <= 0) {
+            return Double.NaN;
+        }
+        state.setAt(index, value, timestamp);
+        if (value < previous) {
+            return Double.NaN;
+        }
+        return (value - previous) * 1000d * multiplier / elapsed;
+    }
+
+    /**
+     * Forgets counters that were not sampled since the given time
+     */
+    public void expire(long timestamp) {
+        state.removeOlderThan(timestamp);
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps.metrics;
+
+import java.util.Arrays;
+
+/**
+ * Collects the samples taken between two controller cycles. Metrics matched by the rollup filter keep
+ * their samples in a preallocated ring per metric and are reported as <code>&lt;metric&gt;_min</code>,
+ * <code>_max</code> and <code>_avg</code> in addition to the last value, so short bursts between
+ * two reports are not lost. All other metrics only report their last value. The rings hold a fixed
+ * number of samples, when a report is late the oldest samples are overwritten. Rings of metrics that
+ * were not sampled during a whole window are reused for new metrics. Metrics are addressed by the ids
+ * of the frames they are sampled from, the rollup decision of every id is cached.
+ */
+public class RollupBuffer {
+
+    public static final String MIN_SUFFIX = "_min";
+    public static final String MAX_SUFFIX = "_max";
+    public static final String AVG_SUFFIX = "_avg";
+
+    private static final int INITIAL_RINGS = 64;
+    private static final int NO_RING = -1;
+    private static final int NOT_ROLLED_UP = -2;
+    private static final int UNKNOWN = 0;
+
+    private final MetricFilter rollupMetrics;
+    private final int capacity;
+    private final MetricIds metricIds;
+
+    private final MetricFrame latest;
+    // per metric id: the ring + 1, UNKNOWN, NO_RING if it lost its ring, NOT_ROLLED_UP if the filter does not match
+    private int[] ringOf = new int[256];
+    private int[] freeRings = new int[INITIAL_RINGS];
+    private int freeCount;
+    private int ringCount;
+    private int ringsInUse;
+    // per ring: the metric id and the ids of its min, max and avg metrics
+    private int[] ringIds;
+    private int[] rollupIds;
+    // samples of ring r are at [r * capacity, (r + 1) * capacity)
+    private double[] samples;
+    private int[] heads;
+    private int[] counts;
+
+    /**
+     * @param rollupMetrics - the metrics to keep all samples of, null for none
+     * @param capacity      - number of samples kept per metric
+     * @param metricIds     - the schema of the frames that are added
+     */
+    public RollupBuffer(MetricFilter rollupMetrics, int capacity, MetricIds metricIds) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.rollupMetrics = rollupMetrics;
+        this.capacity = capacity;
+        this.metricIds = metricIds;
+        this.latest = new MetricFrame(metricIds);
+        this.samples = new double[INITIAL_RINGS * capacity];
+        this.heads = new int[INITIAL_RINGS];
+        this.counts = new int[INITIAL_RINGS];
+        this.ringIds = new int[INITIAL_RINGS];
+        this.rollupIds = new int[INITIAL_RINGS * 3];
+    }
+
+    /**
+     * Adds one sample of every metric of the frame
+     */
+    public synchronized void add(MetricFrame metrics) {
+        latest.putAll(metrics);
+        if (rollupMetrics == null) {
+            return;
+        }
+        for (int i = 0; i < metrics.size(); i++) {
+            int r = ringOf(metrics.idAt(i));
+            if (r < 0) {
+                continue;
+            }
+            samples[r * capacity + heads[r]] = metrics.valueAt(i);
+            heads[r] = (heads[r] + 1) % capacity;
+            if (counts[r] < capacity) {
+                counts[r]++;
+            }
+        }
+    }
+
+    /**
+     * Fills the frame with the last value of every metric sampled since the previous call, plus
+     * min/max/avg of the rolled up metrics, and starts a new window
+     *
+     * @param metrics - cleared and filled, of the same schema as the frames added
+     */
+    public synchronized void rollup(MetricFrame metrics) {
+        metrics.clear();
+        metrics.putAll(latest);
+        latest.clear();
+        for (int r = 0; r < ringCount; r++) {
+            int id = ringIds[r];
+            if (id == NO_RING) {
+                continue;
+            }
+            int count = counts[r];
+            if (count == 0) {
+                // not sampled during the whole window
+                ringOf[id] = NO_RING;
+                ringIds[r] = NO_RING;
+                freeRing(r);
+                continue;
+            }
+            int base = r * capacity;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            double sum = 0;
+            for (int i = 0; i < count; i++) {
+                double value = samples[base + i];
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+                sum += value;
+            }
+            metrics.set(rollupIds[3 * r], min);
+            metrics.set(rollupIds[3 * r + 1], max);
+            metrics.set(rollupIds[3 * r + 2], sum / count);
+            counts[r] = 0;
+            heads[r] = 0;
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    synchronized int ringsInUse() {
+        return ringsInUse;
+    }
+
+    /**
+     * @return the ring of the metric, allocated the first time it is seen, or -1 if it is not rolled up
+     */
+    private int ringOf(int id) {
+        if (id >= ringOf.length) {
+            int length = ringOf.length;
+            while (length <= id) {
+                length *= 2;
+            }
+            ringOf = Arrays.copyOf(ringOf, length);
+        }
+        int ring = ringOf[id];
+        if (ring > 0) {
+            return ring - 1;
+        }
+        if (ring == NOT_ROLLED_UP) {
+            return -1;
+        }
+        String metricName = metricIds.nameOf(id);
+        if (ring == UNKNOWN && !rollupMetrics.isEnabled(metricName)) {
+            ringOf[id] = NOT_ROLLED_UP;
+            return -1;
+        }
+        int r = allocateRing();
+        ringIds[r] = id;
+        rollupIds[3 * r] = metricIds.idOf(metricName + MIN_SUFFIX);
+        rollupIds[3 * r + 1] = metricIds.idOf(metricName + MAX_SUFFIX);
+        rollupIds[3 * r + 2] = metricIds.idOf(metricName + AVG_SUFFIX);
+        ringOf[id] = r + 1;
+        return r;
+    }
+
+    private int allocateRing() {
+        ringsInUse++;
+        if (freeCount > 0) {
+            return freeRings[--freeCount];
+        }
+        if (ringCount == heads.length) {
+            int newRings = heads.length * 2;
+            samples = Arrays.copyOf(samples, newRings * capacity);
+            heads = Arrays.copyOf(heads, newRings);
+            counts = Arrays.copyOf(counts, newRings);
+            ringIds = Arrays.copyOf(ringIds, newRings);
+            rollupIds = Arrays.copyOf(rollupIds, newRings * 3);
+        }
+        return ringCount++;
+    }
+
+    private void freeRing(int r) {
+        ringsInUse--;
+        if (freeCount == freeRings.length) {
+            freeRings = Arrays.copyOf(freeRings, freeCount * 2);
+        }
+        freeRings[freeCount++] = r;
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps.metrics;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Selects the K elements with the highest value of each ranking field while the elements are streamed
+ * by, e.g. the slowest consumers out of thousands of clients. Every ranking keeps a min-heap of its K
+ * best elements, so an element only has to be compared with the heap's minimum and only elements that
+ * make it into a heap are retained. The fields of all other elements are summed up, memory and the
+ * number of reported metrics are O(K) regardless of the number of elements.
+ * <p>
+ * The selected elements are reported by rank as <code>Top|&lt;ranking field&gt;|&lt;rank&gt;|&lt;field&gt;</code>,
+ * rank 1 being the highest, all other elements as <code>Others|&lt;field&gt;</code> and all elements as
+ * <code>Total|&lt;field&gt;</code>, plus the number of elements in <code>Others|count</code> and
+ * <code>Total|count</code>. The keys of the selected elements are logged at debug level; they are not
+ * part of the metric paths, so the paths stay the same however the elements come and go and their ids
+ * are looked up once. Instances are reused for every document and are not thread safe.
+ */
+public class TopNSelector {
+
+    private static final Logger logger = Logger.getLogger(TopNSelector.class);
+
+    public static final String TOP = "Top";
+    public static final String OTHERS = "Others";
+    public static final String TOTAL = "Total";
+    public static final String COUNT = "count";
+
+    private static final String SEPARATOR = "|";
+
+    private static class Candidate {
+        final String key;
+        final String[] names;
+        final double[] values;
+        final double[] ranks;
+
+        Candidate(String key, List<String> names, double[] values, double[] ranks) {
+            this.key = key;
+            this.names = names.toArray(new String[names.size()]);
+            this.values = Arrays.copyOf(values, names.size());
+            this.ranks = ranks.clone();
+        }
+    }
+
+    private final int k;
+    private final String[] rankBy;
+    private final List<PriorityQueue<Candidate>> heaps = new ArrayList<PriorityQueue<Candidate>>();
+    private final Map<String, double[]> totals = new LinkedHashMap<String, double[]>();
+    private final double[] ranks;
+    private final boolean[] ranked;
+    private int count;
+    // the metric ids of every field: Total, Others, then the rank slots of every ranking
+    private final Map<String, int[]> fieldIds = new HashMap<String, int[]>();
+    // the prefix and the schema the ids were taken for
+    private String idsPrefix;
+    private MetricIds idsSchema;
+    private Candidate[] ranking;
+
+    private static final int TOTAL_SLOT = 0;
+    private static final int OTHERS_SLOT = 1;
+    private static final int RANK_SLOTS = 2;
+
+    /**
+     * @param k      - number of elements selected per ranking field
+     * @param rankBy - the numeric fields to rank the elements by, highest first
+     */
+    public TopNSelector(int k, List<String> rankBy) {
+        if (k < 1) {
+            throw new IllegalArgumentException("K must be positive: " + k);
+        }
+        this.k = k;
+        this.rankBy = rankBy.toArray(new String[rankBy.size()]);
+        this.ranks = new double[this.rankBy.length];
+        this.ranked = new boolean[this.rankBy.length];
+        this.ranking = new Candidate[k];
+        for (int r = 0; r < this.rankBy.length; r++) {
+            final int ranking = r;
+            heaps.add(new PriorityQueue<Candidate>(k + 1, new Comparator<Candidate>() {
+                public int compare(Candidate c1, Candidate c2) {
+                    return Double.compare(c1.ranks[ranking], c2.ranks[ranking]);
+                }
+            }));
+        }
+    }
+
+    /**
+     * @return an empty selector with the same K and ranking fields
+     */
+    public TopNSelector copy() {
+        return new TopNSelector(k, Arrays.asList(rankBy));
+    }
+
+    /**
+     * Offers one element. The fields are copied only if the element makes it into one of the rankings.
+     *
+     * @param key    - the name the element is reported under
+     * @param names  - names of the numeric fields of the element
+     * @param values - values of the numeric fields, same order as the names, may be longer than the names
+     */
+    public void offer(String key, List<String> names, double[] values) {
+        count++;
+        for (int i = 0; i < names.size(); i++) {
+            double[] total = totals.get(names.get(i));
+            if (total == null) {
+                // the sum over all elements and over the selected ones
+                total = new double[2];
+                totals.put(names.get(i), total);
+            }
+            total[0] += values[i];
+        }
+
+        boolean competes = false;
+        for (int r = 0; r < rankBy.length; r++) {
+            int index = names.indexOf(rankBy[r]);
+            ranked[r] = index >= 0;
+            ranks[r] = ranked[r] ? values[index] : Double.NEGATIVE_INFINITY;
+            PriorityQueue<Candidate> heap = heaps.get(r);
+            competes |= ranked[r] && (heap.size() < k || ranks[r] > heap.peek().ranks[r]);
+        }
+        if (!competes) {
+            return;
+        }
+
+        Candidate candidate = new Candidate(key, names, values, ranks);
+        for (int r = 0; r < rankBy.length; r++) {
+            PriorityQueue<Candidate> heap = heaps.get(r);
+            if (!ranked[r]) {
+                continue;
+            }
+            if (heap.size() < k) {
+                heap.add(candidate);
+            } else if (ranks[r] > heap.peek().ranks[r]) {
+                heap.poll();
+                heap.add(candidate);
+            }
+        }
+    }
+
+    /**
+     * Adds the selection to the metrics and starts over for the next document
+     *
+     * @param prefix - prefix of the metric names, e.g. AMPS 1|instance|clients|
+     */
+    public void report(String prefix, MetricFrame metrics) {
+        if (!prefix.equals(idsPrefix) || metrics.getMetricIds() != idsSchema) {
+            fieldIds.clear();
+            idsPrefix = prefix;
+            idsSchema = metrics.getMetricIds();
+        }
+        Set<Candidate> selected = Collections.newSetFromMap(new IdentityHashMap<Candidate, Boolean>());
+        for (int r = 0; r < rankBy.length; r++) {
+            PriorityQueue<Candidate> heap = heaps.get(r);
+            selected.addAll(heap);
+            // the heap yields the lowest first
+            int ranks = heap.size();
+            for (int n = ranks - 1; n >= 0; n--) {
+                ranking[n] = heap.poll();
+            }
+            for (int n = 0; n < ranks; n++) {
+                Candidate candidate = ranking[n];
+                for (int i = 0; i < candidate.names.length; i++) {
+                    metrics.set(idOf(candidate.names[i], RANK_SLOTS + r * k + n), candidate.values[i]);
+                }
+            }
+            if (logger.isDebugEnabled() && ranks > 0) {
+                StringBuilder keys = new StringBuilder();
+                for (int n = 0; n < ranks; n++) {
+                    keys.append(n == 0 ? "" : ", ").append(n + 1).append('=').append(ranking[n].key);
+                }
+                logger.debug(prefix + TOP + SEPARATOR + rankBy[r] + ": " + keys);
+            }
+            Arrays.fill(ranking, null);
+        }
+
+        for (Candidate candidate : selected) {
+            for (int i = 0; i < candidate.names.length; i++) {
+                totals.get(candidate.names[i])[1] += candidate.values[i];
+            }
+        }
+        for (Entry<String, double[]> total : totals.entrySet()) {
+            double[] sums = total.getValue();
+            metrics.set(idOf(total.getKey(), TOTAL_SLOT), sums[0]);
+            metrics.set(idOf(total.getKey(), OTHERS_SLOT), sums[0] - sums[1]);
+        }
+        metrics.set(idOf(COUNT, TOTAL_SLOT), (double) count);
+        metrics.set(idOf(COUNT, OTHERS_SLOT), (double) (count - selected.size()));
+
+        totals.clear();
+        count = 0;
+    }
+
+    /**
+     * @param slot - TOTAL_SLOT, OTHERS_SLOT, or the rank slot of a ranking
+     * @return the metric id of the field in the slot, the name is only built the first time
+     */
+    private int idOf(String field, int slot) {
+        int[] ids = fieldIds.get(field);
+        if (ids == null) {
+            ids = new int[RANK_SLOTS + rankBy.length * k];
+            fieldIds.put(field, ids);
+        }
+        // ids start at 0, stored shifted by one so 0 can mean unknown
+        if (ids[slot] == 0) {
+            String name;
+            if (slot == TOTAL_SLOT) {
+                name = idsPrefix + TOTAL + SEPARATOR + field;
+            } else if (slot == OTHERS_SLOT) {
+                name = idsPrefix + OTHERS + SEPARATOR + field;
+            } else {
+                int r = (slot - RANK_SLOTS) / k;
+                int n = (slot - RANK_SLOTS) % k;
+                name = idsPrefix + TOP + SEPARATOR + rankBy[r] + SEPARATOR + (n + 1) + SEPARATOR + field;
+            }
+            ids[slot] = idsSchema.idOf(name) + 1;
+        }
+        return ids[slot] - 1;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.amps;
+
+import com.appdynamics.extensions.amps.config.Server;
+import com.appdynamics.extensions.amps.metrics.MetricFrame;
+import com.appdynamics.extensions.amps.metrics.MetricIds;
+import com.appdynamics.extensions.http.SimpleHttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AMPSBackfillTest {
+
+    // 2018-02-13T12:00:00Z
+    private static final long T0 = 1518523200000L;
+    private static final long MINUTE = 60000L;
+
+    private final MetricIds metricIds = new MetricIds();
+    private FakeAMPSServer ampsServer;
+    private SimpleHttpClient httpClient;
+
+    @Before
+    public void setUp() throws IOException {
+        ampsServer = new FakeAMPSServer("{\"amps\":{\"host\":{\"cpus\":[{\"id\":\"all\",\"idle_percent\":["
+                + "{\"timestamp\":\"20180213T120100\",\"value\":91},{\"timestamp\":\"20180213T120200\",\"value\":92},"
+                + "{\"timestamp\":\"20180213T120300\",\"value\":93},{\"timestamp\":\"20180213T120400\",\"value\":94}]},"
+                + "{\"id\":\"cpu0\",\"idle_percent\":[{\"timestamp\":\"20180213T120100\",\"value\":50}]}],"
+                + "\"memory\":{\"total\":8192,\"free\":[[\"20180213T120100\",1000],[\"20180213T120300.500\",3000]]}},"
+                + "\"instance\":{\"clients\":[{\"client_name\":\"c1\",\"queue_depth\":[[\"20180213T120100\",5]]}]}}}").start();
+        Server server = new Server();
+        server.setDisplayName("AMPS 1");
+        server.setHost("127.0.0.1");
+        server.setPort(ampsServer.getPort());
+        server.setUsername("");
+        server.setPassword("");
+        httpClient = SimpleHttpClient.builder(AMPSMonitorTask.buildArgs(server)).build();
+    }
+
+    @After
+    public void tearDown() {
+        httpClient.close();
+        ampsServer.stop();
+    }
+
+    @Test
+    public void parsesTheTimestampsOfTheAdminAPI() {
+        assertEquals(T0, AMPSBackfill.parseTimestamp("20180213T120000"));
+        assertEquals(T0 + 500, AMPSBackfill.parseTimestamp("20180213T120000.5"));
+        assertEquals(T0 + 123, AMPSBackfill.parseTimestamp("20180213T120000.123456Z"));
+        assertEquals(T0, AMPSBackfill.parseTimestamp("1518523200"));
+        assertEquals(-1, AMPSBackfill.parseTimestamp("20181313T120000"));
+        assertEquals(-1, AMPSBackfill.parseTimestamp("yesterday"));
+        assertEquals("20180213T120000", AMPSBackfill.format(T0));
+    }
+
+    @Test
+    public void onlyBackfillsAfterAGap() {
+        AMPSBackfill backfill = newBackfill(2 * MINUTE);
+        backfill.recordSuccess(T0);
+        backfill.recordSuccess(T0 + MINUTE);
+        assertFalse(backfill.hasPending());
+        backfill.recordSuccess(T0 + 5 * MINUTE);
+        assertTrue(backfill.hasPending());
+        assertEquals(T0 + 5 * MINUTE, backfill.getLastSuccess());
+    }
+
+    @Test
+    public void streamsTheGapPageByPage() {
+        AMPSBackfill backfill = newBackfill(2 * MINUTE);
+        backfill.setLastSuccess(T0);
+        backfill.recordSuccess(T0 + 5 * MINUTE);
+
+        final List<Long> timestamps = new ArrayList<Long>();
+        final List<Map<String, Double>> batches = new ArrayList<Map<String, Double>>();
+        int pages = backfill.backfill(new AMPSBackfill.BatchListener() {
+            public void batch(long timestamp, MetricFrame metrics) {
+                timestamps.add(timestamp);
+                batches.add(metrics.toMap());
+            }
+        }, 10, System.nanoTime() + TimeUnit.MINUTES.toNanos(1));
+
+        // every page requests the whole document, only the samples of the page are reported
+        assertEquals(3, pages);
+        assertEquals(3, ampsServer.getRequestCount());
+        assertEquals("t0=20180213T120401&t1=20180213T120500", ampsServer.getLastQuery());
+        assertEquals(Arrays.asList(T0 + MINUTE, T0 + 2 * MINUTE, T0 + 3 * MINUTE, T0 + 3 * MINUTE + 500, T0 + 4 * MINUTE),
+                timestamps);
+        Map<String, Double> first = batches.get(0);
+        assertEquals(91, first.get("AMPS 1|host|cpus|idle_percent"), 0);
+        assertEquals(1000, first.get("AMPS 1|host|memory|free"), 0);
+        // plain values are not samples and ranked sections are not backfilled
+        assertEquals(2, first.size());
+        assertEquals(3000, batches.get(3).get("AMPS 1|host|memory|free"), 0);
+        assertFalse(backfill.hasPending());
+    }
+
+    @Test
+    public void givesUpTheGapWhenTheServerHasNoHistory() {
+        ampsServer.setFault(FakeAMPSServer.Fault.SERVER_ERROR);
+        AMPSBackfill backfill = newBackfill(2 * MINUTE);
+        backfill.setLastSuccess(T0);
+        backfill.recordSuccess(T0 + 5 * MINUTE);
+
+        assertEquals(1, backfill.backfill(new AMPSBackfill.BatchListener() {
+            public void batch(long timestamp, MetricFrame metrics) {
+                throw new AssertionError();
+            }
+        }, 10, System.nanoTime() + TimeUnit.MINUTES.toNanos(1)));
+        assertEquals(1, ampsServer.getRequestCount());
+        assertFalse(backfill.hasPending());
+    }
+
+    @Test
+    public void resumesTheGapWithTheNextBudget() {
+        AMPSBackfill backfill = newBackfill(2 * MINUTE);
+        backfill.setLastSuccess(T0);
+        backfill.recordSuccess(T0 + 5 * MINUTE);
+        final List<Long> timestamps = new ArrayList<Long>();
+        AMPSBackfill.BatchListener listener = new AMPSBackfill.BatchListener() {
+            public void batch(long timestamp, MetricFrame metrics) {
+                timestamps.add(timestamp);
+            }
+        };
+
+        // past the deadline nothing is fetched
+        assertEquals(0, backfill.backfill(listener, 10, System.nanoTime() - 1));
+        assertEquals(1, backfill.backfill(listener, 1, System.nanoTime() + TimeUnit.MINUTES.toNanos(1)));
+        assertEquals(1, ampsServer.getRequestCount());
+        assertTrue(backfill.hasPending());
+        assertEquals(2, backfill.backfill(listener, 10, System.nanoTime() + TimeUnit.MINUTES.toNanos(1)));
+        assertEquals(3, ampsServer.getRequestCount());
+        assertEquals(5, timestamps.size());
+        assertFalse(backfill.hasPending());
+    }
+
+    private AMPSBackfill newBackfill(long pageMillis) {
+        AMPSJsonExtractor extractor = new AMPSJsonExtractor(ExtractionPlan.DEFAULT, (String) null, null, metricIds, "AMPS 1|");
+        return new AMPSBackfill("AMPS 1", httpClient, Collections.singletonList(extractor), 2 * MINUTE, 60 * MINUTE, pageMillis);
+    }
+}
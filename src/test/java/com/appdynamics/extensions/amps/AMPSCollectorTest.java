@@ -0,0 +1,199 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.amps;
+
+import com.appdynamics.extensions.amps.config.Configuration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AMPSCollectorTest {
+
+    private File configFile;
+    private AMPSCollector collector;
+
+    @Before
+    public void setUp() throws IOException {
+        configFile = File.createTempFile("amps-config", ".yml");
+        write(configFile, read(new File("src/test/resources/conf/config.yml")));
+        collector = new AMPSCollector(configFile.getPath());
+    }
+
+    @After
+    public void tearDown() {
+        collector.close();
+        configFile.delete();
+    }
+
+    @Test
+    public void reloadsOnlyWhenContentChanges() throws IOException {
+        assertTrue(collector.reloadIfChanged());
+        Configuration config = collector.getConfiguration();
+        assertEquals(1, config.getServers().size());
+
+        assertFalse(collector.reloadIfChanged());
+
+        // touched but identical content keeps the current configuration
+        configFile.setLastModified(configFile.lastModified() + 5000);
+        assertFalse(collector.reloadIfChanged());
+        assertSame(config, collector.getConfiguration());
+
+        write(configFile, read(configFile).replace("numberOfThreads: 5", "numberOfThreads: 2"));
+        configFile.setLastModified(configFile.lastModified() + 10000);
+        assertTrue(collector.reloadIfChanged());
+        assertNotSame(config, collector.getConfiguration());
+        assertEquals(2, collector.getConfiguration().getNumberOfThreads());
+    }
+
+    @Test
+    public void keepsPollingWhenAReloadFails() throws Exception {
+        FakeAMPSServer ampsServer = new FakeAMPSServer(AMPSWrapperTest.resource("/json/amps.json")).start();
+        File file = FakeAMPSServer.writeConfig(Collections.singletonList(ampsServer), "");
+        AMPSCollector reloaded = new AMPSCollector(file.getPath());
+        try {
+            reloaded.reloadIfChanged();
+            Configuration config = reloaded.getConfiguration();
+
+            write(file, read(file) + "httpEngine: \"bogus\"\n");
+            file.setLastModified(file.lastModified() + 10000);
+            assertFalse(reloaded.reloadIfChanged());
+            assertSame(config, reloaded.getConfiguration());
+            assertTrue(reloaded.collect().toMap().containsKey("AMPS 1|host|memory|total"));
+        } finally {
+            reloaded.close();
+            ampsServer.stop();
+        }
+    }
+
+    @Test
+    public void keepsPollingWhenTheConfigFileIsBroken() throws Exception {
+        FakeAMPSServer ampsServer = new FakeAMPSServer(AMPSWrapperTest.resource("/json/amps.json")).start();
+        File file = FakeAMPSServer.writeConfig(Collections.singletonList(ampsServer), "");
+        AMPSCollector reloaded = new AMPSCollector(file.getPath());
+        try {
+            reloaded.reloadIfChanged();
+            Configuration config = reloaded.getConfiguration();
+
+            write(file, read(file) + "servers: [ broken\n");
+            file.setLastModified(file.lastModified() + 10000);
+            assertFalse(reloaded.reloadIfChanged());
+            // not parsed again until it changes
+            assertFalse(reloaded.reloadIfChanged());
+            assertSame(config, reloaded.getConfiguration());
+            assertTrue(reloaded.collect().toMap().containsKey("AMPS 1|host|memory|total"));
+        } finally {
+            reloaded.close();
+            ampsServer.stop();
+        }
+    }
+
+    @Test
+    public void samplerRollsUpBetweenCollects() throws Exception {
+        FakeAMPSServer ampsServer = new FakeAMPSServer(AMPSWrapperTest.resource("/json/amps.json")).start();
+        AMPSCollector sampling = new AMPSCollector(FakeAMPSServer.writeConfig(Collections.singletonList(ampsServer),
+                "samplingIntervalSeconds: 1\nrollupMetrics: [\".*\\\\|host\\\\|cpus\\\\|.*\"]").getPath());
+        try {
+            sampling.reloadIfChanged();
+            Thread.sleep(2500);
+            Map<String, Double> metrics = sampling.collect().toMap();
+
+            assertTrue(ampsServer.getRequestCount() >= 2);
+            assertTrue(metrics.containsKey("AMPS 1|host|cpus|idle_percent_max"));
+            assertFalse(metrics.containsKey("AMPS 1|host|memory|total_max"));
+            assertTrue(metrics.containsKey("AMPS 1|host|memory|total"));
+        } finally {
+            sampling.close();
+            ampsServer.stop();
+        }
+    }
+
+    @Test
+    public void pollsTheSectionsTheSamplerMissed() throws Exception {
+        FakeAMPSServer ampsServer = new FakeAMPSServer(AMPSWrapperTest.resource("/json/amps.json")).start();
+        AMPSCollector sampling = new AMPSCollector(FakeAMPSServer.writeConfig(Collections.singletonList(ampsServer),
+                "sections: [\"host/cpus\", \"host/memory\"]\nsectionIntervals:\n  \"host/cpus\": 60").getPath());
+        try {
+            sampling.reloadIfChanged();
+            Thread.sleep(500);
+            assertTrue(sampling.collect().toMap().containsKey("AMPS 1|host|memory|total"));
+            int requests = ampsServer.getRequestCount();
+
+            // the next tick of the sampler is a minute away
+            assertTrue(sampling.collect().toMap().containsKey("AMPS 1|host|memory|total"));
+            assertEquals(requests + 1, ampsServer.getRequestCount());
+        } finally {
+            sampling.close();
+            ampsServer.stop();
+        }
+    }
+
+    @Test
+    public void returnsWhatCompletedBeforeTheDeadline() throws Exception {
+        FakeAMPSServer healthy = new FakeAMPSServer(AMPSWrapperTest.resource("/json/amps.json")).start();
+        FakeAMPSServer hung = new FakeAMPSServer(AMPSWrapperTest.resource("/json/amps.json")).start();
+        hung.setLatencyMillis(5000);
+        AMPSCollector deadlined = new AMPSCollector(FakeAMPSServer.writeConfig(Arrays.asList(healthy, hung),
+                "cycleDeadlineSeconds: 1").getPath());
+        try {
+            deadlined.reloadIfChanged();
+            long start = System.currentTimeMillis();
+            Map<String, Double> metrics = deadlined.collect().toMap();
+
+            assertTrue(System.currentTimeMillis() - start < 3000);
+            assertTrue(metrics.containsKey("AMPS 1|host|memory|total"));
+            assertFalse(metrics.containsKey("AMPS 2|host|memory|total"));
+            assertEquals(1, deadlined.getMonitorStats().report().get("Monitor|Servers|AMPS 2|timeouts"), 0);
+        } finally {
+            deadlined.close();
+            healthy.stop();
+            hung.stop();
+        }
+    }
+
+    private String read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    private void write(File file, String content) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.amps;
+
+import java.util.Random;
+
+/**
+ * Generates synthetic <code>/amps.json</code> documents for benchmarks and load tests. The shape follows
+ * the AMPS admin API: host cpus/memory/network and instance cpu/caches/queries/processors, plus a
+ * client list with subscriptions that the extension skips. Values are pseudo random but deterministic
+ * for a given seed.
+ */
+public class AMPSDocumentGenerator {
+
+    private final int cpus;
+    private final int interfaces;
+    private final int caches;
+    private final int processors;
+    private final int clients;
+    private final Random random;
+
+    public AMPSDocumentGenerator(int cpus, int interfaces, int caches, int processors, int clients, long seed) {
+        this.cpus = cpus;
+        this.interfaces = interfaces;
+        this.caches = caches;
+        this.processors = processors;
+        this.clients = clients;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * One small host: 4 cpus, 2 interfaces, 5 caches, 4 processors and 10 clients
+     */
+    public static AMPSDocumentGenerator small() {
+        return new AMPSDocumentGenerator(4, 2, 5, 4, 10, 1);
+    }
+
+    /**
+     * A busy instance: 64 cpus, 100 interfaces, 50 caches, 64 processors and 1000 clients
+     */
+    public static AMPSDocumentGenerator large() {
+        return new AMPSDocumentGenerator(64, 100, 50, 64, 1000, 1);
+    }
+
+    /**
+     * The worst case we plan for: 256 cpus, 1000 interfaces, 500 caches, 256 processors and 10000 clients
+     */
+    public static AMPSDocumentGenerator huge() {
+        return new AMPSDocumentGenerator(256, 1000, 500, 256, 10000, 1);
+    }
+
+    public static AMPSDocumentGenerator named(String size) {
+        if ("small".equals(size)) {
+            return small();
+        } else if ("large".equals(size)) {
+            return large();
+        } else if ("huge".equals(size)) {
+            return huge();
+        }
+        throw new IllegalArgumentException("Unknown document size " + size);
+    }
+
+    public String generate() {
+        StringBuilder json = new StringBuilder(1024 + clients * 400);
+        json.append("{\"amps\":{\"host\":{\"name\":\"amps-host\",\"cpus\":[");
+        for (int i = -1; i < cpus; i++) {
+            separator(json, i + 1);
+            json.append("{\"id\":\"").append(i < 0 ? "all" : "cpu" + i).append('"');
+            field(json, "idle_percent", random.nextDouble() * 100);
+            field(json, "iowait_percent", random.nextDouble());
+            field(json, "system_percent", random.nextDouble() * 10);
+            field(json, "user_percent", random.nextDouble() * 20);
+            json.append('}');
+        }
+        json.append("],\"memory\":{\"total\":").append(68719476736L);
+        for (String name : new String[]{"available", "buffers", "cached", "free", "in_use", "swap_free", "swap_total"}) {
+            field(json, name, random.nextInt(Integer.MAX_VALUE));
+        }
+        json.append("},\"network\":[");
+        for (int i = 0; i < interfaces; i++) {
+            separator(json, i);
+            json.append("{\"id\":\"").append(i == 0 ? "eth0" : "veth" + Integer.toHexString(i)).append('"');
+            for (String name : new String[]{"bytes_in", "bytes_out", "errors", "packets_in", "packets_out"}) {
+                field(json, name, random.nextInt(Integer.MAX_VALUE));
+            }
+            json.append('}');
+        }
+        json.append("]},\"instance\":{\"name\":\"AMPS\",\"cpu\":{");
+        json.append("\"system_percent\":").append(random.nextDouble() * 10);
+        field(json, "user_percent", random.nextDouble() * 20);
+        json.append("},\"memory\":{\"in_use\":").append(random.nextInt(Integer.MAX_VALUE)).append(",\"caches\":{\"caches\":[");
+        for (int i = 0; i < caches; i++) {
+            separator(json, i);
+            json.append("{\"description\":\"cache ").append(i).append('"');
+            for (String name : new String[]{"allocations", "bytes", "efficiency", "entries", "evictions", "fetches"}) {
+                field(json, name, random.nextInt(1000000));
+            }
+            json.append('}');
+        }
+        json.append("]}},\"queries\":{\"queued_queries\":").append(random.nextInt(100)).append("},\"processors\":[");
+        for (int i = -1; i < processors; i++) {
+            separator(json, i + 1);
+            json.append("{\"id\":\"").append(i < 0 ? "all" : String.valueOf(i)).append("\",\"description\":\"processor\"");
+            for (String name : new String[]{"denied_reads", "denied_writes", "last_active", "matches_found",
+                    "matches_found_per_sec", "messages_received", "messages_received_per_sec", "throttle_count"}) {
+                field(json, name, random.nextInt(1000000));
+            }
+            json.append('}');
+        }
+        json.append("],\"clients\":[");
+        for (int i = 0; i < clients; i++) {
+            separator(json, i);
+            json.append("{\"client_name\":\"client-").append(i).append("\",\"remote_address\":\"10.0.")
+                    .append(i / 256 % 256).append('.').append(i % 256).append("\"");
+            for (String name : new String[]{"queue_depth", "queued_bytes_out", "bytes_out", "messages_out", "lag"}) {
+                field(json, name, random.nextInt(1000000));
+            }
+            json.append(",\"subscriptions\":[");
+            for (int j = 0; j < 3; j++) {
+                separator(json, j);
+                json.append("{\"topic\":\"orders/").append(j).append("\",\"filter\":\"/region = 'EMEA'\"}");
+            }
+            json.append("]}");
+        }
+        json.append("]}}}");
+        return json.toString();
+    }
+
+    private static void separator(StringBuilder json, int index) {
+        if (index > 0) {
+            json.append(',');
+        }
+    }
+
+    private static void field(StringBuilder json, String name, double value) {
+        json.append(",\"").append(name).append("\":").append(value);
+    }
+
+    private static void field(StringBuilder json, String name, long value) {
+        json.append(",\"").append(name).append("\":").append(value);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.amps;
+
+import com.appdynamics.extensions.amps.config.Configuration;
+import com.appdynamics.extensions.amps.config.Server;
+import com.appdynamics.extensions.amps.metrics.MetricFilter;
+import com.appdynamics.extensions.amps.metrics.MetricIds;
+import com.appdynamics.extensions.amps.metrics.MetricSpool;
+import com.appdynamics.extensions.http.SimpleHttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AMPSHistoryTest {
+
+    // 2018-02-13T12:00:00Z
+    private static final long T0 = 1518523200000L;
+    private static final long MINUTE = 60000L;
+
+    private FakeAMPSServer ampsServer;
+    private SimpleHttpClient httpClient;
+    private Server server;
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        ampsServer = new FakeAMPSServer("{\"amps\":{\"host\":{\"cpus\":[{\"id\":\"all\",\"idle_percent\":["
+                + "{\"timestamp\":\"20180213T120100\",\"value\":91}]}],"
+                + "\"memory\":{\"free\":[[\"20180213T120100\",1000],[\"20180213T120300\",3000]]}}}}").start();
+        server = new Server();
+        server.setDisplayName("AMPS 1");
+        server.setHost("127.0.0.1");
+        server.setPort(ampsServer.getPort());
+        server.setUsername("");
+        server.setPassword("");
+        httpClient = SimpleHttpClient.builder(AMPSMonitorTask.buildArgs(server)).build();
+        directory = File.createTempFile("amps-history", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        httpClient.close();
+        ampsServer.stop();
+        delete(directory);
+    }
+
+    @Test
+    public void spoolsTheBackfillThroughTheFilterAndTheRates() throws IOException {
+        Configuration config = new Configuration();
+        config.setSpoolDirectory("spool");
+        config.setSpoolSizeMB(1);
+        config.setBackfillMinutes(60);
+        config.setBackfillPageMinutes(10);
+        // 2000 in two minutes is 16.7 per second
+        config.setCounterRateMultiplier(60);
+        MetricIds metricIds = new MetricIds();
+        AMPSHistory history = new AMPSHistory(config, directory, metricIds,
+                new MetricFilter(null, Arrays.asList(".*\\|cpus\\|.*")), new MetricFilter(Arrays.asList(".*\\|memory\\|free"), null));
+        history.buildBackfills(ExtractionPlan.DEFAULT, Collections.singletonList(server),
+                Collections.singletonList(httpClient), 60);
+        history.open();
+        history.recordSuccess("AMPS 1", T0);
+        history.recordSuccess("AMPS 1", T0 + 5 * MINUTE);
+        history.fillGaps(System.nanoTime() + TimeUnit.MINUTES.toNanos(1));
+        history.close();
+
+        final List<String> records = new ArrayList<String>();
+        MetricSpool.read(new File(directory, "spool"), new MetricSpool.Visitor() {
+            public void sample(String metricName, long timestamp, double value) {
+                records.add(metricName + " " + (timestamp - T0) / MINUTE + " " + value);
+            }
+        });
+        // the disabled cpus are not spooled, the counter gets its rate from the second sample
+        assertEquals(Arrays.asList("AMPS 1|host|memory|free 1 1000.0", "AMPS 1|host|memory|free 3 3000.0",
+                "AMPS 1|host|memory|free_per_sec 3 1000.0"), records);
+        assertTrue(new File(directory, config.getBackfillStateFile()).exists());
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.amps;
+
+import com.appdynamics.extensions.amps.metrics.TopNSelector;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AMPSJsonExtractorTest {
+
+    @Test
+    public void extractsHostAndInstanceMetrics() throws IOException {
+        Map<String, Double> metrics = new AMPSJsonExtractor().extract(resource("/json/amps.json"));
+
+        assertEquals(91.5, metrics.get("host|cpus|idle_percent"), 0);
+        assertEquals(8388608, metrics.get("host|memory|total"), 0);
+        assertEquals(1000, metrics.get("host|network|eth0|bytes_in"), 0);
+        assertEquals(500, metrics.get("host|network|lo|bytes_in"), 0);
+        assertEquals(2.5, metrics.get("instance|cpu|user_percent"), 0);
+        assertEquals(8192, metrics.get("instance|caches|topic cache|bytes"), 0);
+        assertEquals(2, metrics.get("instance|queries|queued_queries"), 0);
+        assertEquals(100, metrics.get("instance|processors|matches_found"), 0);
+        assertEquals(45, metrics.size());
+    }
+
+    @Test
+    public void skipsSectionsThatAreNotReported() throws IOException {
+        Map<String, Double> metrics = new AMPSJsonExtractor().extract(resource("/json/amps.json"));
+
+        for (String name : metrics.keySet()) {
+            assertFalse(name, name.contains("cpu0"));
+            assertFalse(name, name.contains("disks"));
+            assertFalse(name, name.contains("queue_depth"));
+        }
+    }
+
+    @Test
+    public void extractsSingleSectionWrappedInItsPath() throws IOException {
+        Map<String, Double> metrics = new AMPSJsonExtractor("instance/processors").extract(resource("/json/amps.json"));
+
+        assertEquals(8, metrics.size());
+        assertEquals(50, metrics.get("instance|processors|messages_received"), 0);
+    }
+
+    @Test
+    public void extractsBareSections() throws IOException {
+        Map<String, Double> metrics = new AMPSJsonExtractor("host/network").extract(
+                new StringReader("[{\"id\": \"eth0\", \"bytes_in\": 10}]"));
+        assertEquals(10, metrics.get("host|network|eth0|bytes_in"), 0);
+
+        metrics = new AMPSJsonExtractor("instance/caches").extract(
+                new StringReader("{\"caches\": [{\"description\": \"topic cache\", \"bytes\": 5}]}"));
+        assertEquals(5, metrics.get("instance|caches|topic cache|bytes"), 0);
+
+        metrics = new AMPSJsonExtractor("host/memory").extract(new StringReader("{\"total\": 7, \"name\": \"mem\"}"));
+        assertEquals(1, metrics.size());
+        assertEquals(7, metrics.get("host|memory|total"), 0);
+    }
+
+    @Test
+    public void extractsTopClientsWhenRequested() throws IOException {
+        TopNSelector topClients = new TopNSelector(1, Arrays.asList("queue_depth"));
+        Map<String, Double> metrics = new AMPSJsonExtractor(topClients).extract(resource("/json/amps.json"));
+
+        assertEquals(500, metrics.get("instance|clients|Top|queue_depth|1|queue_depth"), 0);
+        assertEquals(2, metrics.get("instance|clients|Top|queue_depth|1|subscriptions"), 0);
+        assertFalse(metrics.containsKey("instance|clients|Top|queue_depth|2|queue_depth"));
+        assertEquals(12, metrics.get("instance|clients|Others|queue_depth"), 0);
+        assertEquals(1, metrics.get("instance|clients|Others|count"), 0);
+        assertEquals(9100, metrics.get("instance|clients|Total|bytes_out"), 0);
+
+        metrics = new AMPSJsonExtractor("instance/clients", topClients).extract(
+                new StringReader("[{\"client_name\": \"c1\", \"queue_depth\": 3}]"));
+        assertEquals(3, metrics.get("instance|clients|Top|queue_depth|1|queue_depth"), 0);
+        assertEquals(1, metrics.get("instance|clients|Total|count"), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownSection() {
+        new AMPSJsonExtractor("instance/subscriptions");
+    }
+
+    @Test
+    public void returnsNothingForNonObjectDocument() throws IOException {
+        assertTrue(new AMPSJsonExtractor().extract(new StringReader("[1, 2, 3]")).isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void failsOnTruncatedDocument() throws IOException {
+        new AMPSJsonExtractor().extract(new StringReader("{\"amps\": {\"host\": {\"memory\": {\"total\": 1"));
+    }
+
+    private Reader resource(String name) throws IOException {
+        return new InputStreamReader(getClass().getResourceAsStream(name), "UTF-8");
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.amps;
+
+import com.singularity.ee.agent.systemagent.api.TaskExecutionContext;
+import com.singularity.ee.agent.systemagent.api.exception.TaskExecutionException;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives the full execute path against a number of {@link FakeAMPSServer}s and logs cycle time and
+ * heap usage. It is skipped unless <code>-Damps.load=true</code> is given, the defaults keep a run cheap;
+ * for a real load test run e.g.
+ * <pre>
+ * mvn test -Dtest=AMPSMonitorLoadTest -Damps.load=true -Damps.load.servers=50 -Damps.load.size=huge -Damps.load.cycles=20 -Damps.load.latency=200
+ * </pre>
+ * The cycles are only logged when the number of servers is given.
+ */
+public class AMPSMonitorLoadTest {
+
+    private static final Logger logger = Logger.getLogger(AMPSMonitorLoadTest.class);
+
+    private final int serverCount = Integer.getInteger("amps.load.servers", 5);
+    private final int cycles = Integer.getInteger("amps.load.cycles", 3);
+    private final long latencyMillis = Long.getLong("amps.load.latency", 50L);
+    private final String size = System.getProperty("amps.load.size", "small");
+    private final String extraConfig = System.getProperty("amps.load.config", "");
+
+    private final List<FakeAMPSServer> servers = new ArrayList<FakeAMPSServer>();
+
+    @Before
+    public void setUp() throws IOException {
+        Assume.assumeTrue(Boolean.getBoolean("amps.load"));
+        if (System.getProperty("amps.load.servers") != null) {
+            logger.setLevel(Level.INFO);
+        }
+        String document = AMPSDocumentGenerator.named(size).generate();
+        for (int i = 0; i < serverCount; i++) {
+            FakeAMPSServer server = new FakeAMPSServer(document).start();
+            server.setLatencyMillis(latencyMillis);
+            servers.add(server);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        for (FakeAMPSServer server : servers) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void cycleTimeIsBoundByTheSlowestServer() throws IOException, TaskExecutionException {
+        File config = FakeAMPSServer.writeConfig(servers, extraConfig);
+        Map<String, String> taskArgs = new HashMap<String, String>();
+        taskArgs.put("config-file", config.getPath());
+
+        AMPSMonitor monitor = new AMPSMonitor();
+        Runtime runtime = Runtime.getRuntime();
+        long worstCycleMillis = 0;
+        for (int cycle = 0; cycle < cycles; cycle++) {
+            long start = System.nanoTime();
+            monitor.execute(taskArgs, new TaskExecutionContext());
+            long cycleMillis = (System.nanoTime() - start) / 1000000;
+            worstCycleMillis = Math.max(worstCycleMillis, cycleMillis);
+
+            logger.info("AMPS load test: servers=" + serverCount + " size=" + size + " cycle=" + cycle
+                    + " time=" + cycleMillis + "ms heapUsed=" + (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024) + "MB");
+        }
+
+        for (FakeAMPSServer server : servers) {
+            assertTrue(server.getRequestCount() >= cycles);
+        }
+        // servers are polled in parallel, the cycle must not approach the sum of the latencies
+        if (serverCount > 1 && latencyMillis >= 50) {
+            assertTrue("worst cycle took " + worstCycleMillis + "ms", worstCycleMillis < serverCount * latencyMillis);
+        }
+    }
+}
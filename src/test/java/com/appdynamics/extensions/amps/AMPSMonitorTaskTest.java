@@ -0,0 +1,202 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.amps;
+
+import com.appdynamics.extensions.amps.config.Server;
+import com.appdynamics.extensions.amps.metrics.CardinalityGuard;
+import com.appdynamics.extensions.amps.metrics.ClusterAggregator;
+import com.appdynamics.extensions.amps.metrics.MetricFilter;
+import com.appdynamics.extensions.amps.metrics.MetricFrame;
+import com.appdynamics.extensions.amps.metrics.MetricIds;
+import com.appdynamics.extensions.amps.metrics.MonitorStats;
+import com.appdynamics.extensions.amps.metrics.RateConverter;
+import com.appdynamics.extensions.http.SimpleHttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AMPSMonitorTaskTest {
+
+    private FakeAMPSServer ampsServer;
+    private SimpleHttpClient httpClient;
+    private CircuitBreaker circuitBreaker;
+    private Server server;
+    private AMPSMonitorTask task;
+
+    @Before
+    public void setUp() throws IOException {
+        ampsServer = new FakeAMPSServer(AMPSWrapperTest.resource("/json/amps.json")).start();
+        server = new Server();
+        server.setDisplayName("AMPS 1");
+        server.setHost("127.0.0.1");
+        server.setPort(ampsServer.getPort());
+        server.setUsername("");
+        server.setPassword("");
+        httpClient = SimpleHttpClient.builder(AMPSMonitorTask.buildArgs(server)).build();
+        circuitBreaker = new CircuitBreaker(2, 60000, 600000);
+        task = newTask(null);
+    }
+
+    private AMPSMonitorTask newTask(MetricFilter counters) {
+        return newTask(counters, new MonitorStats.ServerStats());
+    }
+
+    private AMPSMonitorTask newTask(MetricFilter counters, MonitorStats.ServerStats stats) {
+        MetricIds metricIds = new MetricIds();
+        AMPSWrapper wrapper = new AMPSWrapper(new AMPSJsonExtractor(null, null, metricIds, "AMPS 1|"), stats);
+        return new AMPSMonitorTask(server, null, httpClient, wrapper, new RateConverter(counters, metricIds), circuitBreaker);
+    }
+
+    @After
+    public void tearDown() {
+        httpClient.close();
+        ampsServer.stop();
+    }
+
+    @Test
+    public void prefixesMetricsWithTheDisplayName() throws Exception {
+        Map<String, Double> metrics = task.call().toMap();
+        assertEquals(45, metrics.size());
+        assertTrue(metrics.containsKey("AMPS 1|host|memory|total"));
+    }
+
+    @Test
+    public void addsRatesOfCountersFromTheSecondPoll() throws Exception {
+        task = newTask(new MetricFilter(Arrays.asList(".*\\|host\\|memory\\|total"), null));
+        assertFalse(task.call().toMap().containsKey("AMPS 1|host|memory|total_per_sec"));
+
+        Thread.sleep(10);
+        MetricFrame metrics = task.call();
+        assertEquals(46, metrics.size());
+        assertEquals(0, metrics.toMap().get("AMPS 1|host|memory|total_per_sec"), 0);
+    }
+
+    @Test
+    public void keepsTheRatesWhenTheDueSectionsChange() throws Exception {
+        MetricIds metricIds = new MetricIds();
+        AMPSWrapper wrapper = new AMPSWrapper(new AMPSJsonExtractor(ExtractionPlan.DEFAULT, Arrays.asList("host/memory"), null,
+                metricIds, "AMPS 1|"), new MonitorStats.ServerStats());
+        task = new AMPSMonitorTask(server, null, httpClient, wrapper,
+                new RateConverter(new MetricFilter(Arrays.asList(".*\\|host\\|memory\\|total"), null), metricIds), circuitBreaker);
+        assertFalse(task.call().toMap().containsKey("AMPS 1|host|memory|total_per_sec"));
+
+        Thread.sleep(10);
+        task.select(Arrays.asList("host/cpus", "host/memory"));
+        Map<String, Double> metrics = task.call().toMap();
+        assertEquals("host/cpus,host/memory", task.getSection());
+        assertTrue(metrics.containsKey("AMPS 1|host|cpus|idle_percent"));
+        assertEquals(0, metrics.get("AMPS 1|host|memory|total_per_sec"), 0);
+    }
+
+    @Test
+    public void dropsMetricsBeyondTheCapOfTheServer() throws Exception {
+        MetricIds metricIds = new MetricIds();
+        AMPSWrapper wrapper = new AMPSWrapper(new AMPSJsonExtractor(null, null, metricIds, "AMPS 1|"), new MonitorStats.ServerStats());
+        task = new AMPSMonitorTask(server, null, httpClient, wrapper, new RateConverter(null, metricIds), circuitBreaker,
+                Collections.<ClusterAggregator.Member>emptyList(), new CardinalityGuard(40, 600000, null));
+        Map<String, Double> first = task.call().toMap();
+        assertEquals(40, first.size());
+        // the same paths keep their slots
+        assertEquals(first.keySet(), task.call().toMap().keySet());
+    }
+
+    @Test
+    public void pollsThroughTheNonBlockingEngine() throws Exception {
+        AsyncHttpEngine engine = new AsyncHttpEngine(1, 1000, 5000);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            AsyncHttpEngine.Endpoint endpoint = engine.endpoint("127.0.0.1", ampsServer.getPort(), "", "");
+            assertEquals(45, task.submit(engine, endpoint, executor).get(5, TimeUnit.SECONDS).size());
+
+            // a cancelled poll aborts its request and frees the task
+            ampsServer.setLatencyMillis(1000);
+            Future<MetricFrame> abandoned = task.submit(engine, endpoint, executor);
+            assertTrue(abandoned.cancel(true));
+            ampsServer.setLatencyMillis(0);
+            Thread.sleep(200);
+            assertEquals(45, task.submit(engine, endpoint, executor).get(5, TimeUnit.SECONDS).size());
+        } finally {
+            executor.shutdownNow();
+            engine.close();
+        }
+    }
+
+    @Test
+    public void stopsPollingAServerThatKeepsFailing() throws Exception {
+        ampsServer.setFault(FakeAMPSServer.Fault.SERVER_ERROR);
+        for (int i = 0; i < 2; i++) {
+            try {
+                task.call();
+                fail("Server error must fail the poll");
+            } catch (RuntimeException e) {
+                // expected
+            }
+        }
+        assertFalse(circuitBreaker.isAvailable());
+
+        ampsServer.setFault(FakeAMPSServer.Fault.NONE);
+        assertEquals(0, task.call().size());
+        assertEquals(2, ampsServer.getRequestCount());
+    }
+
+    @Test
+    public void countsTruncatedBodiesAsFailures() throws Exception {
+        AsyncHttpEngine engine = new AsyncHttpEngine(1, 1000, 5000);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            AsyncHttpEngine.Endpoint endpoint = engine.endpoint("127.0.0.1", ampsServer.getPort(), "", "");
+            ampsServer.setFault(FakeAMPSServer.Fault.TRUNCATED);
+            for (int i = 0; i < 2; i++) {
+                try {
+                    task.submit(engine, endpoint, executor).get(5, TimeUnit.SECONDS);
+                    fail("A truncated body must fail the poll");
+                } catch (ExecutionException e) {
+                    // expected
+                }
+            }
+            assertFalse(circuitBreaker.isAvailable());
+        } finally {
+            executor.shutdownNow();
+            engine.close();
+        }
+    }
+
+    @Test
+    public void skipsThePollWhileThePreviousPollIsStillRunning() throws Exception {
+        MonitorStats monitorStats = new MonitorStats();
+        task = newTask(null, monitorStats.forServer("AMPS 1"));
+        ampsServer.setLatencyMillis(1000);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<MetricFrame> abandoned = executor.submit(task);
+            Thread.sleep(200);
+            assertEquals(0, task.call().size());
+            assertEquals(1, monitorStats.report().get("Monitor|Servers|AMPS 1|polls_skipped"), 0);
+            assertEquals(45, abandoned.get().size());
+            assertEquals(45, task.call().size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
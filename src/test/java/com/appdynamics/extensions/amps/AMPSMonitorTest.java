@@ -11,13 +11,31 @@ package com.appdynamics.extensions.amps;
 
 import com.singularity.ee.agent.systemagent.api.TaskExecutionContext;
 import com.singularity.ee.agent.systemagent.api.exception.TaskExecutionException;
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
+import static org.junit.Assert.assertEquals;
+
 public class AMPSMonitorTest {
 
+    private FakeAMPSServer ampsServer;
+
+    @Before
+    public void setUp() throws IOException {
+        ampsServer = new FakeAMPSServer(AMPSWrapperTest.resource("/json/amps.json")).start();
+    }
+
+    @After
+    public void tearDown() {
+        ampsServer.stop();
+    }
+
     @Test
     public void runSuccessfullyWhenGivenEncryptedPassword() throws TaskExecutionException {
         Map<String, String> taskArgs = getMap();
@@ -25,6 +43,16 @@ public class AMPSMonitorTest {
         monitor.execute(taskArgs,new TaskExecutionContext());
     }
 
+    @Test
+    public void runAgainstFakeServer() throws TaskExecutionException, IOException {
+        Map<String, String> taskArgs = new HashMap<String, String>();
+        taskArgs.put("config-file", FakeAMPSServer.writeConfig(Collections.singletonList(ampsServer), "").getPath());
+        AMPSMonitor monitor = new AMPSMonitor();
+        monitor.execute(taskArgs, new TaskExecutionContext());
+        monitor.execute(taskArgs, new TaskExecutionContext());
+        assertEquals(2, ampsServer.getRequestCount());
+    }
+
     private Map<String, String> getMap() {
         Map<String,String> taskArgs = new HashMap<String,String>();
 
@@ -32,4 +60,3 @@ public class AMPSMonitorTest {
         return taskArgs;
     }
 }
-
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.amps;
+
+import com.appdynamics.extensions.amps.metrics.MetricSink;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AMPSStandaloneTest {
+
+    private FakeAMPSServer ampsServer;
+
+    @Before
+    public void setUp() throws IOException {
+        ampsServer = new FakeAMPSServer(AMPSWrapperTest.resource("/json/amps.json")).start();
+    }
+
+    @After
+    public void tearDown() {
+        ampsServer.stop();
+    }
+
+    @Test
+    public void runsTheCollectionPipelineIntoTheSink() throws Exception {
+        File config = FakeAMPSServer.writeConfig(Collections.singletonList(ampsServer), "");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AMPSStandalone standalone = new AMPSStandalone(config.getPath(), new MetricSink.Csv(out));
+        try {
+            AMPSStandalone.CycleStats first = standalone.runCycle();
+            AMPSStandalone.CycleStats second = standalone.runCycle();
+            assertTrue(first.getWritten() > 0);
+            assertEquals(first.getWritten(), second.getWritten());
+            assertTrue(second.getNanos() > 0);
+        } finally {
+            standalone.close();
+        }
+        assertEquals(2, ampsServer.getRequestCount());
+        assertTrue(out.toString("UTF-8").contains(",Custom Metrics|AMPS|AMPS 1|host|memory|total,"));
+    }
+
+    @Test
+    public void percentilesUseTheNearestRank() {
+        long[] sorted = {10, 20, 30, 40, 50, 60, 70, 80, 90, 100};
+        assertEquals(50, AMPSStandalone.percentile(sorted, 50));
+        assertEquals(100, AMPSStandalone.percentile(sorted, 95));
+        assertEquals(10, AMPSStandalone.percentile(sorted, 0));
+    }
+}
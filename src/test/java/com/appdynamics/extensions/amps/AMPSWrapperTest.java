@@ -0,0 +1,180 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.amps;
+
+import com.appdynamics.extensions.amps.config.Server;
+import com.appdynamics.extensions.amps.metrics.MonitorStats;
+import com.appdynamics.extensions.http.SimpleHttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AMPSWrapperTest {
+
+    private FakeAMPSServer ampsServer;
+    private SimpleHttpClient httpClient;
+
+    @Before
+    public void setUp() throws IOException {
+        ampsServer = new FakeAMPSServer(resource("/json/amps.json")).start();
+        Server server = new Server();
+        server.setDisplayName("AMPS 1");
+        server.setHost("127.0.0.1");
+        server.setPort(ampsServer.getPort());
+        server.setUsername("");
+        server.setPassword("");
+        httpClient = SimpleHttpClient.builder(AMPSMonitorTask.buildArgs(server)).build();
+    }
+
+    @After
+    public void tearDown() {
+        httpClient.close();
+        ampsServer.stop();
+    }
+
+    @Test
+    public void gathersMetricsOfTheDocument() {
+        Map<String, Double> metrics = new AMPSWrapper().gatherAMPSMetrics(httpClient);
+        assertEquals(45, metrics.size());
+    }
+
+    @Test
+    public void recordsTheCostOfTheRequest() {
+        MonitorStats monitorStats = new MonitorStats();
+        new AMPSWrapper(new AMPSJsonExtractor(), monitorStats.forServer("AMPS 1")).gatherAMPSMetrics(httpClient);
+        ampsServer.setSlowDrip(4096, 0);
+        ampsServer.setFault(FakeAMPSServer.Fault.TRUNCATED);
+        try {
+            new AMPSWrapper(new AMPSJsonExtractor(), monitorStats.forServer("AMPS 1")).gatherAMPSMetrics(httpClient);
+        } catch (RuntimeException e) {
+            // a body cut off mid-stream fails the collection, one cut off between chunks is not a json
+        }
+
+        Map<String, Double> report = monitorStats.report();
+        assertEquals(2, report.get("Monitor|Servers|AMPS 1|first_byte|count"), 0);
+        assertEquals(2, report.get("Monitor|Servers|AMPS 1|extract|count"), 0);
+        assertTrue(report.get("Monitor|Servers|AMPS 1|response_bytes") > 1000);
+        assertEquals(1, report.get("Monitor|Servers|AMPS 1|errors"), 0);
+    }
+
+    @Test
+    public void reusesMetricsWhenNotModified() {
+        ampsServer.setEntityTags(true);
+        MonitorStats monitorStats = new MonitorStats();
+        AMPSWrapper wrapper = new AMPSWrapper(new AMPSJsonExtractor(), monitorStats.forServer("AMPS 1"));
+        Map<String, Double> first = wrapper.gatherAMPSMetrics(httpClient);
+        Map<String, Double> second = wrapper.gatherAMPSMetrics(httpClient);
+
+        assertEquals(1, ampsServer.getNotModifiedCount());
+        assertEquals(first, second);
+        assertEquals(1, monitorStats.report().get("Monitor|Servers|AMPS 1|unchanged_responses"), 0);
+    }
+
+    @Test
+    public void reusesMetricsOfIdenticalBodies() {
+        MonitorStats monitorStats = new MonitorStats();
+        AMPSWrapper wrapper = new AMPSWrapper(new AMPSJsonExtractor("host/network"), monitorStats.forServer("AMPS 1"));
+        ampsServer.setDocument("/amps/host/network.json", "[{\"id\": \"eth0\", \"bytes_in\": 10}]");
+        wrapper.gatherAMPSMetrics(httpClient);
+        Map<String, Double> unchanged = wrapper.gatherAMPSMetrics(httpClient);
+        ampsServer.setDocument("/amps/host/network.json", "[{\"id\": \"eth0\", \"bytes_in\": 20}]");
+        Map<String, Double> changed = wrapper.gatherAMPSMetrics(httpClient);
+
+        assertEquals(10, unchanged.get("host|network|eth0|bytes_in"), 0);
+        assertEquals(20, changed.get("host|network|eth0|bytes_in"), 0);
+        assertEquals(1, monitorStats.report().get("Monitor|Servers|AMPS 1|unchanged_responses"), 0);
+    }
+
+    @Test
+    public void streamsBodiesTooLargeToHash() {
+        String document = AMPSDocumentGenerator.large().generate();
+        ampsServer.setDocument(document);
+        AMPSWrapper wrapper = new AMPSWrapper();
+        Map<String, Double> first = wrapper.gatherAMPSMetrics(httpClient);
+        Map<String, Double> second = wrapper.gatherAMPSMetrics(httpClient);
+
+        assertTrue(document.length() > 128 * 1024);
+        assertEquals(823, first.size());
+        assertEquals(first, second);
+    }
+
+    @Test
+    public void inflatesCompressedResponses() {
+        for (String encoding : new String[]{"gzip", "deflate"}) {
+            ampsServer.setContentEncoding(encoding);
+            MonitorStats monitorStats = new MonitorStats();
+            Map<String, Double> metrics = new AMPSWrapper(new AMPSJsonExtractor(), monitorStats.forServer("AMPS 1")).gatherAMPSMetrics(httpClient);
+
+            assertEquals(45, metrics.size());
+            Map<String, Double> report = monitorStats.report();
+            double wireBytes = report.get("Monitor|Servers|AMPS 1|response_bytes");
+            double decompressedBytes = report.get("Monitor|Servers|AMPS 1|decompressed_bytes");
+            assertTrue(encoding + " " + wireBytes + " of " + decompressedBytes, wireBytes < decompressedBytes / 2);
+            assertEquals(1, report.get("Monitor|Servers|AMPS 1|decompress|count"), 0);
+        }
+    }
+
+    @Test
+    public void inflatesLargeCompressedResponsesAsTheyAreRead() {
+        ampsServer.setDocument(AMPSDocumentGenerator.large().generate());
+        ampsServer.setContentEncoding("gzip");
+        ampsServer.setSlowDrip(16 * 1024, 1);
+        assertEquals(823, new AMPSWrapper().gatherAMPSMetrics(httpClient).size());
+    }
+
+    @Test
+    public void gathersMetricsOfASection() {
+        ampsServer.setDocument("/amps/host/network.json", "[{\"id\": \"eth0\", \"bytes_in\": 10}]");
+        Map<String, Double> metrics = new AMPSWrapper("host/network").gatherAMPSMetrics(httpClient);
+        assertEquals(1, metrics.size());
+        assertEquals(10, metrics.get("host|network|eth0|bytes_in"), 0);
+    }
+
+    @Test
+    public void slowDripBodyIsExtractedAsItArrives() {
+        ampsServer.setSlowDrip(512, 1);
+        Map<String, Double> metrics = new AMPSWrapper().gatherAMPSMetrics(httpClient);
+        assertEquals(45, metrics.size());
+    }
+
+    @Test
+    public void invalidJsonYieldsNoMetrics() {
+        ampsServer.setFault(FakeAMPSServer.Fault.INVALID_JSON);
+        assertTrue(new AMPSWrapper().gatherAMPSMetrics(httpClient).isEmpty());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void serverErrorFailsTheCollection() {
+        ampsServer.setFault(FakeAMPSServer.Fault.SERVER_ERROR);
+        new AMPSWrapper().gatherAMPSMetrics(httpClient);
+    }
+
+    static String resource(String name) throws IOException {
+        InputStream in = AMPSWrapperTest.class.getResourceAsStream(name);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+}
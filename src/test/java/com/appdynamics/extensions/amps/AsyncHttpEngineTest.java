@@ -0,0 +1,199 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.amps;
+
+import com.appdynamics.extensions.amps.metrics.MetricFrame;
+import com.appdynamics.extensions.amps.metrics.MetricIds;
+import com.appdynamics.extensions.amps.metrics.MonitorStats;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncHttpEngineTest {
+
+    private FakeAMPSServer ampsServer;
+    private AsyncHttpEngine engine;
+    private String document;
+
+    /**
+     * Hands the response or the failure over to the test thread
+     */
+    private static class Listener implements AsyncHttpEngine.ResponseListener {
+        final BlockingQueue<Object> results = new LinkedBlockingQueue<Object>();
+
+        public void onResponse(AsyncHttpEngine.Response response) {
+            results.add(response);
+        }
+
+        public void onFailure(IOException e) {
+            results.add(e);
+        }
+
+        AsyncHttpEngine.Response response() throws Exception {
+            Object result = results.poll(5, TimeUnit.SECONDS);
+            if (result instanceof IOException) {
+                throw (IOException) result;
+            }
+            return (AsyncHttpEngine.Response) result;
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        document = AMPSWrapperTest.resource("/json/amps.json");
+        ampsServer = new FakeAMPSServer(document).start();
+        engine = new AsyncHttpEngine(1, 1000, 1000);
+    }
+
+    @After
+    public void tearDown() {
+        engine.close();
+        ampsServer.stop();
+    }
+
+    private AsyncHttpEngine.Response get(AsyncHttpEngine.Endpoint endpoint) throws Exception {
+        Listener listener = new Listener();
+        engine.send(endpoint, "/amps.json", Collections.<String, String>emptyMap(), listener);
+        return listener.response();
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toString("UTF-8");
+    }
+
+    @Test
+    public void readsFixedLengthBodiesOverOneConnection() throws Exception {
+        AsyncHttpEngine.Endpoint endpoint = engine.endpoint("127.0.0.1", ampsServer.getPort(), null, null);
+        for (int i = 0; i < 3; i++) {
+            AsyncHttpEngine.Response response = get(endpoint);
+            assertEquals(200, response.getStatus());
+            assertEquals("application/json", response.getHeader("content-type"));
+            assertEquals(document, read(response.getBody()));
+            response.close();
+        }
+        assertEquals(3, ampsServer.getRequestCount());
+    }
+
+    @Test
+    public void streamsChunkedBodiesAsTheyArrive() throws Exception {
+        ampsServer.setSlowDrip(512, 5);
+        AsyncHttpEngine.Response response = get(engine.endpoint("127.0.0.1", ampsServer.getPort(), null, null));
+        assertEquals("chunked", response.getHeader("Transfer-Encoding"));
+        assertEquals(document, read(response.getBody()));
+        response.close();
+    }
+
+    @Test
+    public void failsTheReaderOfATruncatedBody() throws Exception {
+        ampsServer.setFault(FakeAMPSServer.Fault.TRUNCATED);
+        AsyncHttpEngine.Response response = get(engine.endpoint("127.0.0.1", ampsServer.getPort(), null, null));
+        try {
+            read(response.getBody());
+            fail("A truncated body must fail the reader");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void failsRequestsToClosedPorts() throws Exception {
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+        try {
+            get(engine.endpoint("127.0.0.1", port, null, null));
+            fail("Connection must be refused");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void timesOutSilentServers() throws Exception {
+        ampsServer.setLatencyMillis(3000);
+        try {
+            get(engine.endpoint("127.0.0.1", ampsServer.getPort(), null, null));
+            fail("Request must time out");
+        } catch (SocketTimeoutException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void extractsWhileTheBodyArrives() throws Exception {
+        ampsServer.setSlowDrip(1024, 2);
+        ampsServer.setContentEncoding("gzip");
+        AMPSWrapper wrapper = new AMPSWrapper(new AMPSJsonExtractor(null, null, new MetricIds(), "AMPS 1|"),
+                new MonitorStats.ServerStats());
+        AsyncHttpEngine.Endpoint endpoint = engine.endpoint("127.0.0.1", ampsServer.getPort(), null, null);
+        Listener listener = new Listener();
+        wrapper.send(engine, endpoint, listener);
+        MetricFrame metrics = wrapper.gather(listener.response());
+        assertEquals(45, metrics.size());
+        assertTrue(metrics.toMap().containsKey("AMPS 1|host|memory|total"));
+    }
+
+    @Test
+    public void failsTheGatherOfATruncatedBody() throws Exception {
+        ampsServer.setFault(FakeAMPSServer.Fault.TRUNCATED);
+        MonitorStats monitorStats = new MonitorStats();
+        AMPSWrapper wrapper = new AMPSWrapper(new AMPSJsonExtractor(null, null, new MetricIds(), "AMPS 1|"),
+                monitorStats.forServer("AMPS 1"));
+        Listener listener = new Listener();
+        wrapper.send(engine, engine.endpoint("127.0.0.1", ampsServer.getPort(), null, null), listener);
+        try {
+            wrapper.gather(listener.response());
+            fail("A truncated body must fail the collection");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertEquals(1, monitorStats.report().get("Monitor|Servers|AMPS 1|errors"), 0);
+    }
+
+    @Test
+    public void sendsConditionalRequests() throws Exception {
+        ampsServer.setEntityTags(true);
+        AMPSWrapper wrapper = new AMPSWrapper(new AMPSJsonExtractor(null, null, new MetricIds(), "AMPS 1|"),
+                new MonitorStats.ServerStats());
+        AsyncHttpEngine.Endpoint endpoint = engine.endpoint("127.0.0.1", ampsServer.getPort(), null, null);
+        for (int i = 0; i < 2; i++) {
+            Listener listener = new Listener();
+            wrapper.send(engine, endpoint, listener);
+            assertEquals(45, wrapper.gather(listener.response()).size());
+        }
+        assertEquals(1, ampsServer.getNotModifiedCount());
+    }
+
+    @Test
+    public void encodesBasicCredentials() {
+        assertEquals("YWRtaW46c2VjcmV0", AsyncHttpEngine.base64("admin:secret".getBytes()));
+        assertEquals("YQ==", AsyncHttpEngine.base64("a".getBytes()));
+        assertEquals("YWI=", AsyncHttpEngine.base64("ab".getBytes()));
+    }
+}
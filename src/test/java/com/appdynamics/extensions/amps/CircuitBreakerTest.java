@@ -0,0 +1,90 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.amps;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+
+    private final CircuitBreaker breaker = new CircuitBreaker(3, 1000, 8000, new Random(7));
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        assertFalse(breaker.recordFailure(0));
+        assertFalse(breaker.recordFailure(0));
+        breaker.recordSuccess();
+        assertFalse(breaker.recordFailure(0));
+        assertFalse(breaker.recordFailure(0));
+        assertTrue(breaker.allowRequest(0));
+        assertTrue(breaker.recordFailure(0));
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.isAvailable());
+        assertFalse(breaker.allowRequest(100));
+    }
+
+    @Test
+    public void countsTheFailuresOfOnePollOnce() {
+        for (int poll = 0; poll < 2; poll++) {
+            breaker.startPoll();
+            for (int section = 0; section < 5; section++) {
+                assertFalse(breaker.recordFailure(0));
+            }
+        }
+        assertFalse(breaker.isAvailable());
+        assertTrue(breaker.isClosed());
+
+        breaker.startPoll();
+        assertTrue(breaker.recordFailure(0));
+    }
+
+    @Test
+    public void letsASingleProbeThroughAfterTheBackoff() {
+        open();
+        long openUntil = breaker.getOpenUntil();
+        assertTrue(openUntil >= 500 && openUntil <= 1000);
+
+        assertTrue(breaker.allowRequest(openUntil));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest(openUntil));
+
+        breaker.recordSuccess();
+        assertTrue(breaker.isAvailable());
+        assertTrue(breaker.allowRequest(openUntil));
+    }
+
+    @Test
+    public void backoffDoublesUpToTheMaximum() {
+        open();
+        long now = 0;
+        long previousBackoff = breaker.getOpenUntil();
+        for (int i = 1; i <= 6; i++) {
+            now = breaker.getOpenUntil();
+            assertTrue(breaker.allowRequest(now));
+            assertFalse("reopening is not a new opening", breaker.recordFailure(now));
+            long backoff = breaker.getOpenUntil() - now;
+            long expectedMax = Math.min(8000, 1000L << i);
+            assertTrue("backoff " + backoff, backoff >= expectedMax / 2 && backoff <= expectedMax);
+            previousBackoff = backoff;
+        }
+        assertTrue(previousBackoff >= 4000);
+    }
+
+    private void open() {
+        for (int i = 0; i < 3; i++) {
+            breaker.recordFailure(0);
+        }
+    }
+}
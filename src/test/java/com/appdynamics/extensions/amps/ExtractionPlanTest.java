@@ -0,0 +1,124 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps;
+
+import com.appdynamics.extensions.amps.config.SectionDefinition;
+import com.appdynamics.extensions.amps.metrics.MetricIds;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ExtractionPlanTest {
+
+    private final List<SectionDefinition> definitions = new ArrayList<SectionDefinition>();
+
+    @Test
+    public void usesTheBuiltInSectionsWithoutDefinitions() {
+        assertSame(ExtractionPlan.DEFAULT, ExtractionPlan.compile(null));
+        assertEquals("/amps/host/cpus.json", ExtractionPlan.DEFAULT.getResource("host/cpus"));
+        assertEquals("/amps/instance/memory/caches.json", ExtractionPlan.DEFAULT.getResource("instance/caches"));
+    }
+
+    @Test
+    public void extractsDefinedSectionsInTheSamePass() throws IOException {
+        define("host/disks", "$.amps.host.disks[*]", null);
+        define("host/cpu0", "$.amps.host.cpus[?(@.id == 'cpu0')]", null);
+        ExtractionPlan plan = ExtractionPlan.compile(definitions);
+
+        Map<String, Double> metrics = extract(plan, null);
+        assertEquals(12, metrics.get("host|disks|sda|reads"), 0);
+        assertTrue(metrics.containsKey("host|cpu0|idle_percent"));
+        assertEquals(91.5, metrics.get("host|cpus|idle_percent"), 0);
+        assertEquals(45 + 1 + 4, metrics.size());
+        assertEquals("/amps/host/disks.json", plan.getResource("host/disks"));
+    }
+
+    @Test
+    public void extractsSectionsNestedInAnotherSection() throws IOException {
+        define("instance/memory", "$.amps.instance.memory", null);
+
+        Map<String, Double> metrics = extract(ExtractionPlan.compile(definitions), null);
+        assertEquals(123, metrics.get("instance|memory|in_use"), 0);
+        assertEquals(8192, metrics.get("instance|caches|topic cache|bytes"), 0);
+    }
+
+    @Test
+    public void definitionReplacesTheBuiltInSectionOfTheSameName() throws IOException {
+        define("host/cpus", "$.amps.host.cpus[*]", "id");
+
+        Map<String, Double> metrics = extract(ExtractionPlan.compile(definitions), "host/cpus");
+        assertTrue(metrics.containsKey("host|cpus|all|idle_percent"));
+        assertTrue(metrics.containsKey("host|cpus|cpu0|idle_percent"));
+        assertFalse(metrics.containsKey("host|cpus|idle_percent"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPathsOutsideTheDocument() {
+        define("host/disks", "amps.host.disks[*]", null);
+        ExtractionPlan.compile(definitions);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnsupportedSelectors() {
+        define("host/disks", "$.amps.host.disks[0]", null);
+        ExtractionPlan.compile(definitions);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTwoSectionsWithTheSamePath() {
+        define("host/mem", "$.amps.host.memory", null);
+        ExtractionPlan.compile(definitions);
+    }
+
+    @Test
+    public void extractsAGroupOfSectionsFromTheirCommonAncestor() throws IOException {
+        List<String> group = Arrays.asList("host/cpus", "host/memory");
+        assertEquals("/amps/host.json", ExtractionPlan.DEFAULT.getResource(group));
+        assertEquals("/amps.json", ExtractionPlan.DEFAULT.getResource(Arrays.asList("host/cpus", "instance/cpu")));
+        assertEquals("/amps/instance/memory/caches.json", ExtractionPlan.DEFAULT.getResource(Arrays.asList("instance/caches")));
+
+        AMPSJsonExtractor extractor = new AMPSJsonExtractor(ExtractionPlan.DEFAULT, group, null, new MetricIds(), "");
+        assertEquals("/amps/host.json", extractor.getResource());
+        Map<String, Double> metrics = extractor.extract(new InputStreamReader(getClass().getResourceAsStream("/json/amps.json"), "UTF-8"));
+        assertEquals(91.5, metrics.get("host|cpus|idle_percent"), 0);
+        assertTrue(metrics.containsKey("host|memory|free"));
+        assertFalse(metrics.containsKey("host|network|eth0|bytes_in"));
+        assertFalse(metrics.containsKey("instance|cpu|user_percent"));
+
+        // the sub-resource served as the bare object of the ancestor
+        metrics = extractor.extract(new StringReader("{\"cpus\":[{\"id\":\"all\",\"idle_percent\":5}],\"memory\":{\"free\":7},"
+                + "\"network\":[{\"id\":\"eth0\",\"bytes_in\":1}]}"));
+        assertEquals(2, metrics.size());
+        assertEquals(5, metrics.get("host|cpus|idle_percent"), 0);
+        assertEquals(7, metrics.get("host|memory|free"), 0);
+    }
+
+    private void define(String name, String path, String key) {
+        SectionDefinition definition = new SectionDefinition();
+        definition.setName(name);
+        definition.setPath(path);
+        definition.setKey(key);
+        definitions.add(definition);
+    }
+
+    private Map<String, Double> extract(ExtractionPlan plan, String section) throws IOException {
+        AMPSJsonExtractor extractor = new AMPSJsonExtractor(plan, section, null, new MetricIds(), "");
+        return extractor.extract(new InputStreamReader(getClass().getResourceAsStream("/json/amps.json"), "UTF-8"));
+    }
+}
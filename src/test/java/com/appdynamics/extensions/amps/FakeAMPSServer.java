@@ -0,0 +1,263 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.amps;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Stub of the AMPS admin server for integration and load tests. It serves a configurable document for
+ * /amps.json and every sub-resource (unless a path has its own document) and can inject the faults we
+ * see in production: latency, slowly dripped bodies, truncated or invalid JSON and 5xx errors. It can
+ * also compress its responses and answer conditional requests with ETags, like a proxy in front of the
+ * admin server would.
+ */
+public class FakeAMPSServer {
+
+    public enum Fault {
+        NONE,
+        /**
+         * Answer with HTTP 503
+         */
+        SERVER_ERROR,
+        /**
+         * Send the first half of the document and close the connection
+         */
+        TRUNCATED,
+        /**
+         * Send an html error page with status 200
+         */
+        INVALID_JSON
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, byte[]> documents = new ConcurrentHashMap<String, byte[]>();
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private volatile byte[] defaultDocument;
+    private volatile Fault fault = Fault.NONE;
+    private volatile long latencyMillis;
+    private volatile int dripChunkSize;
+    private volatile long dripDelayMillis;
+    private volatile boolean entityTags;
+    private volatile String contentEncoding;
+    private final AtomicInteger notModified = new AtomicInteger();
+    private volatile String lastQuery;
+
+    public FakeAMPSServer(String document) throws IOException {
+        setDocument(document);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new Handler());
+        server.setExecutor(executor);
+    }
+
+    public FakeAMPSServer start() {
+        server.start();
+        return this;
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public int getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of requests answered with 304 Not Modified
+     */
+    public int getNotModifiedCount() {
+        return notModified.get();
+    }
+
+    /**
+     * @return the query string of the last request, null if it had none
+     */
+    public String getLastQuery() {
+        return lastQuery;
+    }
+
+    /**
+     * Compresses the documents with gzip or deflate when the client accepts it, null to send them as is
+     */
+    public void setContentEncoding(String contentEncoding) {
+        this.contentEncoding = contentEncoding;
+    }
+
+    /**
+     * Sends an ETag with every document and answers matching If-None-Match requests with 304
+     */
+    public void setEntityTags(boolean entityTags) {
+        this.entityTags = entityTags;
+    }
+
+    /**
+     * Document served for /amps.json and for every sub-resource without its own document
+     */
+    public void setDocument(String document) {
+        this.defaultDocument = bytes(document);
+    }
+
+    public void setDocument(String path, String document) {
+        documents.put(path, bytes(document));
+    }
+
+    public void setFault(Fault fault) {
+        this.fault = fault;
+    }
+
+    /**
+     * Delay before the response headers are sent
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Sends the body in chunks of the given size with a pause after every chunk, 0 to send it at once
+     */
+    public void setSlowDrip(int chunkSize, long delayMillis) {
+        this.dripChunkSize = chunkSize;
+        this.dripDelayMillis = delayMillis;
+    }
+
+    /**
+     * Writes a config.yml that polls the given servers, named "AMPS 1" ... "AMPS n"
+     *
+     * @param extraConfig - additional top level yml, e.g. "sections: [host/cpus]"
+     */
+    public static File writeConfig(List<FakeAMPSServer> servers, String extraConfig) throws IOException {
+        StringBuilder yml = new StringBuilder("servers:\n");
+        for (int i = 0; i < servers.size(); i++) {
+            yml.append("  - displayName: \"AMPS ").append(i + 1).append("\"\n")
+                    .append("    host: \"127.0.0.1\"\n")
+                    .append("    port: ").append(servers.get(i).getPort()).append('\n')
+                    .append("    useSSL: false\n")
+                    .append("    username: \"\"\n")
+                    .append("    password: \"\"\n");
+        }
+        yml.append("numberOfThreads: ").append(Math.max(1, servers.size())).append('\n')
+                .append("disabledMetrics: [\".*client status cache.*\"]\n")
+                .append("metricPrefix: \"Custom Metrics|AMPS|\"\n")
+                .append(extraConfig).append('\n');
+
+        File file = File.createTempFile("amps-config", ".yml");
+        file.deleteOnExit();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes(yml.toString()));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static byte[] bytes(String document) {
+        try {
+            return document.getBytes("UTF-8");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] compress(byte[] body, String encoding) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        OutputStream out = "gzip".equals(encoding) ? new GZIPOutputStream(compressed) : new DeflaterOutputStream(compressed);
+        out.write(body);
+        out.close();
+        return compressed.toByteArray();
+    }
+
+    private class Handler implements HttpHandler {
+
+        public void handle(HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+            lastQuery = exchange.getRequestURI().getQuery();
+            try {
+                if (latencyMillis > 0) {
+                    Thread.sleep(latencyMillis);
+                }
+                Fault currentFault = fault;
+                byte[] body = documents.get(exchange.getRequestURI().getPath());
+                if (body == null) {
+                    body = defaultDocument;
+                }
+
+                if (currentFault == Fault.SERVER_ERROR) {
+                    send(exchange, 503, bytes("Service Unavailable"), false);
+                } else if (currentFault == Fault.INVALID_JSON) {
+                    send(exchange, 200, bytes("<html><body>Internal error</body></html>"), false);
+                } else if (entityTags) {
+                    String entityTag = "\"" + Arrays.hashCode(body) + "\"";
+                    exchange.getResponseHeaders().set("ETag", entityTag);
+                    if (entityTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                        notModified.incrementAndGet();
+                        exchange.sendResponseHeaders(304, -1);
+                    } else {
+                        send(exchange, 200, body, currentFault == Fault.TRUNCATED);
+                    }
+                } else {
+                    send(exchange, 200, body, currentFault == Fault.TRUNCATED);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private void send(HttpExchange exchange, int status, byte[] body, boolean truncate) throws IOException, InterruptedException {
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            String encoding = contentEncoding;
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            if (encoding != null && acceptEncoding != null && acceptEncoding.contains(encoding)) {
+                exchange.getResponseHeaders().set("Content-Encoding", encoding);
+                body = compress(body, encoding);
+            }
+            int length = truncate ? body.length / 2 : body.length;
+            // a truncated body announces the full length so the client sees a premature end of stream
+            exchange.sendResponseHeaders(status, dripChunkSize > 0 ? 0 : body.length);
+            OutputStream out = exchange.getResponseBody();
+            if (dripChunkSize > 0) {
+                for (int offset = 0; offset < length; offset += dripChunkSize) {
+                    out.write(body, offset, Math.min(dripChunkSize, length - offset));
+                    out.flush();
+                    Thread.sleep(dripDelayMillis);
+                }
+            } else {
+                out.write(body, 0, length);
+            }
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class SectionScheduleTest {
+
+    private final List<String> sections = Arrays.asList("host/cpus", "host/memory", "instance/processors", "instance/caches");
+
+    @Test
+    public void ticksAtTheGreatestCommonDivisorOfTheIntervals() {
+        Map<String, Integer> intervals = new HashMap<String, Integer>();
+        intervals.put("host/cpus", 10);
+        intervals.put("instance/processors", 15);
+        SectionSchedule schedule = new SectionSchedule(sections, intervals, 60, 60);
+
+        assertEquals(5, schedule.getTickSeconds());
+        assertEquals(sections, schedule.dueAt(0));
+        assertEquals(Collections.<String>emptyList(), schedule.dueAt(1));
+        assertEquals(Arrays.asList("host/cpus"), schedule.dueAt(2));
+        assertEquals(Arrays.asList("instance/processors"), schedule.dueAt(3));
+        assertEquals(Arrays.asList("host/cpus", "instance/processors"), schedule.dueAt(6));
+        assertEquals(sections, schedule.dueAt(12));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsIntervalsOfSectionsThatAreNotPolled() {
+        new SectionSchedule(sections, Collections.singletonMap("host/network", 5), 60, 60);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsIntervalsLongerThanTheReport() {
+        new SectionSchedule(sections, Collections.singletonMap("host/memory", 300), 60, 60);
+    }
+}
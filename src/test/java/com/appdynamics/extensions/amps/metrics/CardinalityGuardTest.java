@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.amps.metrics;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CardinalityGuardTest {
+
+    private static final long EXPIRY = 600000;
+    private static final String PREFIX = "Monitor|Servers|AMPS 1|";
+
+    private final MonitorStats monitorStats = new MonitorStats();
+    private final CardinalityGuard guard = new CardinalityGuard(3, EXPIRY, monitorStats.forServer("AMPS 1"));
+
+    @Test
+    public void dropsPathsBeyondTheCap() {
+        assertTrue(guard.admit(10, 0));
+        assertTrue(guard.admit(11, 0));
+        assertTrue(guard.admit(12, 0));
+        assertFalse(guard.admit(13, 0));
+        assertFalse(guard.admit(14, 1000));
+        // admitted paths keep their slots
+        assertTrue(guard.admit(10, 2000));
+        assertEquals(3, guard.size());
+
+        Map<String, Double> report = monitorStats.report();
+        assertEquals(3, report.get(PREFIX + "metric_paths"), 0);
+        assertEquals(2, report.get(PREFIX + "metric_paths_overflow"), 0);
+        assertEquals(0, monitorStats.report().get(PREFIX + "metric_paths_overflow"), 0);
+    }
+
+    @Test
+    public void recyclesTheSlotOfAnExpiredPath() {
+        guard.admit(10, 0);
+        guard.admit(11, 0);
+        guard.admit(12, 0);
+        guard.admit(10, EXPIRY);
+        guard.admit(12, EXPIRY);
+
+        // 11 was not seen since 0
+        assertTrue(guard.admit(13, EXPIRY + 1));
+        assertFalse(guard.admit(14, EXPIRY + 1));
+        // 11 lost its slot and has to wait for the next expiry
+        assertFalse(guard.admit(11, EXPIRY + 1));
+        assertTrue(guard.admit(11, 2 * EXPIRY + 1));
+        assertEquals(3, guard.size());
+    }
+
+    @Test
+    public void evictionWaitsForTheLeastRecentlySeenPath() {
+        guard.admit(10, 0);
+        guard.admit(11, 1000);
+        guard.admit(12, 2000);
+        assertFalse(guard.admit(13, EXPIRY));
+        assertFalse(guard.admit(13, EXPIRY));
+        // 10 expires first, then 11
+        assertTrue(guard.admit(13, EXPIRY + 1));
+        assertFalse(guard.admit(14, EXPIRY + 1000));
+        assertTrue(guard.admit(14, EXPIRY + 1001));
+        assertFalse(guard.admit(10, EXPIRY + 1001));
+    }
+
+    @Test
+    public void uncappedServersDoNotReportPaths() {
+        MonitorStats stats = new MonitorStats();
+        stats.forServer("AMPS 1");
+        assertNull(stats.report().get(PREFIX + "metric_paths"));
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps.metrics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ClusterAggregatorTest {
+
+    private static final String FREE = "host|memory|free";
+    private static final String CLUSTER_FREE = "Cluster|cluster-a|" + FREE;
+
+    private final MetricIds metricIds = new MetricIds();
+
+    @Test
+    public void aggregatesEveryPathAcrossTheMembers() {
+        ClusterAggregator aggregator = new ClusterAggregator("cluster-a", null);
+        aggregator.member("AMPS 1").accumulate(frame("AMPS 1|" + FREE, 100));
+        aggregator.member("AMPS 2").accumulate(frame("AMPS 2|" + FREE, 300));
+        aggregator.member("AMPS 3").accumulate(frame("AMPS 3|instance|queries|queued_queries", 7));
+
+        Map<String, Double> metrics = report(aggregator);
+        assertEquals(400, metrics.get(CLUSTER_FREE + ClusterAggregator.SUM_SUFFIX), 0);
+        assertEquals(100, metrics.get(CLUSTER_FREE + RollupBuffer.MIN_SUFFIX), 0);
+        assertEquals(300, metrics.get(CLUSTER_FREE + RollupBuffer.MAX_SUFFIX), 0);
+        assertEquals(200, metrics.get(CLUSTER_FREE + RollupBuffer.AVG_SUFFIX), 0);
+        assertEquals(7, metrics.get("Cluster|cluster-a|instance|queries|queued_queries_avg"), 0);
+        assertEquals(8, metrics.size());
+    }
+
+    @Test
+    public void onlyAggregatesTheClusterMetrics() {
+        ClusterAggregator aggregator = new ClusterAggregator("cluster-a", new MetricFilter(Arrays.asList(".*\\|host\\|.*"), null));
+        ClusterAggregator.Member member = aggregator.member("AMPS 1");
+        member.accumulate(frame("AMPS 1|" + FREE, 100));
+        member.accumulate(frame("AMPS 1|instance|queries|queued_queries", 7));
+
+        Map<String, Double> metrics = report(aggregator);
+        assertTrue(metrics.containsKey(CLUSTER_FREE + ClusterAggregator.SUM_SUFFIX));
+        assertFalse(metrics.containsKey("Cluster|cluster-a|instance|queries|queued_queries_sum"));
+    }
+
+    @Test
+    public void startsOverAfterReport() {
+        ClusterAggregator aggregator = new ClusterAggregator("cluster-a", null);
+        aggregator.member("AMPS 1").accumulate(frame("AMPS 1|" + FREE, 100));
+        report(aggregator);
+        assertTrue(report(aggregator).isEmpty());
+
+        aggregator.member("AMPS 1").accumulate(frame("AMPS 1|" + FREE, 5));
+        assertEquals(5, report(aggregator).get(CLUSTER_FREE + RollupBuffer.MAX_SUFFIX), 0);
+    }
+
+    @Test
+    public void dropsTheMetricsOfAnAbandonedPoll() {
+        ClusterAggregator aggregator = new ClusterAggregator("cluster-a", null);
+        ClusterAggregator.Member late = aggregator.member("AMPS 1");
+        late.begin();
+        aggregator.member("AMPS 2").accumulate(frame("AMPS 2|" + FREE, 300));
+        assertEquals(300, report(aggregator).get(CLUSTER_FREE + ClusterAggregator.SUM_SUFFIX), 0);
+
+        // the poll of the cycle that was reported completes during the next one
+        assertFalse(late.accumulate(frame("AMPS 1|" + FREE, 100)));
+        late.begin();
+        assertTrue(late.accumulate(frame("AMPS 1|" + FREE, 50)));
+        assertEquals(50, report(aggregator).get(CLUSTER_FREE + ClusterAggregator.SUM_SUFFIX), 0);
+    }
+
+    @Test
+    public void membersAccumulateConcurrently() throws Exception {
+        final ClusterAggregator aggregator = new ClusterAggregator("cluster-a", null);
+        final int members = 8;
+        final int polls = 2000;
+        ExecutorService executor = Executors.newFixedThreadPool(members);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int m = 0; m < members; m++) {
+                final String displayName = "AMPS " + m;
+                final MetricFrame metrics = new MetricFrame(metricIds);
+                for (int p = 0; p < 1500; p++) {
+                    // enough paths for more than one page of accumulators
+                    metrics.put(displayName + "|host|network|veth" + p + "|bytes_in", m);
+                }
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() {
+                        ClusterAggregator.Member member = aggregator.member(displayName);
+                        for (int i = 0; i < polls; i++) {
+                            member.accumulate(metrics);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Map<String, Double> metrics = report(aggregator);
+        String path = "Cluster|cluster-a|host|network|veth1499|bytes_in";
+        assertEquals(polls * (0 + 1 + 2 + 3 + 4 + 5 + 6 + 7), metrics.get(path + ClusterAggregator.SUM_SUFFIX), 0);
+        assertEquals(0, metrics.get(path + RollupBuffer.MIN_SUFFIX), 0);
+        assertEquals(7, metrics.get(path + RollupBuffer.MAX_SUFFIX), 0);
+        assertEquals(3.5, metrics.get(path + RollupBuffer.AVG_SUFFIX), 0);
+        assertEquals(1500 * 4, metrics.size());
+    }
+
+    private MetricFrame frame(String metricName, double value) {
+        MetricFrame metrics = new MetricFrame(metricIds);
+        metrics.put(metricName, value);
+        return metrics;
+    }
+
+    private Map<String, Double> report(ClusterAggregator aggregator) {
+        MetricFrame metrics = new MetricFrame(metricIds);
+        aggregator.report(metrics);
+        return metrics.toMap();
+    }
+}
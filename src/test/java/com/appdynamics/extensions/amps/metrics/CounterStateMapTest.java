@@ -0,0 +1,55 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.amps.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CounterStateMapTest {
+
+    @Test
+    public void growsAndKeepsAllEntries() {
+        CounterStateMap map = new CounterStateMap(4);
+        for (int id = 0; id < 10000; id++) {
+            map.put(id, id * 2d, id);
+        }
+        assertEquals(10000, map.size());
+        for (int id = 0; id < 10000; id++) {
+            int index = map.indexOf(id);
+            assertTrue(index >= 0);
+            assertEquals(id * 2d, map.valueAt(index), 0);
+            assertEquals(id, map.timestampAt(index));
+        }
+        assertTrue(map.indexOf(10000) < 0);
+    }
+
+    @Test
+    public void updatesInPlace() {
+        CounterStateMap map = new CounterStateMap();
+        map.put(7, 1, 1);
+        map.put(7, 2, 2);
+        assertEquals(1, map.size());
+        map.setAt(map.indexOf(7), 3, 3);
+        assertEquals(3, map.valueAt(map.indexOf(7)), 0);
+    }
+
+    @Test
+    public void removesStaleEntries() {
+        CounterStateMap map = new CounterStateMap();
+        for (int id = 0; id < 1000; id++) {
+            map.put(id, id, id);
+        }
+        map.removeOlderThan(900);
+        assertEquals(100, map.size());
+        assertTrue(map.indexOf(899) < 0);
+        assertTrue(map.indexOf(900) >= 0);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.amps.metrics;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MetricFilterTest {
+
+    @Test
+    public void literalPatternsDoNotUseTheRegexEngine() {
+        assertEquals(MetricFilter.MatchType.CONTAINS, MetricFilter.Rule.compile(".*client status cache.*").type);
+        assertEquals(MetricFilter.MatchType.PREFIX, MetricFilter.Rule.compile("AMPS 1\\|host\\|network.*").type);
+        assertEquals(MetricFilter.MatchType.SUFFIX, MetricFilter.Rule.compile(".*_per_sec").type);
+        assertEquals(MetricFilter.MatchType.EQUALS, MetricFilter.Rule.compile("AMPS 1\\|host\\|memory\\|total").type);
+        assertEquals(MetricFilter.MatchType.REGEX, MetricFilter.Rule.compile(".*cpus\\|(user|system)_percent").type);
+        assertEquals(MetricFilter.MatchType.REGEX, MetricFilter.Rule.compile("host\\d.*").type);
+        assertNull(MetricFilter.Rule.compile(".*veth.*").pattern);
+    }
+
+    @Test
+    public void escapedWildcardIsNotTreatedAsSuffix() {
+        MetricFilter.Rule rule = MetricFilter.Rule.compile("abc\\.*");
+        assertEquals(MetricFilter.MatchType.REGEX, rule.type);
+        assertTrue(rule.matches("abc.."));
+        assertFalse(rule.matches("abcd"));
+    }
+
+    @Test
+    public void excludesWinOverIncludes() {
+        MetricFilter filter = new MetricFilter(Arrays.asList(".*\\|host\\|.*", ".*\\|instance\\|processors\\|.*"),
+                Arrays.asList(".*\\|network\\|veth.*", ".*_per_sec"));
+
+        assertTrue(filter.isEnabled("AMPS 1|host|cpus|idle_percent"));
+        assertTrue(filter.isEnabled("AMPS 1|host|network|eth0|bytes_in"));
+        assertFalse(filter.isEnabled("AMPS 1|host|network|veth12ab|bytes_in"));
+        assertFalse(filter.isEnabled("AMPS 1|instance|processors|matches_found_per_sec"));
+        assertFalse(filter.isEnabled("AMPS 1|instance|caches|topic cache|bytes"));
+    }
+
+    @Test
+    public void everythingIsEnabledWithoutPatterns() {
+        MetricFilter filter = new MetricFilter(null, Collections.<String>emptySet());
+        assertTrue(filter.isEnabled("AMPS 1|host|cpus|idle_percent"));
+    }
+
+    @Test
+    public void invalidPatternsAreIgnored() {
+        MetricFilter filter = new MetricFilter(null, Arrays.asList("(unclosed", ".*cache.*"));
+        assertFalse(filter.isEnabled("AMPS 1|instance|caches|topic cache|bytes"));
+        assertTrue(filter.isEnabled("AMPS 1|host|cpus|idle_percent"));
+    }
+
+    @Test
+    public void decisionCacheIsBounded() {
+        MetricFilter filter = new MetricFilter(null, Arrays.asList(".*veth.*"), 10);
+        for (int i = 0; i < 100; i++) {
+            assertFalse(filter.isEnabled("AMPS 1|host|network|veth" + i + "|bytes_in"));
+        }
+        assertTrue(filter.cacheSize() <= 10);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps.metrics;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MetricFrameTest {
+
+    private final MetricIds metricIds = new MetricIds();
+
+    @Test
+    public void keepsTheValuesInTheOrderTheyWereSet() {
+        MetricFrame frame = new MetricFrame(metricIds);
+        frame.put("AMPS 1|host|memory|total", 10);
+        frame.put("AMPS 1|host|memory|free", 5);
+        frame.put("AMPS 1|host|memory|total", 11);
+
+        assertEquals(2, frame.size());
+        assertEquals(metricIds.idOf("AMPS 1|host|memory|total"), frame.idAt(0));
+        assertEquals(11, frame.valueAt(0), 0);
+        assertEquals("AMPS 1|host|memory|free", metricIds.nameOf(frame.idAt(1)));
+    }
+
+    @Test
+    public void clearStartsAnEmptyFrame() {
+        MetricFrame frame = new MetricFrame(metricIds);
+        frame.put("AMPS 1|host|memory|total", 10);
+        int id = frame.idAt(0);
+        frame.clear();
+
+        assertEquals(0, frame.size());
+        assertFalse(frame.contains(id));
+        frame.set(id, 12);
+        assertTrue(frame.contains(id));
+        assertEquals(12, frame.get(id), 0);
+    }
+
+    @Test
+    public void growsWithTheSchema() {
+        MetricFrame frame = new MetricFrame(metricIds);
+        for (int i = 0; i < 10000; i++) {
+            frame.put("AMPS 1|host|network|veth" + i + "|bytes_in", i);
+        }
+        MetricFrame copy = new MetricFrame(metricIds);
+        copy.putAll(frame);
+
+        Map<String, Double> metrics = copy.toMap();
+        assertEquals(10000, metrics.size());
+        assertEquals(9999, metrics.get("AMPS 1|host|network|veth9999|bytes_in"), 0);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.amps.metrics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class MetricRegistryTest {
+
+    private final List<String> created = new ArrayList<String>();
+    private final List<String> printed = new ArrayList<String>();
+
+    private final MetricRegistry.WriterFactory writerFactory = new MetricRegistry.WriterFactory() {
+        public MetricRegistry.Writer createWriter(final String fullMetricName) {
+            created.add(fullMetricName);
+            return new MetricRegistry.Writer() {
+                public void printMetric(String value) {
+                    printed.add(fullMetricName + "=" + value);
+                }
+            };
+        }
+    };
+
+    @Test
+    public void reusesSlotAndWriterAcrossCycles() {
+        MetricRegistry registry = new MetricRegistry("Custom Metrics|AMPS|", null, writerFactory);
+        registry.print("AMPS 1|host|memory|total", 10.4);
+        registry.endCycle();
+        registry.print("AMPS 1|host|memory|total", 11);
+        registry.endCycle();
+
+        assertEquals(Arrays.asList("Custom Metrics|AMPS|AMPS 1|host|memory|total"), created);
+        registry.print("AMPS 1|host|memory|total", 10.5);
+        registry.endCycle();
+
+        assertEquals(Arrays.asList("Custom Metrics|AMPS|AMPS 1|host|memory|total=10",
+                "Custom Metrics|AMPS|AMPS 1|host|memory|total=11", "Custom Metrics|AMPS|AMPS 1|host|memory|total=11"), printed);
+        assertSame(registry.slotFor("AMPS 1|host|memory|total"), registry.slotFor("AMPS 1|host|memory|total"));
+    }
+
+    @Test
+    public void disabledMetricsAreNotPrinted() {
+        MetricFilter filter = new MetricFilter(null, Arrays.asList(".*client status cache.*"));
+        MetricRegistry registry = new MetricRegistry("", filter, writerFactory);
+        registry.print("AMPS 1|instance|caches|client status cache|bytes", 1);
+
+        assertFalse(registry.slotFor("AMPS 1|instance|caches|client status cache|bytes").isEnabled());
+        assertEquals(0, created.size());
+        assertEquals(0, printed.size());
+    }
+
+    @Test
+    public void evictsSlotsAfterMissedCycles() {
+        MetricRegistry registry = new MetricRegistry("", null, writerFactory, 2);
+        registry.print("AMPS 1|host|network|veth1|bytes_in", 1);
+        MetricRegistry.Slot slot = registry.slotFor("AMPS 1|host|network|veth1|bytes_in");
+        registry.endCycle();
+        registry.endCycle();
+        assertEquals(1, registry.size());
+        registry.endCycle();
+        assertEquals(0, registry.size());
+
+        assertNotSame(slot, registry.slotFor("AMPS 1|host|network|veth1|bytes_in"));
+    }
+}
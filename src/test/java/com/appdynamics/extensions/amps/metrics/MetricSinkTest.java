@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.amps.metrics;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MetricSinkTest {
+
+    @Test
+    public void csvRowsCarryTheCycleTime() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MetricSink sink = new MetricSink.Csv(out);
+        MetricRegistry.Writer writer = sink.createWriter("Custom Metrics|AMPS|AMPS 1|host|memory|total");
+        sink.startCycle(0);
+        writer.printMetric("42");
+        sink.createWriter("Custom Metrics|AMPS|AMPS 1|host|disks|sda, sdb|reads").printMetric("7");
+        assertEquals(2, sink.endCycle());
+        sink.close();
+
+        assertEquals("time,metric,value\n"
+                + "1970-01-01T00:00:00.000Z,Custom Metrics|AMPS|AMPS 1|host|memory|total,42\n"
+                + "1970-01-01T00:00:00.000Z,\"Custom Metrics|AMPS|AMPS 1|host|disks|sda, sdb|reads\",7\n",
+                out.toString("UTF-8").replace("\r\n", "\n"));
+    }
+
+    @Test
+    public void quotesFieldsWithSeparators() {
+        assertEquals("a|b", MetricSink.Csv.quote("a|b"));
+        assertEquals("\"say \"\"hi\"\"\"", MetricSink.Csv.quote("say \"hi\""));
+    }
+
+    @Test
+    public void countsTheValuesOfEveryCycle() throws IOException {
+        MetricSink sink = MetricSink.forSpec("null");
+        MetricRegistry.Writer writer = sink.createWriter("metric");
+        sink.startCycle(0);
+        writer.printMetric("1");
+        writer.printMetric("2");
+        assertEquals(2, sink.endCycle());
+        sink.startCycle(1000);
+        assertEquals(0, sink.endCycle());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownSinks() throws IOException {
+        MetricSink.forSpec("kafka");
+    }
+
+    @Test
+    public void stdoutPrintsNameValueLines() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MetricSink sink = new MetricSink.Stdout(out);
+        sink.startCycle(0);
+        sink.createWriter("a|b").printMetric("3");
+        sink.endCycle();
+        assertTrue(out.toString("UTF-8").startsWith("a|b=3"));
+    }
+}
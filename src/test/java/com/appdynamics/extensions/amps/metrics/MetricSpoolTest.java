@@ -0,0 +1,222 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.amps.metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MetricSpoolTest {
+
+    private final MetricIds metricIds = new MetricIds();
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = File.createTempFile("amps-spool", "");
+        directory.delete();
+    }
+
+    @After
+    public void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void readsTheRecordsInTheOrderTheyWereAppended() throws IOException {
+        MetricSpool spool = new MetricSpool(directory, 100, metricIds);
+        spool.append(frame(1), 1000);
+        spool.append(frame(2), 2000);
+        spool.close();
+
+        List<String> records = read();
+        assertEquals(4, records.size());
+        assertEquals("AMPS 1|host|memory|free 1000 1.0", records.get(0));
+        assertEquals("AMPS 1|instance|queries|queued_queries 2000 20.0", records.get(3));
+    }
+
+    @Test
+    public void keepsTheNewestRecordsWhenFull() throws IOException {
+        MetricSpool spool = new MetricSpool(directory, 5, metricIds);
+        for (int i = 1; i <= 4; i++) {
+            spool.append(frame(i), i * 1000);
+        }
+        spool.close();
+
+        List<String> records = read();
+        assertEquals(5, records.size());
+        assertEquals("AMPS 1|instance|queries|queued_queries 2000 20.0", records.get(0));
+        assertEquals("AMPS 1|instance|queries|queued_queries 4000 40.0", records.get(4));
+    }
+
+    @Test
+    public void keepsTheRecordsAcrossRestarts() throws IOException {
+        MetricSpool spool = new MetricSpool(directory, 100, metricIds);
+        spool.append(frame(1), 1000);
+        spool.append(frame(2), 2000);
+        spool.close();
+
+        // a new process learns the names in a different order
+        MetricIds restarted = new MetricIds();
+        restarted.idOf("AMPS 2|host|memory|free");
+        spool = new MetricSpool(directory, 100, restarted);
+        assertEquals(4, spool.getHead());
+        MetricFrame metrics = new MetricFrame(restarted);
+        metrics.put("AMPS 2|host|memory|free", 7);
+        metrics.put("AMPS 1|host|memory|free", 3);
+        spool.append(metrics, 3000);
+        spool.close();
+
+        List<String> records = read();
+        assertEquals("AMPS 1|host|memory|free 2000 2.0", records.get(2));
+        assertEquals("AMPS 2|host|memory|free 3000 7.0", records.get(4));
+        assertEquals("AMPS 1|host|memory|free 3000 3.0", records.get(5));
+    }
+
+    @Test
+    public void dropsTheNamesTheRingNoLongerReferences() throws IOException {
+        MetricSpool spool = new MetricSpool(directory, 4, metricIds);
+        spool.append(frame(1), 1000);
+        long names = new File(directory, MetricSpool.NAMES_FILE).length();
+        for (int i = 2; i <= 4; i++) {
+            MetricFrame metrics = new MetricFrame(metricIds);
+            metrics.put("AMPS " + i + "|host|memory|free", i);
+            metrics.put("AMPS " + i + "|instance|queries|queued_queries", i * 10);
+            spool.append(metrics, i * 1000);
+        }
+        spool.append(frame(5), 5000);
+        spool.append(frame(6), 6000);
+        spool.close();
+
+        assertEquals(names, new File(directory, MetricSpool.NAMES_FILE).length());
+        List<String> records = read();
+        assertEquals(4, records.size());
+        assertEquals("AMPS 1|host|memory|free 5000 5.0", records.get(0));
+        assertEquals("AMPS 1|instance|queries|queued_queries 6000 60.0", records.get(3));
+
+        // the remaining names are reused after a restart
+        MetricIds restarted = new MetricIds();
+        spool = new MetricSpool(directory, 4, restarted);
+        MetricFrame metrics = new MetricFrame(restarted);
+        metrics.put("AMPS 1|host|memory|free", 7);
+        spool.append(metrics, 7000);
+        spool.close();
+        assertEquals(names, new File(directory, MetricSpool.NAMES_FILE).length());
+        assertEquals("AMPS 1|host|memory|free 7000 7.0", read().get(3));
+    }
+
+    @Test
+    public void countsTheRecordsOfAReusedRing() throws IOException {
+        MetricSpool spool = new MetricSpool(directory, 4, metricIds);
+        spool.append(frame(1), 1000);
+        long names = new File(directory, MetricSpool.NAMES_FILE).length();
+        MetricFrame other = new MetricFrame(metricIds);
+        other.put("AMPS 2|host|memory|free", 2);
+        other.put("AMPS 2|instance|queries|queued_queries", 20);
+        spool.append(other, 2000);
+        spool.close();
+
+        // the records of AMPS 2 are overwritten by the first wrap after the restart
+        MetricIds restarted = new MetricIds();
+        spool = new MetricSpool(directory, 4, restarted);
+        for (int i = 3; i <= 4; i++) {
+            MetricFrame metrics = new MetricFrame(restarted);
+            metrics.put("AMPS 1|host|memory|free", i);
+            metrics.put("AMPS 1|instance|queries|queued_queries", i * 10);
+            spool.append(metrics, i * 1000);
+        }
+        spool.close();
+        assertEquals(names, new File(directory, MetricSpool.NAMES_FILE).length());
+        assertEquals("AMPS 1|host|memory|free 3000 3.0", read().get(0));
+    }
+
+    @Test
+    public void skipsTornRecords() throws IOException {
+        MetricSpool spool = new MetricSpool(directory, 100, metricIds);
+        spool.append(frame(1), 1000);
+        spool.close();
+
+        // the head reached the disk but the second record did not
+        RandomAccessFile ring = new RandomAccessFile(new File(directory, MetricSpool.RING_FILE), "rw");
+        ring.seek(MetricSpool.HEADER_SIZE + MetricSpool.RECORD_SIZE);
+        ring.write(new byte[MetricSpool.RECORD_SIZE]);
+        ring.close();
+
+        List<String> records = read();
+        assertEquals(1, records.size());
+        assertEquals("AMPS 1|host|memory|free 1000 1.0", records.get(0));
+    }
+
+    @Test
+    public void startsOverWhenTheCapacityChanges() throws IOException {
+        MetricSpool spool = new MetricSpool(directory, 100, metricIds);
+        spool.append(frame(1), 1000);
+        spool.close();
+
+        spool = new MetricSpool(directory, 50, metricIds);
+        assertEquals(0, spool.getHead());
+        spool.append(frame(2), 2000);
+        spool.close();
+        assertEquals(2, read().size());
+    }
+
+    @Test
+    public void summarizesEveryMetric() throws IOException {
+        MetricSpool spool = new MetricSpool(directory, 100, metricIds);
+        spool.append(frame(1), 0);
+        spool.append(frame(3), 60000);
+        spool.close();
+
+        StringWriter out = new StringWriter();
+        MetricSpoolReader reader = new MetricSpoolReader(Pattern.compile(".*free"), true, new PrintWriter(out));
+        MetricSpool.read(directory, reader);
+        reader.finish();
+        String[] lines = out.toString().split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[1], lines[1].startsWith("AMPS 1|host|memory|free\t2\t1970-01-01T00:00:00.000Z\t1970-01-01T00:01:00.000Z\t1.0\t3.0\t2.0"));
+    }
+
+    private MetricFrame frame(int value) {
+        MetricFrame metrics = new MetricFrame(metricIds);
+        metrics.put("AMPS 1|host|memory|free", value);
+        metrics.put("AMPS 1|instance|queries|queued_queries", value * 10);
+        return metrics;
+    }
+
+    private List<String> read() throws IOException {
+        List<String> records = new ArrayList<String>();
+        MetricSpool.read(directory, collect(records));
+        return records;
+    }
+
+    private static MetricSpool.Visitor collect(final List<String> records) {
+        return new MetricSpool.Visitor() {
+            public void sample(String metricName, long timestamp, double value) {
+                records.add(metricName + " " + timestamp + " " + value);
+            }
+        };
+    }
+}
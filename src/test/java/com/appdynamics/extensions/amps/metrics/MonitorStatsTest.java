@@ -0,0 +1,89 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.amps.metrics;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MonitorStatsTest {
+
+    @Test
+    public void histogramPercentilesAreWithinAFactorOfTwo() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000L);
+        }
+        Histogram.Snapshot snapshot = histogram.snapshotAndReset();
+
+        assertEquals(100, snapshot.getCount());
+        assertEquals(50500, snapshot.getMean(), 0.001);
+        assertEquals(100000, snapshot.getMax());
+        long p95 = snapshot.getPercentile(95);
+        assertTrue("p95 " + p95, p95 >= 95000 && p95 <= 100000);
+        long p50 = snapshot.getPercentile(50);
+        assertTrue("p50 " + p50, p50 >= 50000 && p50 < 100000);
+        assertEquals(0, histogram.getCount());
+    }
+
+    @Test
+    public void reportsPhasesPerServerInMicros() {
+        MonitorStats stats = new MonitorStats();
+        MonitorStats.ServerStats server = stats.forServer("AMPS 1");
+        server.recordFirstByte(2000000);
+        server.recordTransfer(3000000, 4096);
+        server.recordExtract(500000);
+        server.recordError();
+        stats.recordEmit(1000, 11000, 40, 5);
+        stats.recordCycle(7000000, false);
+
+        Map<String, Double> report = stats.report();
+        assertEquals(2000, report.get("Monitor|Servers|AMPS 1|first_byte|avg_us"), 0);
+        assertEquals(3000, report.get("Monitor|Servers|AMPS 1|transfer|max_us"), 0);
+        assertEquals(500, report.get("Monitor|Servers|AMPS 1|extract|avg_us"), 0);
+        assertEquals(4096, report.get("Monitor|Servers|AMPS 1|response_bytes"), 0);
+        assertEquals(1, report.get("Monitor|Servers|AMPS 1|errors"), 0);
+        assertEquals(1, report.get("Monitor|filter|avg_us"), 0);
+        assertEquals(10, report.get("Monitor|emit|avg_us"), 0);
+        assertEquals(40, report.get("Monitor|metrics_emitted"), 0);
+        assertEquals(5, report.get("Monitor|metrics_dropped"), 0);
+        assertEquals(7000, report.get("Monitor|cycle|avg_us"), 0);
+        assertEquals(0, report.get("Monitor|cycle_overruns"), 0);
+    }
+
+    @Test
+    public void reportStartsOver() {
+        MonitorStats stats = new MonitorStats();
+        stats.forServer("AMPS 1").recordTransfer(1000, 10);
+        stats.recordCycle(1000, true);
+        assertEquals(1, stats.report().get("Monitor|cycle_overruns"), 0);
+
+        Map<String, Double> report = stats.report();
+        assertEquals(0, report.get("Monitor|cycle_overruns"), 0);
+        assertEquals(0, report.get("Monitor|Servers|AMPS 1|response_bytes"), 0);
+        assertFalse(report.containsKey("Monitor|Servers|AMPS 1|transfer|avg_us"));
+    }
+
+    @Test
+    public void forgetsRemovedServers() {
+        MonitorStats stats = new MonitorStats();
+        stats.forServer("AMPS 1");
+        stats.forServer("AMPS 2");
+        stats.retainServers(Arrays.asList("AMPS 2"));
+
+        Map<String, Double> report = stats.report();
+        assertFalse(report.containsKey("Monitor|Servers|AMPS 1|errors"));
+        assertTrue(report.containsKey("Monitor|Servers|AMPS 2|errors"));
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.amps.metrics;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RateConverterTest {
+
+    private static final String BYTES_IN = "AMPS 1|host|network|eth0|bytes_in";
+
+    private final RateConverter converter = new RateConverter(
+            new MetricFilter(Arrays.asList(".*\\|(bytes|packets)_(in|out)"), null), new MetricIds());
+
+    @Test
+    public void matchesConfiguredCounters() {
+        assertTrue(converter.isCounter(BYTES_IN));
+        assertFalse(converter.isCounter("AMPS 1|host|memory|total"));
+        assertFalse(new RateConverter(null, new MetricIds()).isCounter(BYTES_IN));
+    }
+
+    @Test
+    public void computesPerSecondRate() {
+        assertNull(converter.rate(BYTES_IN, 1000, 60000));
+        assertEquals(50, converter.rate(BYTES_IN, 4000, 120000), 0.0001);
+        assertEquals(0, converter.rate(BYTES_IN, 4000, 180000), 0.0001);
+    }
+
+    @Test
+    public void resetStartsNewBaseline() {
+        converter.rate(BYTES_IN, 1000000, 0);
+        assertNull(converter.rate(BYTES_IN, 600, 60000));
+        assertEquals(10, converter.rate(BYTES_IN, 1200, 120000), 0.0001);
+    }
+
+    @Test
+    public void ignoresSamplesWithoutElapsedTime() {
+        converter.rate(BYTES_IN, 100, 1000);
+        assertNull(converter.rate(BYTES_IN, 200, 1000));
+        assertEquals(200, converter.rate(BYTES_IN, 300, 2000), 0.0001);
+    }
+
+    @Test
+    public void multipliesRatesBelowOne() {
+        RateConverter scaled = new RateConverter(new MetricFilter(Arrays.asList(".*\\|bytes_in"), null), new MetricIds(), 100);
+        scaled.rate(BYTES_IN, 300, 2000);
+        assertEquals(25, scaled.rate(BYTES_IN, 301, 6000), 0.0001);
+    }
+
+    @Test
+    public void expiredCountersStartOver() {
+        converter.rate(BYTES_IN, 100, 1000);
+        converter.expire(5000);
+        assertNull(converter.rate(BYTES_IN, 200, 6000));
+    }
+}
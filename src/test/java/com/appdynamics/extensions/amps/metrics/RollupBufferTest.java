@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.amps.metrics;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RollupBufferTest {
+
+    private static final String CPU = "AMPS 1|host|cpus|user_percent";
+    private static final String MEMORY = "AMPS 1|host|memory|total";
+
+    private final MetricIds metricIds = new MetricIds();
+    private final MetricFilter rollupMetrics = new MetricFilter(Arrays.asList(".*\\|host\\|cpus\\|.*"), null);
+
+    @Test
+    public void rollsUpMatchingMetricsAndKeepsTheLastValueOfOthers() {
+        RollupBuffer buffer = new RollupBuffer(rollupMetrics, 12, metricIds);
+        buffer.add(sample(10, 100));
+        buffer.add(sample(90, 200));
+        buffer.add(sample(20, 300));
+
+        Map<String, Double> rollup = rollup(buffer);
+        assertEquals(20, rollup.get(CPU), 0);
+        assertEquals(10, rollup.get(CPU + RollupBuffer.MIN_SUFFIX), 0);
+        assertEquals(90, rollup.get(CPU + RollupBuffer.MAX_SUFFIX), 0);
+        assertEquals(40, rollup.get(CPU + RollupBuffer.AVG_SUFFIX), 0);
+        assertEquals(300, rollup.get(MEMORY), 0);
+        assertFalse(rollup.containsKey(MEMORY + RollupBuffer.MAX_SUFFIX));
+    }
+
+    @Test
+    public void eachRollupCoversItsOwnWindow() {
+        RollupBuffer buffer = new RollupBuffer(rollupMetrics, 12, metricIds);
+        buffer.add(sample(90, 100));
+        rollup(buffer);
+        buffer.add(sample(10, 100));
+
+        Map<String, Double> rollup = rollup(buffer);
+        assertEquals(10, rollup.get(CPU + RollupBuffer.MAX_SUFFIX), 0);
+        assertTrue(rollup(buffer).isEmpty());
+    }
+
+    @Test
+    public void overwritesTheOldestSamplesWhenFull() {
+        RollupBuffer buffer = new RollupBuffer(rollupMetrics, 2, metricIds);
+        buffer.add(sample(90, 100));
+        buffer.add(sample(10, 100));
+        buffer.add(sample(20, 100));
+
+        Map<String, Double> rollup = rollup(buffer);
+        assertEquals(20, rollup.get(CPU + RollupBuffer.MAX_SUFFIX), 0);
+        assertEquals(15, rollup.get(CPU + RollupBuffer.AVG_SUFFIX), 0);
+    }
+
+    @Test
+    public void reusesRingsOfMetricsThatDisappeared() {
+        RollupBuffer buffer = new RollupBuffer(rollupMetrics, 4, metricIds);
+        for (int i = 0; i < 100; i++) {
+            MetricFrame sample = new MetricFrame(metricIds);
+            sample.put("AMPS 1|host|cpus|cpu" + i + "|user_percent", i);
+            buffer.add(sample);
+        }
+        rollup(buffer);
+        assertEquals(100, buffer.ringsInUse());
+
+        MetricFrame sample = new MetricFrame(metricIds);
+        sample.put(CPU, 1.0);
+        buffer.add(sample);
+        rollup(buffer);
+        assertEquals(1, buffer.ringsInUse());
+    }
+
+    private MetricFrame sample(double cpu, double memory) {
+        MetricFrame metrics = new MetricFrame(metricIds);
+        metrics.put(CPU, cpu);
+        metrics.put(MEMORY, memory);
+        return metrics;
+    }
+
+    private Map<String, Double> rollup(RollupBuffer buffer) {
+        MetricFrame metrics = new MetricFrame(metricIds);
+        buffer.rollup(metrics);
+        return metrics.toMap();
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.amps.metrics;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TopNSelectorTest {
+
+    private static final List<String> FIELDS = Arrays.asList("queue_depth", "bytes_out", "lag");
+
+    @Test
+    public void selectsTheHighestOfEveryRanking() {
+        TopNSelector selector = new TopNSelector(2, Arrays.asList("queue_depth", "lag"));
+        for (int i = 0; i < 1000; i++) {
+            // queue depth peaks at client 500, lag at client 0
+            offer(selector, "client-" + i, 1000 - Math.abs(500 - i), i % 7, 1000 - i);
+        }
+        Map<String, Double> metrics = report(selector, "instance|clients|");
+
+        assertEquals(1000, metrics.get("instance|clients|Top|queue_depth|1|queue_depth"), 0);
+        assertEquals(999, metrics.get("instance|clients|Top|queue_depth|2|queue_depth"), 0);
+        assertEquals(1000, metrics.get("instance|clients|Top|lag|1|lag"), 0);
+        assertEquals(999, metrics.get("instance|clients|Top|lag|2|lag"), 0);
+        assertEquals(500, metrics.get("instance|clients|Top|lag|1|queue_depth"), 0);
+        assertFalse(metrics.containsKey("instance|clients|Top|lag|3|lag"));
+        assertEquals(1000, metrics.get("instance|clients|Total|count"), 0);
+        assertEquals(996, metrics.get("instance|clients|Others|count"), 0);
+    }
+
+    @Test
+    public void othersAndTopAddUpToTheTotal() {
+        TopNSelector selector = new TopNSelector(3, Arrays.asList("bytes_out"));
+        double total = 0;
+        for (int i = 0; i < 100; i++) {
+            offer(selector, "client-" + i, 0, i * 10, 0);
+            total += i * 10;
+        }
+        Map<String, Double> metrics = report(selector, "");
+
+        double top = metrics.get("Top|bytes_out|1|bytes_out") + metrics.get("Top|bytes_out|2|bytes_out")
+                + metrics.get("Top|bytes_out|3|bytes_out");
+        assertEquals(990, metrics.get("Top|bytes_out|1|bytes_out"), 0);
+        assertEquals(total, metrics.get("Total|bytes_out"), 0);
+        assertEquals(total - top, metrics.get("Others|bytes_out"), 0);
+    }
+
+    @Test
+    public void outputIsBoundedByK() {
+        TopNSelector selector = new TopNSelector(5, FIELDS);
+        for (int i = 0; i < 10000; i++) {
+            offer(selector, "client-" + i, i % 97, i % 89, i % 83);
+        }
+        Map<String, Double> metrics = report(selector, "");
+
+        // at most 5 clients per ranking with 3 fields each, 3 totals, 3 others and 2 counts
+        assertTrue(metrics.size() <= 5 * 3 * 3 + 3 + 3 + 2);
+    }
+
+    @Test
+    public void startsOverAfterReport() {
+        TopNSelector selector = new TopNSelector(1, FIELDS);
+        offer(selector, "client-1", 10, 10, 10);
+        report(selector, "");
+        offer(selector, "client-2", 1, 1, 1);
+
+        Map<String, Double> metrics = report(selector, "");
+        assertEquals(1, metrics.get("Top|lag|1|lag"), 0);
+        assertEquals(1, metrics.get("Total|count"), 0);
+    }
+
+    @Test
+    public void keepsTheSchemaWhileTheClientsComeAndGo() {
+        TopNSelector selector = new TopNSelector(2, FIELDS);
+        MetricIds metricIds = new MetricIds();
+        MetricFrame metrics = new MetricFrame(metricIds);
+        offer(selector, "client-1", 10, 10, 10);
+        offer(selector, "client-2", 5, 5, 5);
+        selector.report("", metrics);
+        int names = metricIds.size();
+
+        metrics.clear();
+        offer(selector, "client-3", 1, 1, 1);
+        offer(selector, "client-4", 2, 2, 2);
+        selector.report("", metrics);
+        assertEquals(names, metricIds.size());
+        assertEquals(2, metrics.toMap().get("Top|queue_depth|1|queue_depth"), 0);
+    }
+
+    private static void offer(TopNSelector selector, String client, double queueDepth, double bytesOut, double lag) {
+        selector.offer(client, FIELDS, new double[]{queueDepth, bytesOut, lag});
+    }
+
+    private static Map<String, Double> report(TopNSelector selector, String prefix) {
+        MetricFrame metrics = new MetricFrame(new MetricIds());
+        selector.report(prefix, metrics);
+        return metrics.toMap();
+    }
+}